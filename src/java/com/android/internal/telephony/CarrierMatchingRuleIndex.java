@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.ArrayMap;
+
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Carrier matching rules of the carrier id table, compiled per MCCMNC and shared by all
+ * {@link CarrierResolver}s and the static carrier id lookups of the process.
+ *
+ * The compiled rules of an MCCMNC keep the GID1 and ICCID prefixes of its rules in prefix tries,
+ * so that matching a subscription only scores the rules whose prefixes the subscription has. The
+ * index belongs to one carrier id table version and is dropped when the table changes. Until
+ * then its version stands in for the table version, so that lookups need not query it.
+ */
+class CarrierMatchingRuleIndex {
+    /** Upper bound on the number of MCCMNCs kept compiled. */
+    private static final int MAX_MCCMNC = 64;
+
+    private static CarrierMatchingRuleIndex sIndex;
+
+    private final int mVersion;
+
+    /** Compiled rules by MCCMNC. */
+    private final ArrayMap<String, MccMncRules> mRulesByMccMnc = new ArrayMap<>();
+
+    private CarrierMatchingRuleIndex(int version) {
+        mVersion = version;
+    }
+
+    /**
+     * @param version The current carrier id table version.
+     * @return The index of that version, empty if the table changed since the last call.
+     */
+    @NonNull
+    static synchronized CarrierMatchingRuleIndex forVersion(int version) {
+        if (sIndex == null || sIndex.mVersion != version) {
+            sIndex = new CarrierMatchingRuleIndex(version);
+        }
+        return sIndex;
+    }
+
+    /**
+     * @return The carrier id table version of the index, or {@code null} if there is none, e.g.
+     * because the table changed since the index was built.
+     */
+    @Nullable
+    static synchronized Integer getVersion() {
+        return (sIndex == null) ? null : sIndex.mVersion;
+    }
+
+    /** Drop the index, so that the rules are read from the carrier id table again. */
+    static synchronized void invalidate() {
+        sIndex = null;
+    }
+
+    /**
+     * @param mccmnc The MCCMNC.
+     * @return The compiled rules of the MCCMNC, or {@code null} if they are not compiled yet.
+     */
+    @Nullable
+    synchronized MccMncRules get(@NonNull String mccmnc) {
+        return mRulesByMccMnc.get(mccmnc);
+    }
+
+    /**
+     * Compile and keep the rules of an MCCMNC.
+     *
+     * @param mccmnc The MCCMNC.
+     * @param rules All the rules of the carrier id table for the MCCMNC, in table order.
+     * @return The compiled rules.
+     */
+    @NonNull
+    synchronized MccMncRules put(@NonNull String mccmnc,
+            @NonNull List<CarrierMatchingRule> rules) {
+        if (mRulesByMccMnc.size() >= MAX_MCCMNC) {
+            // Border areas and roaming only ever visit a handful of networks.
+            mRulesByMccMnc.clear();
+        }
+        MccMncRules compiled = new MccMncRules(mccmnc, rules);
+        mRulesByMccMnc.put(mccmnc, compiled);
+        return compiled;
+    }
+
+    /** The rules of one MCCMNC, with their GID1 and ICCID prefixes in tries. */
+    static class MccMncRules {
+        private final String mMccMnc;
+        private final List<CarrierMatchingRule> mRules;
+        private final BitSet mWithoutGid1 = new BitSet();
+        private final BitSet mWithoutIccidPrefix = new BitSet();
+        private final PrefixTrie mGid1Trie = new PrefixTrie();
+        private final PrefixTrie mIccidTrie = new PrefixTrie();
+
+        MccMncRules(@Nullable String mccmnc, @NonNull List<CarrierMatchingRule> rules) {
+            mMccMnc = mccmnc;
+            mRules = Collections.unmodifiableList(rules);
+            for (int i = 0; i < rules.size(); i++) {
+                CarrierMatchingRule rule = rules.get(i);
+                if (rule.gid1 == null) {
+                    mWithoutGid1.set(i);
+                } else {
+                    mGid1Trie.add(rule.getGid1LowerCase(), i);
+                }
+                if (rule.iccidPrefix == null) {
+                    mWithoutIccidPrefix.set(i);
+                } else {
+                    mIccidTrie.add(rule.iccidPrefix, i);
+                }
+            }
+        }
+
+        /** @return The rules, in carrier id table order. */
+        @NonNull
+        List<CarrierMatchingRule> getRules() {
+            return mRules;
+        }
+
+        /**
+         * Score the rules against a subscription.
+         *
+         * @param subscriptionRule The attributes of the subscription.
+         * @return The score of each rule, in the order of {@link #getRules()}, as
+         * {@link CarrierMatchingRule#score} would give.
+         */
+        @NonNull
+        int[] score(@NonNull CarrierMatchingRule subscriptionRule) {
+            BitSet candidates = (BitSet) mWithoutGid1.clone();
+            mGid1Trie.collectPrefixesOf(subscriptionRule.getGid1LowerCase(), candidates);
+            BitSet iccidCandidates = (BitSet) mWithoutIccidPrefix.clone();
+            mIccidTrie.collectPrefixesOf(subscriptionRule.iccidPrefix, iccidCandidates);
+            candidates.and(iccidCandidates);
+
+            int[] scores = new int[mRules.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = candidates.get(i) ? mRules.get(i).score(subscriptionRule)
+                        : CarrierMatchingRule.SCORE_INVALID;
+            }
+            return scores;
+        }
+
+        /**
+         * @return The first rule that matches on the MCCMNC alone, or {@code null} if there is
+         * none.
+         */
+        @Nullable
+        CarrierMatchingRule getMccMncOnlyRule() {
+            for (CarrierMatchingRule rule : mRules) {
+                if (rule.isMccMncOnly() && rule.mccMnc.equals(mMccMnc)) return rule;
+            }
+            return null;
+        }
+    }
+
+    /** Positions of rules by prefix. */
+    private static class PrefixTrie {
+        private final Node mRoot = new Node();
+
+        private static class Node {
+            HashMap<Character, Node> mNext;
+            BitSet mPositions;
+        }
+
+        void add(@NonNull String prefix, int position) {
+            Node node = mRoot;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (node.mNext == null) {
+                    node.mNext = new HashMap<>();
+                }
+                node = node.mNext.computeIfAbsent(prefix.charAt(i), c -> new Node());
+            }
+            if (node.mPositions == null) {
+                node.mPositions = new BitSet();
+            }
+            node.mPositions.set(position);
+        }
+
+        /** Add the positions of all the prefixes of the value to the given set. */
+        void collectPrefixesOf(@Nullable String value, @NonNull BitSet out) {
+            if (value == null) return;
+            Node node = mRoot;
+            for (int i = 0; ; i++) {
+                if (node.mPositions != null) {
+                    out.or(node.mPositions);
+                }
+                if (i == value.length() || node.mNext == null) return;
+                node = node.mNext.get(value.charAt(i));
+                if (node == null) return;
+            }
+        }
+    }
+}
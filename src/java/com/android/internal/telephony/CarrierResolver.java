@@ -41,6 +41,7 @@ import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.CarrierMatchingRuleIndex.MccMncRules;
 import com.android.internal.telephony.metrics.CarrierIdMatchStats;
 import com.android.internal.telephony.metrics.TelephonyMetrics;
 import com.android.internal.telephony.uicc.IccRecords;
@@ -82,7 +83,7 @@ public class CarrierResolver extends Handler {
     // cached version of the carrier list, so that we don't need to re-query it every time.
     private Integer mCarrierListVersion;
     // cached matching rules based mccmnc to speed up resolution
-    private List<CarrierMatchingRule> mCarrierMatchingRulesOnMccMnc = new ArrayList<>();
+    private MccMncRules mCarrierMatchingRulesOnMccMnc = new MccMncRules(null, new ArrayList<>());
     // cached carrier Id
     private int mCarrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
     // cached specific carrier Id
@@ -239,7 +240,7 @@ public class CarrierResolver extends Handler {
     }
 
     private void handleSimAbsent() {
-        mCarrierMatchingRulesOnMccMnc.clear();
+        mCarrierMatchingRulesOnMccMnc = new MccMncRules(null, new ArrayList<>());
         mSpn = null;
         mPreferApn = null;
         updateCarrierIdAndName(TelephonyManager.UNKNOWN_CARRIER_ID, null,
@@ -287,6 +288,7 @@ public class CarrierResolver extends Handler {
             case CARRIER_ID_DB_UPDATE_EVENT:
                 // clean the cached carrier list version, so that a new one will be queried.
                 mCarrierListVersion = null;
+                CarrierMatchingRuleIndex.invalidate();
                 loadCarrierMatchingRulesOnMccMnc(true /* update carrier config*/, false);
                 break;
             case PREFER_APN_UPDATE_EVENT:
@@ -326,30 +328,19 @@ public class CarrierResolver extends Handler {
             boolean isSimOverride) {
         try {
             String mccmnc = mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId());
-            Cursor cursor = mContext.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=?",
-                    /* selectionArgs */ new String[]{mccmnc}, null);
+            Integer version;
             try {
-                if (cursor != null) {
-                    if (VDBG) {
-                        logd("[loadCarrierMatchingRules]- " + cursor.getCount()
-                                + " Records(s) in DB" + " mccmnc: " + mccmnc);
-                    }
-                    mCarrierMatchingRulesOnMccMnc.clear();
-                    while (cursor.moveToNext()) {
-                        mCarrierMatchingRulesOnMccMnc.add(makeCarrierMatchingRule(cursor));
-                    }
-                    matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
+                version = getCarrierListVersion();
+            } catch (Exception ex) {
+                version = null;
+            }
+            MccMncRules rules = getMatchingRulesFromMccMnc(mContext, mccmnc, version);
+            if (rules != null) {
+                mCarrierMatchingRulesOnMccMnc = rules;
+                matchSubscriptionCarrier(updateCarrierConfig, isSimOverride);
 
-                    // Generate metrics related to carrier ID table version.
-                    CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
+                // Generate metrics related to carrier ID table version.
+                CarrierIdMatchStats.sendCarrierIdTableVersion(getCarrierListVersion());
             }
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
@@ -384,9 +375,29 @@ public class CarrierResolver extends Handler {
         return null;
     }
 
+    /**
+     * Get the matching rules of an mccmnc, from the rules shared by the process when the carrier
+     * id table version is known.
+     *
+     * @return the compiled rules, or {@code null} if the carrier id table could not be read.
+     */
+    @Nullable
+    private static MccMncRules getMatchingRulesFromMccMnc(@NonNull Context context,
+            String mccmnc, @Nullable Integer version) {
+        CarrierMatchingRuleIndex index = (version == null || mccmnc == null)
+                ? null : CarrierMatchingRuleIndex.forVersion(version);
+        if (index != null) {
+            MccMncRules rules = index.get(mccmnc);
+            if (rules != null) return rules;
+        }
+        List<CarrierMatchingRule> rules = getCarrierMatchingRulesFromMccMnc(context, mccmnc);
+        if (rules == null) return null;
+        return (index != null) ? index.put(mccmnc, rules) : new MccMncRules(mccmnc, rules);
+    }
+
+    @Nullable
     private static List<CarrierMatchingRule> getCarrierMatchingRulesFromMccMnc(
             @NonNull Context context, String mccmnc) {
-        List<CarrierMatchingRule> rules = new ArrayList<>();
         try {
             Cursor cursor = context.getContentResolver().query(
                     CarrierId.All.CONTENT_URI,
@@ -399,10 +410,11 @@ public class CarrierResolver extends Handler {
                         logd("[loadCarrierMatchingRules]- " + cursor.getCount()
                                 + " Records(s) in DB" + " mccmnc: " + mccmnc);
                     }
-                    rules.clear();
+                    List<CarrierMatchingRule> rules = new ArrayList<>();
                     while (cursor.moveToNext()) {
                         rules.add(makeCarrierMatchingRule(cursor));
                     }
+                    return rules;
                 }
             } finally {
                 if (cursor != null) {
@@ -412,7 +424,35 @@ public class CarrierResolver extends Handler {
         } catch (Exception ex) {
             loge("[loadCarrierMatchingRules]- ex: " + ex);
         }
-        return rules;
+        return null;
+    }
+
+    /**
+     * @return the carrier id table version of the rules shared by the process, queried only when
+     * there are none. The shared rules are dropped when the carrier id table changes, see
+     * {@link #CARRIER_ID_DB_UPDATE_EVENT}.
+     */
+    @Nullable
+    private static Integer getSharedCarrierListVersion(@NonNull Context context) {
+        Integer version = CarrierMatchingRuleIndex.getVersion();
+        return (version != null) ? version : queryCarrierListVersion(context);
+    }
+
+    /**
+     * @return the carrier id table version, or {@code null} if the table could not be read.
+     */
+    @Nullable
+    private static Integer queryCarrierListVersion(@NonNull Context context) {
+        // The auto closeable cursor will be closed after exiting try-block.
+        try (Cursor cursor = context.getContentResolver().query(
+                Uri.withAppendedPath(CarrierId.All.CONTENT_URI,
+                "get_version"), null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) return null;
+            return cursor.getInt(0);
+        } catch (Exception ex) {
+            loge("[queryCarrierListVersion]- ex: " + ex);
+            return null;
+        }
     }
 
     private String getPreferApn() {
@@ -594,7 +634,7 @@ public class CarrierResolver extends Handler {
         private static final int SCORE_SPN                      = 1 << 1;
         private static final int SCORE_APN                      = 1 << 0;
 
-        private static final int SCORE_INVALID                  = -1;
+        static final int SCORE_INVALID                          = -1;
 
         // carrier matching attributes
         public final String mccMnc;
@@ -608,6 +648,10 @@ public class CarrierResolver extends Handler {
         // there can be multiple certs configured in the UICC
         public final List<String> privilegeAccessRule;
 
+        // lower case gids, compared by prefix
+        private final String mGid1LowerCase;
+        private final String mGid2LowerCase;
+
         // user-facing carrier name
         private String mName;
         // unique carrier id
@@ -630,6 +674,8 @@ public class CarrierResolver extends Handler {
             this.spn = spn;
             this.apn = apn;
             this.privilegeAccessRule = privilegeAccessRule;
+            mGid1LowerCase = (gid1 == null) ? null : gid1.toLowerCase();
+            mGid2LowerCase = (gid2 == null) ? null : gid2.toLowerCase();
             mCid = cid;
             mName = name;
             mParentCid = parentCid;
@@ -645,6 +691,8 @@ public class CarrierResolver extends Handler {
             spn = rule.spn;
             apn = rule.apn;
             privilegeAccessRule = rule.privilegeAccessRule;
+            mGid1LowerCase = rule.mGid1LowerCase;
+            mGid2LowerCase = rule.mGid2LowerCase;
             mCid = rule.mCid;
             mName = rule.mName;
             mParentCid = rule.mParentCid;
@@ -656,73 +704,73 @@ public class CarrierResolver extends Handler {
         // will beat any subsequent match which does not match at that tier. When there are multiple
         // matches at the same tier, the match with highest score will be used.
         public void match(CarrierMatchingRule subscriptionRule) {
-            mScore = 0;
+            mScore = score(subscriptionRule);
+        }
+
+        /**
+         * @return The matching score of the subscription against this rule, as {@link #match}
+         * computes it, without changing the rule.
+         */
+        int score(CarrierMatchingRule subscriptionRule) {
+            int score = 0;
             if (mccMnc != null) {
                 if (!CarrierResolver.equals(subscriptionRule.mccMnc, mccMnc, false)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_MCCMNC;
+                score += SCORE_MCCMNC;
             }
             if (imsiPrefixPattern != null) {
                 if (!imsiPrefixMatch(subscriptionRule.imsiPrefixPattern, imsiPrefixPattern)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_IMSI_PREFIX;
+                score += SCORE_IMSI_PREFIX;
             }
             if (iccidPrefix != null) {
                 if (!iccidPrefixMatch(subscriptionRule.iccidPrefix, iccidPrefix)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_ICCID_PREFIX;
+                score += SCORE_ICCID_PREFIX;
             }
             if (gid1 != null) {
-                if (!gidMatch(subscriptionRule.gid1, gid1)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                if (!gidMatch(subscriptionRule.mGid1LowerCase, mGid1LowerCase)) {
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_GID1;
+                score += SCORE_GID1;
             }
             if (gid2 != null) {
-                if (!gidMatch(subscriptionRule.gid2, gid2)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                if (!gidMatch(subscriptionRule.mGid2LowerCase, mGid2LowerCase)) {
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_GID2;
+                score += SCORE_GID2;
             }
             if (plmn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.plmn, plmn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_PLMN;
+                score += SCORE_PLMN;
             }
             if (spn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.spn, spn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_SPN;
+                score += SCORE_SPN;
             }
 
             if (privilegeAccessRule != null && !privilegeAccessRule.isEmpty()) {
                 if (!carrierPrivilegeRulesMatch(subscriptionRule.privilegeAccessRule,
                         privilegeAccessRule)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_PRIVILEGE_ACCESS_RULE;
+                score += SCORE_PRIVILEGE_ACCESS_RULE;
             }
 
             if (apn != null) {
                 if (!CarrierResolver.equals(subscriptionRule.apn, apn, true)) {
-                    mScore = SCORE_INVALID;
-                    return;
+                    return SCORE_INVALID;
                 }
-                mScore += SCORE_APN;
+                score += SCORE_APN;
             }
+            return score;
         }
 
         private boolean imsiPrefixMatch(String imsi, String prefixXPattern) {
@@ -747,11 +795,22 @@ public class CarrierResolver extends Handler {
             return iccid.startsWith(prefix);
         }
 
-        // We are doing prefix and case insensitive match.
+        // We are doing prefix and case insensitive match, on gids already in lower case.
         // Ideally we should do full string match. However due to SIM manufacture issues
         // gid from some SIM might has garbage tail.
         private boolean gidMatch(String gidFromSim, String gid) {
-            return (gidFromSim != null) && gidFromSim.toLowerCase().startsWith(gid.toLowerCase());
+            return (gidFromSim != null) && gidFromSim.startsWith(gid);
+        }
+
+        String getGid1LowerCase() {
+            return mGid1LowerCase;
+        }
+
+        /** @return {@code true} if the rule has no attribute other than the MCCMNC. */
+        boolean isMccMncOnly() {
+            return mccMnc != null && imsiPrefixPattern == null && iccidPrefix == null
+                    && gid1 == null && gid2 == null && plmn == null && spn == null && apn == null
+                    && (privilegeAccessRule == null || privilegeAccessRule.isEmpty());
         }
 
         private boolean carrierPrivilegeRulesMatch(List<String> certsFromSubscription,
@@ -857,13 +916,17 @@ public class CarrierResolver extends Handler {
         CarrierMatchingRule mnoRule = null;
         CarrierMatchingRule subscriptionRule = getSubscriptionMatchingRule();
 
-        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc) {
-            rule.match(subscriptionRule);
-            if (rule.mScore > maxScore) {
-                maxScore = rule.mScore;
+        // the rules are shared with other phones, so the scores are kept apart from them.
+        List<CarrierMatchingRule> rules = mCarrierMatchingRulesOnMccMnc.getRules();
+        int[] scores = mCarrierMatchingRulesOnMccMnc.score(subscriptionRule);
+        for (int i = 0; i < scores.length; i++) {
+            CarrierMatchingRule rule = rules.get(i);
+            int score = scores[i];
+            if (score > maxScore) {
+                maxScore = score;
                 maxRule = rule;
                 maxRuleParent = rule;
-            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && rule.mScore == maxScore) {
+            } else if (maxScore > CarrierMatchingRule.SCORE_INVALID && score == maxScore) {
                 // to handle the case that child parent has the same matching score, we need to
                 // differentiate who is child who is parent.
                 if (rule.mParentCid == maxRule.mCid) {
@@ -872,7 +935,7 @@ public class CarrierResolver extends Handler {
                     maxRuleParent = rule;
                 }
             }
-            if (rule.mScore == CarrierMatchingRule.SCORE_MCCMNC) {
+            if (score == CarrierMatchingRule.SCORE_MCCMNC) {
                 mnoRule = rule;
             }
         }
@@ -1036,13 +1099,14 @@ public class CarrierResolver extends Handler {
 
         int carrierId = TelephonyManager.UNKNOWN_CARRIER_ID;
         int maxScore = CarrierMatchingRule.SCORE_INVALID;
-        List<CarrierMatchingRule> rules = getCarrierMatchingRulesFromMccMnc(
-                context, targetRule.mccMnc);
-        for (CarrierMatchingRule rule : rules) {
-            rule.match(targetRule);
-            if (rule.mScore > maxScore) {
-                maxScore = rule.mScore;
-                carrierId = rule.mCid;
+        MccMncRules rules = getMatchingRulesFromMccMnc(
+                context, targetRule.mccMnc, getSharedCarrierListVersion(context));
+        if (rules == null) return carrierId;
+        int[] scores = rules.score(targetRule);
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > maxScore) {
+                maxScore = scores[i];
+                carrierId = rules.getRules().get(i).mCid;
             }
         }
         return carrierId;
@@ -1104,17 +1168,8 @@ public class CarrierResolver extends Handler {
 
     // static helper function to get carrier id from mccmnc
     public static int getCarrierIdFromMccMnc(@NonNull Context context, String mccmnc) {
-        try (Cursor cursor = getCursorForMccMnc(context, mccmnc)) {
-            if (cursor == null || !cursor.moveToNext()) return TelephonyManager.UNKNOWN_CARRIER_ID;
-            if (VDBG) {
-                logd("[getCarrierIdFromMccMnc]- " + cursor.getCount()
-                        + " Records(s) in DB" + " mccmnc: " + mccmnc);
-            }
-            return cursor.getInt(cursor.getColumnIndex(CarrierId.CARRIER_ID));
-        } catch (Exception ex) {
-            loge("[getCarrierIdFromMccMnc]- ex: " + ex);
-        }
-        return TelephonyManager.UNKNOWN_CARRIER_ID;
+        CarrierMatchingRule mnoRule = getMccMncOnlyRule(context, mccmnc);
+        return (mnoRule != null) ? mnoRule.mCid : TelephonyManager.UNKNOWN_CARRIER_ID;
     }
 
     /**
@@ -1127,41 +1182,21 @@ public class CarrierResolver extends Handler {
      */
     @Nullable
     public static String getCarrierNameFromMccMnc(@NonNull Context context, String mccmnc) {
-        try (Cursor cursor = getCursorForMccMnc(context, mccmnc)) {
-            if (cursor == null || !cursor.moveToNext()) return null;
-            if (VDBG) {
-                logd("[getCarrierNameFromMccMnc]- " + cursor.getCount()
-                        + " Records(s) in DB" + " mccmnc: " + mccmnc);
-            }
-            return cursor.getString(cursor.getColumnIndex(CarrierId.CARRIER_NAME));
-        } catch (Exception ex) {
-            loge("[getCarrierNameFromMccMnc]- ex: " + ex);
-        }
-        return null;
+        CarrierMatchingRule mnoRule = getMccMncOnlyRule(context, mccmnc);
+        return (mnoRule != null) ? mnoRule.mName : null;
     }
 
+    /**
+     * @return the rule identifying the carrier by mccmnc alone, from the rules shared by the
+     * process, or {@code null} if there is none or the carrier id table could not be read.
+     */
     @Nullable
-    private static Cursor getCursorForMccMnc(@NonNull Context context, String mccmnc) {
-        try {
-            Cursor cursor = context.getContentResolver().query(
-                    CarrierId.All.CONTENT_URI,
-                    /* projection */ null,
-                    /* selection */ CarrierId.All.MCCMNC + "=? AND "
-                            + CarrierId.All.GID1 + " is NULL AND "
-                            + CarrierId.All.GID2 + " is NULL AND "
-                            + CarrierId.All.IMSI_PREFIX_XPATTERN + " is NULL AND "
-                            + CarrierId.All.SPN + " is NULL AND "
-                            + CarrierId.All.ICCID_PREFIX + " is NULL AND "
-                            + CarrierId.All.PLMN + " is NULL AND "
-                            + CarrierId.All.PRIVILEGE_ACCESS_RULE + " is NULL AND "
-                            + CarrierId.All.APN + " is NULL",
-                    /* selectionArgs */ new String[]{mccmnc},
-                    null);
-            return cursor;
-        } catch (Exception ex) {
-            loge("[getCursorForMccMnc]- ex: " + ex);
-            return null;
-        }
+    private static CarrierMatchingRule getMccMncOnlyRule(@NonNull Context context,
+            String mccmnc) {
+        if (TextUtils.isEmpty(mccmnc)) return null;
+        MccMncRules rules = getMatchingRulesFromMccMnc(
+                context, mccmnc, getSharedCarrierListVersion(context));
+        return (rules == null) ? null : rules.getMccMncOnlyRule();
     }
 
     private static boolean equals(String a, String b, boolean ignoreCase) {
@@ -1200,7 +1235,7 @@ public class CarrierResolver extends Handler {
         ipw.println("mCarrierMatchingRules on mccmnc: "
                 + mTelephonyMgr.getSimOperatorNumericForPhone(mPhone.getPhoneId()));
         ipw.increaseIndent();
-        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc) {
+        for (CarrierMatchingRule rule : mCarrierMatchingRulesOnMccMnc.getRules()) {
             ipw.println(rule.toString());
         }
         ipw.decreaseIndent();
@@ -30,6 +30,9 @@ public class ClientWakelockAccountant {
     public ClientRequestStats mRequestStats = new ClientRequestStats();
     @VisibleForTesting
     public ArrayList<RilWakelockInfo> mPendingRilWakelocks = new ArrayList<>();
+    /** Distribution of the wakelock time attributed to each completed request of the client. */
+    @VisibleForTesting
+    public final LatencyHistogram mWakelockTimeHistogram = new LatencyHistogram();
 
     @VisibleForTesting
     public ClientWakelockAccountant(String callingPackage) {
@@ -75,6 +78,7 @@ public class ClientWakelockAccountant {
 
     private void completeRequest(RilWakelockInfo wlInfo, long time) {
         wlInfo.setResponseTime(time);
+        mWakelockTimeHistogram.record((int) wlInfo.getWakelockTimeAttributedToClient());
         synchronized (mRequestStats) {
             mRequestStats.addCompletedWakelockTime(wlInfo.getWakelockTimeAttributedToClient());
             mRequestStats.incrementCompletedRequestsCount();
@@ -128,6 +132,7 @@ public class ClientWakelockAccountant {
     public String toString() {
         return "ClientWakelockAccountant{" +
                 "mRequestStats=" + mRequestStats +
+                ", mWakelockTimeHistogram={" + mWakelockTimeHistogram.snapshot() + "}" +
                 ", mPendingRilWakelocks=" + mPendingRilWakelocks +
                 '}';
     }
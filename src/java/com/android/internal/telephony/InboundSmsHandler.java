@@ -119,7 +119,8 @@ public abstract class InboundSmsHandler extends StateMachine {
     /** Query projection for checking for duplicate message segments. */
     private static final String[] PDU_DELETED_FLAG_PROJECTION = {
             "pdu",
-            "deleted"
+            "deleted",
+            "_id"
     };
 
     /** Mapping from DB COLUMN to PDU_SEQUENCE_PORT PROJECTION index */
@@ -127,6 +128,7 @@ public abstract class InboundSmsHandler extends StateMachine {
             new HashMap<Integer, Integer>() {{
             put(PDU_COLUMN, 0);
             put(DELETED_FLAG_COLUMN, 1);
+            put(ID_COLUMN, 2);
             }};
 
     /** Query projection for combining concatenated message segments. */
@@ -232,6 +234,9 @@ public abstract class InboundSmsHandler extends StateMachine {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private final WapPushOverSms mWapPush;
 
+    /** In-memory index of the multi-part message segments in the raw table. */
+    private final MultipartSmsIndex mMultipartSmsIndex = new MultipartSmsIndex();
+
     /** Wake lock to ensure device stays awake while dispatching the SMS intents. */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private final PowerManager.WakeLock mWakeLock;
@@ -279,6 +284,18 @@ public abstract class InboundSmsHandler extends StateMachine {
     // Only mark deleted, but keep in db for message de-duping
     private final int MARK_DELETED = 2;
 
+    /** Maximum number of raw table mark-deletes held back before they are applied. */
+    private static final int MAX_PENDING_RAW_TABLE_DELETES = 16;
+
+    /**
+     * Raw table mark-deletes of handled messages that have not been applied yet. They are applied
+     * in one batch when returning to idle, when too many are pending, or before the raw table is
+     * read in a way that depends on them. Carrier SMS filters queue deletes from their binder
+     * threads, so the queue is thread safe.
+     */
+    @VisibleForTesting
+    public final RawTableDeleteQueue mRawTableDeleteQueue;
+
     private static String ACTION_OPEN_SMS_APP =
         "com.android.internal.telephony.OPEN_DEFAULT_SMS_APP";
 
@@ -301,6 +318,8 @@ public abstract class InboundSmsHandler extends StateMachine {
         mStorageMonitor = storageMonitor;
         mPhone = phone;
         mResolver = context.getContentResolver();
+        mRawTableDeleteQueue = new RawTableDeleteQueue(mResolver, sRawUri,
+                MAX_PENDING_RAW_TABLE_DELETES);
         mWapPush = new WapPushOverSms(context);
 
         boolean smsCapable = mContext.getResources().getBoolean(
@@ -340,6 +359,7 @@ public abstract class InboundSmsHandler extends StateMachine {
      */
     @Override
     protected void onQuitting() {
+        flushPendingRawTableDeletes();
         mWapPush.dispose();
         mCellBroadcastServiceManager.disable();
 
@@ -469,6 +489,7 @@ public abstract class InboundSmsHandler extends StateMachine {
         @Override
         public void enter() {
             if (DBG) log("IdleState.enter: entering IdleState");
+            flushPendingRawTableDeletes();
             sendMessageDelayed(EVENT_RELEASE_WAKELOCK, getWakeLockTimeout());
         }
 
@@ -922,13 +943,44 @@ public abstract class InboundSmsHandler extends StateMachine {
             return false;
         }
 
+        MultipartSmsIndex.PendingMessage pending =
+                messageCount > 1 ? mMultipartSmsIndex.get(tracker) : null;
         if (messageCount == 1) {
             // single-part message
             pdus = new byte[][]{tracker.getPdu()};
             timestamps = new long[]{tracker.getTimestamp()};
             block = BlockChecker.isBlocked(mContext, tracker.getDisplayAddress(), null);
+        } else if (pending != null) {
+            // multi-part message with all segments tracked in memory
+            if (!pending.isComplete()) {
+                log("processMessagePart: returning false. Only " + pending.mReceived + " of "
+                        + messageCount + " segments " + " have arrived. refNumber: "
+                        + tracker.getReferenceNumber(), tracker.getMessageId());
+                return false;
+            }
+            // The segments are marked deleted once the message has been handled; stop tracking
+            // them now so that a later segment with the same reference reloads the raw table.
+            mMultipartSmsIndex.remove(tracker);
+
+            pdus = pending.mPdus;
+            timestamps = pending.mTimestamps;
+            // Prefer the port from the first segment (needed for CDMA WAP PDU).
+            if (pending.mDestPorts[0] != -1) {
+                destPort = pending.mDestPorts[0];
+            }
+            // See below for why every segment's display address is checked.
+            for (String displayAddress : pending.mDisplayAddresses) {
+                if (BlockChecker.isBlocked(mContext, displayAddress, null)) {
+                    block = true;
+                    break;
+                }
+            }
+            log("processMessagePart: all " + messageCount + " segments "
+                    + " received. refNumber: " + tracker.getReferenceNumber(),
+                    tracker.getMessageId());
         } else {
-            // multi-part message
+            // multi-part message not tracked in memory, e.g. left in the raw table before boot
+            flushPendingRawTableDeletes();
             Cursor cursor = null;
             try {
                 // used by several query selection arguments
@@ -1401,8 +1453,15 @@ public abstract class InboundSmsHandler extends StateMachine {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private void deleteFromRawTable(String deleteWhere, String[] deleteWhereArgs,
                                     int deleteType) {
-        Uri uri = deleteType == DELETE_PERMANENTLY ? sRawUriPermanentDelete : sRawUri;
-        int rows = mResolver.delete(uri, deleteWhere, deleteWhereArgs);
+        mMultipartSmsIndex.onRawTableDelete(deleteWhere, deleteWhereArgs);
+        if (deleteType == MARK_DELETED) {
+            mRawTableDeleteQueue.add(deleteWhere, deleteWhereArgs);
+            return;
+        }
+
+        // Keep deletes in order
+        flushPendingRawTableDeletes();
+        int rows = mResolver.delete(sRawUriPermanentDelete, deleteWhere, deleteWhereArgs);
         if (rows == 0) {
             loge("No rows were deleted from raw table!");
         } else if (DBG) {
@@ -1410,6 +1469,30 @@ public abstract class InboundSmsHandler extends StateMachine {
         }
     }
 
+    /** Apply all pending raw table mark-deletes in one batch. */
+    private void flushPendingRawTableDeletes() {
+        mRawTableDeleteQueue.flush();
+    }
+
+    /**
+     * @return true if a handled message's raw table row, or the segments of the tracker's message,
+     * are about to be marked deleted.
+     */
+    private boolean isPendingRawTableDelete(long rowId, InboundSmsTracker tracker) {
+        String id = Long.toString(rowId);
+        String[] segmentsArgs = {tracker.getAddress(),
+                Integer.toString(tracker.getReferenceNumber()),
+                Integer.toString(tracker.getMessageCount())};
+        return mRawTableDeleteQueue.anyMatch(selection -> {
+            if (SELECT_BY_ID.equals(selection.first)) {
+                return id.equals(selection.second[0]);
+            }
+            return tracker.getMessageCount() > 1
+                    && tracker.getQueryForSegments().equals(selection.first)
+                    && Arrays.equals(segmentsArgs, selection.second);
+        });
+    }
+
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Bundle handleSmsWhitelisting(ComponentName target, boolean bgActivityStartAllowed) {
         String pkgName;
@@ -1519,7 +1602,10 @@ public abstract class InboundSmsHandler extends StateMachine {
                 // if the exact matching row is marked deleted, that means this message has already
                 // been received and processed, and can be discarded as dup
                 if (cursor.getInt(
-                        PDU_DELETED_FLAG_PROJECTION_INDEX_MAPPING.get(DELETED_FLAG_COLUMN)) == 1) {
+                        PDU_DELETED_FLAG_PROJECTION_INDEX_MAPPING.get(DELETED_FLAG_COLUMN)) == 1
+                        || isPendingRawTableDelete(cursor.getLong(
+                                PDU_DELETED_FLAG_PROJECTION_INDEX_MAPPING.get(ID_COLUMN)),
+                                tracker)) {
                     logWithLocalLog("checkAndHandleDuplicate: Discarding duplicate "
                             + "message/segment: " + tracker);
                     logDupPduMismatch(cursor, tracker);
@@ -1546,9 +1632,14 @@ public abstract class InboundSmsHandler extends StateMachine {
 
         // The code above does an exact match. Multi-part message segments need an additional check
         // on top of that: if there is a message segment that conflicts this new one (may not be an
-        // exact match), replace the old message segment with this one.
-        if (tracker.getMessageCount() > 1) {
+        // exact match), replace the old message segment with this one. The in-memory index knows
+        // all undeleted segments with a valid sequence number, so only query when it has a
+        // conflicting one.
+        MultipartSmsIndex.PendingMessage pending = mMultipartSmsIndex.get(tracker);
+        if (tracker.getMessageCount() > 1 && (pending == null || !pending.isKnownAbsent(
+                tracker.getSequenceNumber() - tracker.getIndexOffset()))) {
             Pair<String, String[]> inexactMatchQuery = tracker.getInexactMatchDupDetectQuery();
+            flushPendingRawTableDeletes();
             cursor = null;
             try {
                 // Check for duplicate message segments
@@ -1601,6 +1692,16 @@ public abstract class InboundSmsHandler extends StateMachine {
      * @return true on success; false on failure to write to database
      */
     private int addTrackerToRawTable(InboundSmsTracker tracker, boolean deDup) {
+        if (tracker.getMessageCount() > 1 && mMultipartSmsIndex.get(tracker) == null) {
+            try {
+                loadMultipartSmsFromRawTable(tracker);
+            } catch (SQLException e) {
+                loge("addTrackerToRawTable: Can't access multipart SMS database, "
+                        + SmsController.formatCrossStackMessageId(tracker.getMessageId()), e);
+                return RESULT_SMS_DATABASE_ERROR;    // reject message
+            }
+        }
+
         if (deDup) {
             try {
                 if (checkAndHandleDuplicate(tracker)) {
@@ -1636,6 +1737,7 @@ public abstract class InboundSmsHandler extends StateMachine {
                 // set the delete selection args for multi-part message
                 String[] deleteWhereArgs = {address, refNumber, count};
                 tracker.setDeleteWhere(tracker.getQueryForSegments(), deleteWhereArgs);
+                mMultipartSmsIndex.addSegment(tracker);
             }
             return Intents.RESULT_SMS_HANDLED;
         } catch (Exception e) {
@@ -1645,6 +1747,58 @@ public abstract class InboundSmsHandler extends StateMachine {
         }
     }
 
+    /**
+     * Load the undeleted segments of the multi-part message the tracker belongs to from the raw
+     * table into {@link #mMultipartSmsIndex}. Later segments inserted by this handler are added
+     * to the index directly, those inserted by other handlers drop the message from it.
+     */
+    private void loadMultipartSmsFromRawTable(InboundSmsTracker tracker) throws SQLException {
+        String[] whereArgs = {tracker.getAddress(), Integer.toString(tracker.getReferenceNumber()),
+                Integer.toString(tracker.getMessageCount())};
+        MultipartSmsIndex.PendingMessage pending =
+                new MultipartSmsIndex.PendingMessage(tracker.getMessageCount());
+        int generation = mMultipartSmsIndex.getGeneration();
+        flushPendingRawTableDeletes();
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(sRawUri, PDU_SEQUENCE_PORT_PROJECTION,
+                    tracker.getQueryForSegments(), whereArgs, null);
+            if (cursor == null) {
+                throw new SQLException("null cursor");
+            }
+            while (cursor.moveToNext()) {
+                int index = cursor.getInt(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                        .get(SEQUENCE_COLUMN)) - tracker.getIndexOffset();
+                int portColumn = PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                        .get(DESTINATION_PORT_COLUMN);
+                int port = cursor.isNull(portColumn)
+                        ? -1 : InboundSmsTracker.getRealDestPort(cursor.getInt(portColumn));
+                // Segments with an invalid sequence number are skipped, as in processMessagePart
+                pending.put(index,
+                        HexDump.hexStringToByteArray(cursor.getString(
+                                PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING.get(PDU_COLUMN))),
+                        cursor.getLong(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                                .get(DATE_COLUMN)),
+                        cursor.getString(PDU_SEQUENCE_PORT_PROJECTION_INDEX_MAPPING
+                                .get(DISPLAY_ADDRESS_COLUMN)),
+                        port);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        mMultipartSmsIndex.put(tracker, pending, generation);
+    }
+
+    /**
+     * Called by {@link SmsBroadcastUndelivered} after it deleted segments from the raw table, so
+     * that they are no longer used for reassembly.
+     */
+    void onRawTableSegmentsDeleted(String deleteWhere, String[] deleteWhereArgs) {
+        mMultipartSmsIndex.onRawTableDelete(deleteWhere, deleteWhereArgs);
+    }
+
     /**
      * Returns whether the default message format for the current radio technology is 3GPP2.
      * @return true if the radio technology uses 3GPP2 format by default, false for 3GPP format
@@ -2020,6 +2174,7 @@ public abstract class InboundSmsHandler extends StateMachine {
         pw.increaseIndent();
         mLocalLog.dump(fd, pw, args);
         pw.decreaseIndent();
+        pw.println("mPendingRawTableDeletes=" + mRawTableDeleteQueue.size());
         pw.println("mCarrierServiceLocalLog:");
         pw.increaseIndent();
         mCarrierServiceLocalLog.dump(fd, pw, args);
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets.
+ *
+ * Values below {@link #LINEAR_LIMIT} milliseconds get a bucket each. Above that, every power of
+ * two range is split into {@link #SUB_BUCKETS} equal buckets, so percentiles are reported with
+ * a relative error of at most 1 / {@link #SUB_BUCKETS}. Recording is a handful of atomic
+ * increments and never blocks; snapshots read the counters without stopping writers.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_LIMIT = 16;
+    private static final int LINEAR_BITS = 4;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (Integer.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record one sample.
+     *
+     * @param millis The latency in milliseconds. Negative values are recorded as 0.
+     */
+    public void record(int millis) {
+        if (millis < 0) millis = 0;
+        mCounts.incrementAndGet(bucketFor(millis));
+        mSum.addAndGet(millis);
+        long max = mMax.get();
+        while (millis > max && !mMax.compareAndSet(max, millis)) {
+            max = mMax.get();
+        }
+    }
+
+    /** @return A point-in-time summary of the recorded samples. */
+    @NonNull
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        int max = (int) mMax.get();
+        return new Snapshot(total, total == 0 ? 0 : (int) (mSum.get() / total),
+                valueAt(counts, total, 50, max), valueAt(counts, total, 95, max),
+                valueAt(counts, total, 99, max), max);
+    }
+
+    /** Clear all recorded samples. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    private static int valueAt(long[] counts, long total, int percentile, int max) {
+        if (total == 0) return 0;
+        long rank = (total * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static int bucketFor(int value) {
+        if (value < LINEAR_LIMIT) return value;
+        int exponent = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+        int sub = (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /** @return The largest value that falls into the given bucket. */
+    private static int upperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + LINEAR_BITS;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long lower = (1L << exponent) + ((long) sub << (exponent - SUB_BUCKET_BITS));
+        long upper = lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        return (int) Math.min(upper, Integer.MAX_VALUE);
+    }
+
+    /** Immutable summary of a {@link LatencyHistogram}. All times are in milliseconds. */
+    public static class Snapshot {
+        public final long count;
+        public final int mean;
+        public final int p50;
+        public final int p95;
+        public final int p99;
+        public final int max;
+
+        Snapshot(long count, int mean, int p50, int p95, int p99, int max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + mean + " p50=" + p50 + " p95=" + p95
+                    + " p99=" + p99 + " max=" + max;
+        }
+    }
+}
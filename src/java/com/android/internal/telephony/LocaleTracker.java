@@ -196,7 +196,9 @@ public class LocaleTracker extends Handler {
     public void handleMessage(Message msg) {
         switch (msg.what) {
             case EVENT_REQUEST_CELL_INFO:
-                mPhone.requestCellInfoUpdate(null, obtainMessage(EVENT_RESPONSE_CELL_INFO));
+                // Any list received since the last request is recent enough to find the country.
+                mPhone.requestCellInfoUpdate(null, obtainMessage(EVENT_RESPONSE_CELL_INFO),
+                        CELL_INFO_MIN_DELAY_MS);
                 break;
 
             case EVENT_UNSOL_CELL_INFO:
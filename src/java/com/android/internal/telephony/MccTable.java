@@ -53,6 +53,12 @@ public final class MccTable {
 
     static ArrayList<MccEntry> sTable;
 
+    /** Number of possible MCCs, which are three decimal digits. */
+    private static final int MCC_COUNT = 1000;
+
+    /** {@link #sTable} indexed by MCC, so that lookups neither search nor allocate. */
+    private static final MccEntry[] sEntriesByMcc = new MccEntry[MCC_COUNT];
+
     /**
      * Container class for mcc and iso. This class implements compareTo so that it can be sorted
      * by mcc.
@@ -102,6 +108,20 @@ public final class MccTable {
         @Nullable
         public static MccMnc fromOperatorNumeric(@NonNull String operatorNumeric) {
             Objects.requireNonNull(operatorNumeric);
+            // The operator numeric rarely changes, so reuse the last result.
+            MccMnc last = sLastParsed;
+            if (last != null && operatorNumeric.equals(last.mOperatorNumeric)) {
+                return last;
+            }
+            MccMnc mccMnc = parseOperatorNumeric(operatorNumeric);
+            if (mccMnc != null) {
+                sLastParsed = mccMnc;
+            }
+            return mccMnc;
+        }
+
+        @Nullable
+        private static MccMnc parseOperatorNumeric(@NonNull String operatorNumeric) {
             String mcc;
             try {
                 mcc = operatorNumeric.substring(0, 3);
@@ -115,15 +135,28 @@ public final class MccTable {
             } catch (StringIndexOutOfBoundsException e) {
                 mnc = null;
             }
-            return new MccMnc(mcc, mnc);
+            return new MccMnc(mcc, mnc, operatorNumeric);
         }
 
+        /** The last result of {@link #fromOperatorNumeric}. */
+        private static volatile MccMnc sLastParsed;
+
+        /** The operator numeric this was parsed from, or null if it was created from parts. */
+        @Nullable
+        private final String mOperatorNumeric;
+
         /**
          * Creates an MccMnc using the supplied values.
          */
         public MccMnc(@NonNull String mcc, @Nullable String mnc) {
+            this(mcc, mnc, null);
+        }
+
+        private MccMnc(@NonNull String mcc, @Nullable String mnc,
+                @Nullable String operatorNumeric) {
             this.mcc = Objects.requireNonNull(mcc);
             this.mnc = mnc;
+            mOperatorNumeric = operatorNumeric;
         }
 
         @Override
@@ -159,15 +192,10 @@ public final class MccTable {
                     + "and has been made greylist-max-q. Please file a bug if you still require "
                     + "this API.")
     public static MccEntry entryForMcc(int mcc) {
-        MccEntry m = new MccEntry(mcc, "", 0);
-
-        int index = Collections.binarySearch(sTable, m);
-
-        if (index < 0) {
+        if (mcc < 0 || mcc >= MCC_COUNT) {
             return null;
-        } else {
-            return sTable.get(index);
         }
+        return sEntriesByMcc[mcc];
     }
 
     /**
@@ -192,11 +220,37 @@ public final class MccTable {
      */
     @NonNull
     public static String countryCodeForMcc(@NonNull String mcc) {
-        try {
-            return countryCodeForMcc(Integer.parseInt(mcc));
-        } catch (NumberFormatException ex) {
-            return "";
+        return countryCodeForMcc(parseMcc(mcc));
+    }
+
+    /**
+     * Parses a decimal MCC without allocating. Accepts what {@link Integer#parseInt(String)}
+     * accepts, but any value that cannot be an MCC is returned as -1.
+     */
+    private static int parseMcc(@NonNull String mcc) {
+        int length = mcc.length();
+        int start = 0;
+        if (length > 0) {
+            char first = mcc.charAt(0);
+            if (first == '+' || first == '-') {
+                start = 1;
+            }
         }
+        if (start == length) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < length; i++) {
+            int digit = Character.digit(mcc.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            if (value >= MCC_COUNT) {
+                return -1;
+            }
+        }
+        return mcc.charAt(0) == '-' && value != 0 ? -1 : value;
     }
 
     /**
@@ -581,5 +635,10 @@ public final class MccTable {
         sTable.add(new MccEntry(750, "fk", 2)); // Falkland Islands (Malvinas)
 
         Collections.sort(sTable);
+        for (MccEntry entry : sTable) {
+            if (sEntriesByMcc[entry.mMcc] == null) {
+                sEntriesByMcc[entry.mMcc] = entry;
+            }
+        }
     }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * In-memory index of the undeleted multi-part SMS segments in the raw table, used by
+ * {@link InboundSmsHandler} to reassemble concatenated messages without querying the provider
+ * for every segment.
+ *
+ * <p>The raw table remains the durable copy. A message is only tracked here once it has been
+ * loaded from the raw table, after which every segment the handler inserts is added to the
+ * index as well. Whenever the segments of a message are deleted or marked deleted in the raw
+ * table, the message must be removed from the index so that it is reloaded on next use. A
+ * message that is not in the index is not known to be absent; the caller falls back to the raw
+ * table. The number of tracked messages is bounded, least recently used ones are dropped first.
+ *
+ * <p>Segments are grouped exactly as {@link InboundSmsTracker#getQueryForSegments()} groups
+ * them in the raw table: by segment query, address, reference number and message count, across
+ * subscriptions.
+ *
+ * <p>The raw table is shared by the inbound SMS handlers of all phones, each with its own index.
+ * A segment inserted or a message deleted by reference through one index therefore drops that
+ * message from all other indexes, so that they reload it from the raw table on next use. An
+ * index counts these invalidations, so that a message loaded across one is not tracked.
+ */
+public class MultipartSmsIndex {
+    /** Maximum number of incomplete messages tracked. */
+    private static final int MAX_MESSAGES = 64;
+
+    /** All indexes, one per inbound SMS handler. */
+    private static final Set<MultipartSmsIndex> sIndexes =
+            Collections.newSetFromMap(new WeakHashMap<>());
+
+    /** Bumped whenever another index invalidates a message of this one. */
+    private int mGeneration;
+
+    private final LinkedHashMap<Key, PendingMessage> mMessages =
+            new LinkedHashMap<Key, PendingMessage>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, PendingMessage> eldest) {
+                    return size() > MAX_MESSAGES;
+                }
+            };
+
+    /** The segments received so far for one concatenated message. */
+    public static class PendingMessage {
+        final byte[][] mPdus;
+        final long[] mTimestamps;
+        final String[] mDisplayAddresses;
+        final int[] mDestPorts;
+        int mReceived;
+
+        PendingMessage(int messageCount) {
+            mPdus = new byte[messageCount][];
+            mTimestamps = new long[messageCount];
+            mDisplayAddresses = new String[messageCount];
+            mDestPorts = new int[messageCount];
+        }
+
+        /**
+         * Add or replace a segment.
+         *
+         * @param index 0-based segment index.
+         * @param destPort The real destination port of the segment, or -1.
+         * @return {@code false} if the index is out of range.
+         */
+        boolean put(int index, byte[] pdu, long timestamp, String displayAddress, int destPort) {
+            if (index < 0 || index >= mPdus.length) return false;
+            if (mPdus[index] == null) mReceived++;
+            mPdus[index] = pdu;
+            mTimestamps[index] = timestamp;
+            mDisplayAddresses[index] = displayAddress;
+            mDestPorts[index] = destPort;
+            return true;
+        }
+
+        /**
+         * @return {@code true} if the index is valid and no segment is stored for it. Segments
+         * with an invalid index are never stored, so their absence is not known.
+         */
+        boolean isKnownAbsent(int index) {
+            return index >= 0 && index < mPdus.length && mPdus[index] == null;
+        }
+
+        boolean isComplete() {
+            return mReceived == mPdus.length;
+        }
+    }
+
+    private static class Key {
+        final String mQuery;
+        final String mAddress;
+        final int mReferenceNumber;
+        final int mMessageCount;
+
+        Key(String query, String address, int referenceNumber, int messageCount) {
+            mQuery = query;
+            mAddress = address;
+            mReferenceNumber = referenceNumber;
+            mMessageCount = messageCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mQuery, mAddress, mReferenceNumber, mMessageCount);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mReferenceNumber == other.mReferenceNumber
+                    && mMessageCount == other.mMessageCount
+                    && Objects.equals(mQuery, other.mQuery)
+                    && Objects.equals(mAddress, other.mAddress);
+        }
+    }
+
+    public MultipartSmsIndex() {
+        synchronized (sIndexes) {
+            sIndexes.add(this);
+        }
+    }
+
+    private static Key keyFor(InboundSmsTracker tracker) {
+        return new Key(tracker.getQueryForSegments(), tracker.getAddress(),
+                tracker.getReferenceNumber(), tracker.getMessageCount());
+    }
+
+    /**
+     * @return The tracked message the segment belongs to, or {@code null} if it is not tracked.
+     */
+    @Nullable
+    public synchronized PendingMessage get(@NonNull InboundSmsTracker tracker) {
+        return mMessages.get(keyFor(tracker));
+    }
+
+    /**
+     * @return The current generation, to be passed to {@link #put} for a message loaded from the
+     * raw table after this call.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Start tracking the message the segment belongs to, unless another index invalidated a
+     * message since the segments were loaded.
+     *
+     * @param message The segments of the message currently in the raw table.
+     * @param generation The {@link #getGeneration()} from before the segments were loaded.
+     */
+    public synchronized void put(@NonNull InboundSmsTracker tracker,
+            @NonNull PendingMessage message, int generation) {
+        if (generation == mGeneration) {
+            mMessages.put(keyFor(tracker), message);
+        }
+    }
+
+    /**
+     * Add a segment just inserted into the raw table to its message, if the message is tracked,
+     * and drop the message from all other indexes.
+     *
+     * @return {@code false} if the message is not tracked or the sequence number is invalid.
+     */
+    public boolean addSegment(@NonNull InboundSmsTracker tracker) {
+        Key key = keyFor(tracker);
+        boolean added;
+        synchronized (this) {
+            PendingMessage message = mMessages.get(key);
+            added = message != null && message.put(
+                    tracker.getSequenceNumber() - tracker.getIndexOffset(), tracker.getPdu(),
+                    tracker.getTimestamp(), tracker.getDisplayAddress(), tracker.getDestPort());
+        }
+        invalidateOthers(key);
+        return added;
+    }
+
+    /**
+     * Remove the message the segment belongs to.
+     *
+     * @return The removed message, or {@code null} if it was not tracked.
+     */
+    @Nullable
+    public synchronized PendingMessage remove(@NonNull InboundSmsTracker tracker) {
+        return mMessages.remove(keyFor(tracker));
+    }
+
+    /**
+     * Remove the message whose segments are selected by a raw table delete. Deletes that do not
+     * select all segments of a message by reference are ignored.
+     *
+     * @param where The delete selection.
+     * @param whereArgs The delete selection arguments.
+     */
+    public void onRawTableDelete(@Nullable String where, @Nullable String[] whereArgs) {
+        if (whereArgs == null || whereArgs.length != 3
+                || !(InboundSmsTracker.SELECT_BY_REFERENCE.equals(where)
+                        || InboundSmsTracker.SELECT_BY_REFERENCE_3GPP2WAP.equals(where))) {
+            return;
+        }
+        Key key;
+        try {
+            key = new Key(where, whereArgs[0], Integer.parseInt(whereArgs[1]),
+                    Integer.parseInt(whereArgs[2]));
+        } catch (NumberFormatException e) {
+            // Not a reference selection after all.
+            return;
+        }
+        synchronized (this) {
+            mMessages.remove(key);
+        }
+        invalidateOthers(key);
+    }
+
+    /**
+     * Drop the message from all other indexes. Only one index lock is held at a time, so indexes
+     * invalidating each other cannot deadlock.
+     */
+    private void invalidateOthers(Key key) {
+        MultipartSmsIndex[] indexes;
+        synchronized (sIndexes) {
+            indexes = sIndexes.toArray(new MultipartSmsIndex[0]);
+        }
+        for (MultipartSmsIndex index : indexes) {
+            if (index != this) {
+                index.invalidate(key);
+            }
+        }
+    }
+
+    private synchronized void invalidate(Key key) {
+        mMessages.remove(key);
+        mGeneration++;
+    }
+
+    /** Remove all tracked messages. */
+    public synchronized void clear() {
+        mMessages.clear();
+    }
+
+    /** @return The number of tracked messages. */
+    public synchronized int size() {
+        return mMessages.size();
+    }
+}
@@ -2088,6 +2088,15 @@ public abstract class Phone extends Handler implements PhoneInternalInterface {
         getServiceStateTracker().requestAllCellInfo(workSource, rspMsg);
     }
 
+    /**
+     * @param workSource calling WorkSource
+     * @param rspMsg the response message containing the cell info
+     * @param maxAgeMillis the maximum age of cached cell info the caller accepts
+     */
+    public void requestCellInfoUpdate(WorkSource workSource, Message rspMsg, long maxAgeMillis) {
+        getServiceStateTracker().requestAllCellInfo(workSource, rspMsg, maxAgeMillis);
+    }
+
     /**
      * Returns the current CellIdentity if known
      */
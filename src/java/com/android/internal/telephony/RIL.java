@@ -174,14 +174,27 @@ public class RIL extends BaseCommands implements CommandsInterface {
     // The number of wakelock requests currently active.  Don't release the lock
     // until dec'd to 0
     int mWakeLockCount;
+    // The number of times the wakelock timeout force released the wakelock, guarded by mWakeLock
+    int mWakeLockClearCount;
 
     // Variables used to identify releasing of WL on wakelock timeouts
     volatile int mWlSequenceNum = 0;
     volatile int mAckWlSequenceNum = 0;
 
-    @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
-    SparseArray<RILRequest> mRequestList = new SparseArray<>();
-    static SparseArray<TelephonyHistogram> sRilTimeHistograms = new SparseArray<>();
+    // Uptime when the ack wakelock was last acquired while released, guarded by mAckWakeLock
+    private long mAckWakeLockAcquireTimeMs;
+
+    private static final String PROPERTY_WAKELOCK_LONG_HOLD_MS =
+            "persist.radio.wakelock_long_hold_ms";
+    private static final int DEFAULT_WAKELOCK_LONG_HOLD_MS = 1000;
+    final RilWakelockStats mWakelockStats = new RilWakelockStats(
+            SystemProperties.getInt(PROPERTY_WAKELOCK_LONG_HOLD_MS, DEFAULT_WAKELOCK_LONG_HOLD_MS));
+
+    // In-flight requests by serial. This used to be an @UnsupportedAppUsage SparseArray guarded
+    // by itself. Its type changed, so apps targeting R or lower that read it through reflection
+    // no longer can; use getRilRequestList() for a snapshot instead.
+    final RilRequestTable mRequestList = new RilRequestTable();
+    static final RilLatencyStats sRilLatencyStats = new RilLatencyStats();
 
     Object[] mLastNITZTimeInfo;
 
@@ -271,15 +284,23 @@ public class RIL extends BaseCommands implements CommandsInterface {
     static final String[] HIDL_SERVICE_NAME = {"slot1", "slot2", "slot3"};
 
     public static List<TelephonyHistogram> getTelephonyRILTimingHistograms() {
-        List<TelephonyHistogram> list;
-        synchronized (sRilTimeHistograms) {
-            list = new ArrayList<>(sRilTimeHistograms.size());
-            for (int i = 0; i < sRilTimeHistograms.size(); i++) {
-                TelephonyHistogram entry = new TelephonyHistogram(sRilTimeHistograms.valueAt(i));
-                list.add(entry);
-            }
-        }
-        return list;
+        return sRilLatencyStats.getTimingHistograms();
+    }
+
+    /**
+     * @param request The RIL_REQUEST_*.
+     * @return The response latency percentiles of the request, or {@code null} if no response
+     * to it was received yet.
+     */
+    @Nullable
+    public static LatencyHistogram.Snapshot getRilLatencySnapshot(int request) {
+        return sRilLatencyStats.getRequestSnapshot(request);
+    }
+
+    /** @return The response latency percentiles of all requests, keyed by RIL_REQUEST_*. */
+    @NonNull
+    public static SparseArray<LatencyHistogram.Snapshot> getRilLatencySnapshots() {
+        return sRilLatencyStats.getRequestSnapshots();
     }
 
     /** The handler used to handle the internal event of RIL. */
@@ -304,20 +325,19 @@ public class RIL extends BaseCommands implements CommandsInterface {
                     // Note: Keep mRequestList so that delayed response
                     // can still be handled when response finally comes.
 
-                    synchronized (mRequestList) {
-                        if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
-                            if (mRadioBugDetector != null) {
-                                mRadioBugDetector.processWakelockTimeout();
-                            }
-                            if (RILJ_LOGD) {
-                                int count = mRequestList.size();
-                                Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
-                                        " mRequestList=" + count);
-                                for (int i = 0; i < count; i++) {
-                                    rr = mRequestList.valueAt(i);
-                                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
-                                            + RILUtils.requestToString(rr.mRequest));
-                                }
+                    if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
+                        if (mRadioBugDetector != null) {
+                            mRadioBugDetector.processWakelockTimeout();
+                        }
+                        if (RILJ_LOGD) {
+                            SparseArray<RILRequest> requests = mRequestList.snapshot();
+                            int count = requests.size();
+                            Rlog.d(RILJ_LOG_TAG, "WAKE_LOCK_TIMEOUT " +
+                                    " mRequestList=" + count);
+                            for (int i = 0; i < count; i++) {
+                                rr = requests.valueAt(i);
+                                Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
+                                        + RILUtils.requestToString(rr.mRequest));
                             }
                         }
                     }
@@ -1170,10 +1190,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
         acquireWakeLock(rr, FOR_WAKELOCK);
         Trace.asyncTraceForTrackBegin(
                 Trace.TRACE_TAG_NETWORK, "RIL", RILUtils.requestToString(rr.mRequest), rr.mSerial);
-        synchronized (mRequestList) {
-            rr.mStartTimeMs = SystemClock.elapsedRealtime();
-            mRequestList.append(rr.mSerial, rr);
-        }
+        rr.mStartTimeMs = SystemClock.elapsedRealtime();
+        mRequestList.put(rr);
     }
 
     private RILRequest obtainRequest(int request, Message result, WorkSource workSource) {
@@ -5115,9 +5133,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     void processRequestAck(int serial) {
         RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-        }
+        rr = mRequestList.get(serial);
         if (rr == null) {
             Rlog.w(RILJ_LOG_TAG, "processRequestAck: Unexpected solicited ack response! "
                     + "serial: " + serial);
@@ -5175,9 +5191,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr;
 
         if (type == RadioResponseType.SOLICITED_ACK) {
-            synchronized (mRequestList) {
-                rr = mRequestList.get(serial);
-            }
+            rr = mRequestList.get(serial);
             if (rr == null) {
                 Rlog.w(RILJ_LOG_TAG, "Unexpected solicited ack response! sn: " + serial);
             } else {
@@ -5202,7 +5216,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         Trace.asyncTraceForTrackEnd(Trace.TRACE_TAG_NETWORK, "RIL", "" /* unused */, rr.mSerial);
 
         // Time logging for RIL command and storing it in TelephonyHistogram.
-        addToRilHistogram(rr);
+        addToRilHistogram(service, rr);
         if (mRadioBugDetector != null) {
             mRadioBugDetector.detectRadioBug(rr.mRequest, error);
         }
@@ -5423,6 +5437,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
                         mWakeLock.acquire();
                         mWakeLockCount++;
                         mWlSequenceNum++;
+                        rr.mWakeLockAcquireTimeMs = SystemClock.uptimeMillis();
+                        rr.mWakeLockClearCount = mWakeLockClearCount;
 
                         String clientId = rr.getWorkSourceClientId();
                         if (!mClientWakelockTracker.isClientActive(clientId)) {
@@ -5440,6 +5456,9 @@ public class RIL extends BaseCommands implements CommandsInterface {
                     break;
                 case FOR_ACK_WAKELOCK:
                     synchronized (mAckWakeLock) {
+                        if (!mAckWakeLock.isHeld()) {
+                            mAckWakeLockAcquireTimeMs = SystemClock.uptimeMillis();
+                        }
                         mAckWakeLock.acquire();
                         mAckWlSequenceNum++;
 
@@ -5468,10 +5487,10 @@ public class RIL extends BaseCommands implements CommandsInterface {
         return mRilHandler;
     }
 
-    /** Returns the Ril request list. */
+    /** Returns a snapshot of the Ril request list. */
     @VisibleForTesting
     public SparseArray<RILRequest> getRilRequestList() {
-        return mRequestList;
+        return mRequestList.snapshot();
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -5479,7 +5498,11 @@ public class RIL extends BaseCommands implements CommandsInterface {
         synchronized (rr) {
             switch(rr.mWakeLockType) {
                 case FOR_WAKELOCK:
+                    boolean clearedByTimeout;
                     synchronized (mWakeLock) {
+                        // The hold of a request whose wakelock was force released by the timeout
+                        // ended at the timeout, not now; it is not recorded.
+                        clearedByTimeout = rr.mWakeLockClearCount != mWakeLockClearCount;
                         mClientWakelockTracker.stopTracking(rr.mClientId,
                                 rr.mRequest, rr.mSerial,
                                 (mWakeLockCount > 1) ? mWakeLockCount - 1 : 0);
@@ -5496,6 +5519,10 @@ public class RIL extends BaseCommands implements CommandsInterface {
                             mWakeLock.release();
                         }
                     }
+                    if (!clearedByTimeout) {
+                        mWakelockStats.recordHold(rr.mRequest,
+                                (int) (SystemClock.uptimeMillis() - rr.mWakeLockAcquireTimeMs));
+                    }
                     break;
                 case FOR_ACK_WAKELOCK:
                     //We do not decrement the ACK wakelock
@@ -5517,17 +5544,21 @@ public class RIL extends BaseCommands implements CommandsInterface {
                 Rlog.d(RILJ_LOG_TAG, "NOTE: mWakeLockCount is " + mWakeLockCount
                         + "at time of clearing");
                 mWakeLockCount = 0;
+                mWakeLockClearCount++;
                 mWakeLock.release();
                 mClientWakelockTracker.stopTrackingAll();
                 mActiveWakelockWorkSource = new WorkSource();
                 return true;
             }
         } else {
+            long acquireTimeMs;
             synchronized (mAckWakeLock) {
                 if (!mAckWakeLock.isHeld()) return false;
                 mAckWakeLock.release();
-                return true;
+                acquireTimeMs = mAckWakeLockAcquireTimeMs;
             }
+            mWakelockStats.recordAckHold((int) (SystemClock.uptimeMillis() - acquireTimeMs));
+            return true;
         }
     }
 
@@ -5539,54 +5570,35 @@ public class RIL extends BaseCommands implements CommandsInterface {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private void clearRequestList(int error, boolean loggable) {
         RILRequest rr;
-        synchronized (mRequestList) {
-            int count = mRequestList.size();
-            if (RILJ_LOGD && loggable) {
-                Rlog.d(RILJ_LOG_TAG, "clearRequestList " + " mWakeLockCount="
-                        + mWakeLockCount + " mRequestList=" + count);
-            }
+        SparseArray<RILRequest> requests = mRequestList.removeAll();
+        int count = requests.size();
+        if (RILJ_LOGD && loggable) {
+            Rlog.d(RILJ_LOG_TAG, "clearRequestList " + " mWakeLockCount="
+                    + mWakeLockCount + " mRequestList=" + count);
+        }
 
-            for (int i = 0; i < count; i++) {
-                rr = mRequestList.valueAt(i);
-                if (RILJ_LOGD && loggable) {
-                    Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
-                            + RILUtils.requestToString(rr.mRequest));
-                }
-                rr.onError(error, null);
-                decrementWakeLock(rr);
-                rr.release();
+        for (int i = 0; i < count; i++) {
+            rr = requests.valueAt(i);
+            if (RILJ_LOGD && loggable) {
+                Rlog.d(RILJ_LOG_TAG, i + ": [" + rr.mSerial + "] "
+                        + RILUtils.requestToString(rr.mRequest));
             }
-            mRequestList.clear();
+            rr.onError(error, null);
+            decrementWakeLock(rr);
+            rr.release();
         }
     }
 
     @UnsupportedAppUsage
     private RILRequest findAndRemoveRequestFromList(int serial) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-            if (rr != null) {
-                mRequestList.remove(serial);
-            }
-        }
-
-        return rr;
+        return mRequestList.remove(serial);
     }
 
-    private void addToRilHistogram(RILRequest rr) {
+    private void addToRilHistogram(int service, RILRequest rr) {
         long endTime = SystemClock.elapsedRealtime();
         int totalTime = (int) (endTime - rr.mStartTimeMs);
 
-        synchronized (sRilTimeHistograms) {
-            TelephonyHistogram entry = sRilTimeHistograms.get(rr.mRequest);
-            if (entry == null) {
-                // We would have total #RIL_HISTOGRAM_BUCKET_COUNT range buckets for RIL commands
-                entry = new TelephonyHistogram(TelephonyHistogram.TELEPHONY_CATEGORY_RIL,
-                        rr.mRequest, RIL_HISTOGRAM_BUCKET_COUNT);
-                sRilTimeHistograms.put(rr.mRequest, entry);
-            }
-            entry.addTimeTaken(totalTime);
-        }
+        sRilLatencyStats.record(service, rr.mRequest, totalTime);
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -5867,20 +5879,22 @@ public class RIL extends BaseCommands implements CommandsInterface {
         pw.println("RIL: " + this);
         pw.println(" mWakeLock=" + mWakeLock);
         pw.println(" mWakeLockTimeout=" + mWakeLockTimeout);
-        synchronized (mRequestList) {
-            synchronized (mWakeLock) {
-                pw.println(" mWakeLockCount=" + mWakeLockCount);
-            }
-            int count = mRequestList.size();
-            pw.println(" mRequestList count=" + count);
-            for (int i = 0; i < count; i++) {
-                RILRequest rr = mRequestList.valueAt(i);
-                pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
-            }
+        synchronized (mWakeLock) {
+            pw.println(" mWakeLockCount=" + mWakeLockCount);
+        }
+        SparseArray<RILRequest> requests = mRequestList.snapshot();
+        int count = requests.size();
+        pw.println(" mRequestList count=" + count);
+        for (int i = 0; i < count; i++) {
+            RILRequest rr = requests.valueAt(i);
+            pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
         }
         pw.println(" mLastNITZTimeInfo=" + Arrays.toString(mLastNITZTimeInfo));
         pw.println(" mLastRadioPowerResult=" + mLastRadioPowerResult);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
+        RILRequest.sPool.dump(pw);
+        sRilLatencyStats.dump(pw);
+        mWakelockStats.dump(pw);
         mClientWakelockTracker.dumpClientRequestTracker(pw);
     }
 
@@ -5949,7 +5963,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         return mRadioVersion;
     }
 
-    private static String serviceToString(int service) {
+    static String serviceToString(int service) {
         switch (service) {
             case RADIO_SERVICE:
                 return "RADIO";
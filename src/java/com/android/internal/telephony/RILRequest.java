@@ -20,6 +20,7 @@ import android.compat.annotation.UnsupportedAppUsage;
 import android.os.AsyncResult;
 import android.os.Message;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.WorkSource;
 import android.os.WorkSource.WorkChain;
 
@@ -39,10 +40,10 @@ public class RILRequest {
     //***** Class Variables
     static Random sRandom = new Random();
     static AtomicInteger sNextSerial = new AtomicInteger(0);
-    private static Object sPoolSync = new Object();
-    private static RILRequest sPool = null;
-    private static int sPoolSize = 0;
-    private static final int MAX_POOL_SIZE = 4;
+    private static final String PROPERTY_POOL_SIZE = "persist.radio.ril_request_pool_size";
+    private static final int DEFAULT_POOL_SIZE = 32;
+    static final RILRequestPool sPool = new RILRequestPool(
+            SystemProperties.getInt(PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE));
 
     //***** Instance Variables
     @UnsupportedAppUsage
@@ -51,8 +52,11 @@ public class RILRequest {
     int mRequest;
     @UnsupportedAppUsage
     Message mResult;
-    RILRequest mNext;
     int mWakeLockType;
+    // uptime in ms when the RIL wakelock was acquired for this request
+    long mWakeLockAcquireTimeMs;
+    // RIL#mWakeLockClearCount when the RIL wakelock was acquired for this request
+    int mWakeLockClearCount;
     WorkSource mWorkSource;
     String mClientId;
     // time in ms when RIL request was made
@@ -81,16 +85,7 @@ public class RILRequest {
      */
     @UnsupportedAppUsage
     private static RILRequest obtain(int request, Message result) {
-        RILRequest rr = null;
-
-        synchronized (sPoolSync) {
-            if (sPool != null) {
-                rr = sPool;
-                sPool = rr.mNext;
-                rr.mNext = null;
-                sPoolSize--;
-            }
-        }
+        RILRequest rr = sPool.acquire();
 
         if (rr == null) {
             rr = new RILRequest();
@@ -183,22 +178,16 @@ public class RILRequest {
      */
     @UnsupportedAppUsage
     void release() {
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE) {
-                mNext = sPool;
-                sPool = this;
-                sPoolSize++;
-                mResult = null;
-                if (mWakeLockType != RIL.INVALID_WAKELOCK) {
-                    //This is OK for some wakelock types and not others
-                    if (mWakeLockType == RIL.FOR_WAKELOCK) {
-                        Rlog.e(LOG_TAG, "RILRequest releasing with held wake lock: "
-                                + serialString());
-                    }
-                }
-                mArguments = null;
+        mResult = null;
+        if (mWakeLockType != RIL.INVALID_WAKELOCK) {
+            //This is OK for some wakelock types and not others
+            if (mWakeLockType == RIL.FOR_WAKELOCK) {
+                Rlog.e(LOG_TAG, "RILRequest releasing with held wake lock: "
+                        + serialString());
             }
         }
+        mArguments = null;
+        sPool.release(this);
     }
 
     private RILRequest() {
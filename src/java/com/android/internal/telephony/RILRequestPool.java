@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of recycled {@link RILRequest}s.
+ *
+ * The pool is a stack of requests in a fixed array, so obtaining and releasing a request is a
+ * single push or pop under a short lock, whether the pool is empty, full or in between. A full
+ * pool simply drops released requests, and an empty pool reports a miss so that the caller
+ * allocates. The counters are only read by dumps, so they are striped rather than shared.
+ */
+class RILRequestPool {
+    /** Upper bound on the configured pool size. */
+    static final int MAX_CAPACITY = 256;
+
+    private final RILRequest[] mStack;
+    /** Number of requests in {@link #mStack}. Guarded by {@link #mStack}. */
+    private int mSize;
+
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+    private final LongAdder mDrops = new LongAdder();
+
+    /**
+     * @param capacity Number of requests the pool may hold, clamped to [1, MAX_CAPACITY].
+     */
+    RILRequestPool(int capacity) {
+        mStack = new RILRequest[Math.max(1, Math.min(capacity, MAX_CAPACITY))];
+    }
+
+    /**
+     * @return A recycled request, or {@code null} if the pool is empty and the caller must
+     * allocate a new one.
+     */
+    @Nullable RILRequest acquire() {
+        RILRequest rr = null;
+        synchronized (mStack) {
+            if (mSize > 0) {
+                rr = mStack[--mSize];
+                mStack[mSize] = null;
+            }
+        }
+        if (rr != null) {
+            mHits.increment();
+        } else {
+            mMisses.increment();
+        }
+        return rr;
+    }
+
+    /**
+     * Return a request to the pool.
+     *
+     * @param rr The request, which must not be used by the caller afterwards.
+     * @return {@code true} if the request was pooled, {@code false} if the pool was full.
+     */
+    boolean release(@NonNull RILRequest rr) {
+        synchronized (mStack) {
+            if (mSize < mStack.length) {
+                mStack[mSize++] = rr;
+                return true;
+            }
+        }
+        mDrops.increment();
+        return false;
+    }
+
+    /** @return The number of slots in the pool. */
+    int getCapacity() {
+        return mStack.length;
+    }
+
+    /** @return The number of requests served from the pool. */
+    long getHitCount() {
+        return mHits.sum();
+    }
+
+    /** @return The number of requests that had to be allocated. */
+    long getMissCount() {
+        return mMisses.sum();
+    }
+
+    /** @return The number of released requests dropped because the pool was full. */
+    long getDropCount() {
+        return mDrops.sum();
+    }
+
+    /** Dump the pool counters. */
+    void dump(PrintWriter pw) {
+        pw.println(" RILRequest pool: capacity=" + getCapacity() + " hits=" + getHitCount()
+                + " misses=" + getMissCount() + " drops=" + getDropCount());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Pair;
+
+import com.android.telephony.Rlog;
+
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Raw table mark-deletes of handled inbound SMS that have not been applied yet, used by
+ * {@link InboundSmsHandler} to apply them in one batch.
+ *
+ * <p>Deletes are queued from the handler thread and from the binder threads of carrier SMS
+ * filters, so all access is synchronized. A flush applies the queued deletes while holding the
+ * lock, so that a delete queued by another thread during a flush is applied after the ones being
+ * flushed and never lost. The selections are kept alongside so that duplicate detection can take
+ * queued deletes into account without applying them first.
+ */
+public class RawTableDeleteQueue {
+    private static final String TAG = "RawTableDeleteQueue";
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final int mMaxPending;
+
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+    private final ArrayList<Pair<String, String[]>> mSelections = new ArrayList<>();
+
+    /**
+     * @param resolver The resolver to apply the deletes with.
+     * @param uri The raw table URI. Deleting from it marks the rows deleted.
+     * @param maxPending The number of queued deletes that triggers a flush.
+     */
+    public RawTableDeleteQueue(@NonNull ContentResolver resolver, @NonNull Uri uri,
+            int maxPending) {
+        mResolver = resolver;
+        mUri = uri;
+        mMaxPending = maxPending;
+    }
+
+    /**
+     * Queue a mark-delete, and apply the queue once enough deletes are queued.
+     *
+     * @param where The selection of the rows to mark deleted.
+     * @param whereArgs The selection arguments.
+     */
+    public synchronized void add(@Nullable String where, @Nullable String[] whereArgs) {
+        mOperations.add(ContentProviderOperation.newDelete(mUri)
+                .withSelection(where, whereArgs)
+                .build());
+        mSelections.add(new Pair<>(where, whereArgs));
+        if (mOperations.size() >= mMaxPending) {
+            flush();
+        }
+    }
+
+    /**
+     * @param predicate Test on the selection and selection arguments of a queued delete.
+     * @return {@code true} if any queued delete matches.
+     */
+    public synchronized boolean anyMatch(@NonNull Predicate<Pair<String, String[]>> predicate) {
+        for (Pair<String, String[]> selection : mSelections) {
+            if (predicate.test(selection)) return true;
+        }
+        return false;
+    }
+
+    /** @return The number of queued deletes. */
+    public synchronized int size() {
+        return mOperations.size();
+    }
+
+    /** Apply all queued deletes in one batch. */
+    public synchronized void flush() {
+        if (mOperations.isEmpty()) return;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mOperations);
+        mOperations.clear();
+        mSelections.clear();
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(mUri.getAuthority(), operations);
+            int rows = 0;
+            for (ContentProviderResult result : results) {
+                if (result.count != null) {
+                    if (result.count == 0) Rlog.e(TAG, "No rows were deleted from raw table!");
+                    rows += result.count;
+                }
+            }
+            Rlog.d(TAG, "Deleted " + rows + " rows from raw table in a batch of "
+                    + operations.size());
+        } catch (OperationApplicationException | RemoteException | SQLException e) {
+            // The messages were handled already. Leaving the rows undeleted means they are
+            // delivered again on next boot, as if the device crashed before deleting them.
+            Rlog.e(TAG, "flush: failed to delete from raw table", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.TelephonyHistogram;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per RIL request and per HAL service response latency, recorded into {@link LatencyHistogram}s
+ * and the {@link TelephonyHistogram}s reported to metrics.
+ *
+ * <p>Requests are kept in a {@link RilRequestIdMap}, so nothing is boxed on the response path.
+ */
+class RilLatencyStats {
+    /** Both histograms of one request, created together on its first response. */
+    private static class RequestStats {
+        final LatencyHistogram mLatency = new LatencyHistogram();
+        /** Not thread safe; guarded by itself. */
+        final TelephonyHistogram mTiming;
+
+        RequestStats(int request) {
+            mTiming = new TelephonyHistogram(TelephonyHistogram.TELEPHONY_CATEGORY_RIL, request,
+                    RIL.RIL_HISTOGRAM_BUCKET_COUNT);
+        }
+    }
+
+    private final RilRequestIdMap<RequestStats> mByRequest =
+            new RilRequestIdMap<>(RequestStats::new);
+    private final LatencyHistogram[] mByService =
+            new LatencyHistogram[RIL.MAX_SERVICE_IDX + 1];
+
+    RilLatencyStats() {
+        for (int i = 0; i < mByService.length; i++) {
+            mByService[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the latency of a response.
+     *
+     * @param service The HAL service that sent the response, see RIL.XXX_SERVICE.
+     * @param request The RIL_REQUEST_* the response was for.
+     * @param millis The time from sending the request to receiving the response.
+     */
+    void record(int service, int request, int millis) {
+        RequestStats stats = mByRequest.getOrCreate(request);
+        stats.mLatency.record(millis);
+        synchronized (stats.mTiming) {
+            stats.mTiming.addTimeTaken(millis);
+        }
+        if (service >= 0 && service < mByService.length) {
+            mByService[service].record(millis);
+        }
+    }
+
+    /**
+     * @param request The RIL_REQUEST_*.
+     * @return The latency summary of the request, or {@code null} if it was never recorded.
+     */
+    @Nullable
+    LatencyHistogram.Snapshot getRequestSnapshot(int request) {
+        RequestStats stats = mByRequest.get(request);
+        return stats == null ? null : stats.mLatency.snapshot();
+    }
+
+    /** @return The latency summaries of all recorded requests, keyed by RIL_REQUEST_*. */
+    @NonNull
+    SparseArray<LatencyHistogram.Snapshot> getRequestSnapshots() {
+        SparseArray<RequestStats> all = mByRequest.getAll();
+        SparseArray<LatencyHistogram.Snapshot> snapshots = new SparseArray<>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            snapshots.put(all.keyAt(i), all.valueAt(i).mLatency.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return Copies of the timing histograms of all recorded requests. Each is copied under its
+     * own lock, so responses for other requests are not blocked by the copy.
+     */
+    @NonNull
+    List<TelephonyHistogram> getTimingHistograms() {
+        SparseArray<RequestStats> all = mByRequest.getAll();
+        List<TelephonyHistogram> list = new ArrayList<>(all.size());
+        for (int i = 0; i < all.size(); i++) {
+            TelephonyHistogram histogram = all.valueAt(i).mTiming;
+            synchronized (histogram) {
+                list.add(new TelephonyHistogram(histogram));
+            }
+        }
+        return list;
+    }
+    /**
+     * @param service The HAL service, see RIL.XXX_SERVICE.
+     * @return The latency summary of all responses from the service.
+     */
+    @NonNull
+    LatencyHistogram.Snapshot getServiceSnapshot(int service) {
+        return mByService[service].snapshot();
+    }
+
+    /** Dump the latency summaries. */
+    void dump(PrintWriter pw) {
+        pw.println(" RIL latency by service:");
+        for (int i = 0; i < mByService.length; i++) {
+            LatencyHistogram.Snapshot snapshot = mByService[i].snapshot();
+            if (snapshot.count > 0) {
+                pw.println("  " + RIL.serviceToString(i) + ": " + snapshot);
+            }
+        }
+        pw.println(" RIL latency by request:");
+        SparseArray<LatencyHistogram.Snapshot> snapshots = getRequestSnapshots();
+        for (int i = 0; i < snapshots.size(); i++) {
+            pw.println("  " + RILUtils.requestToString(snapshots.keyAt(i)) + ": "
+                    + snapshots.valueAt(i));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Per RIL request values keyed by the int request id, so that nothing is boxed on the response
+ * path. Values are created on first use and never removed.
+ *
+ * Requests below {@link #MAX_INDEXED_REQUEST} are looked up by index without a lock; the rest,
+ * which no RIL_REQUEST_* currently is, go through a SparseArray guarded by itself.
+ *
+ * @param <T> The type of the per request values.
+ */
+class RilRequestIdMap<T> {
+    /** Requests below this id are looked up by index, the rest through a guarded SparseArray. */
+    private static final int MAX_INDEXED_REQUEST = 1024;
+
+    private final IntFunction<T> mFactory;
+    private final AtomicReferenceArray<T> mByRequest =
+            new AtomicReferenceArray<>(MAX_INDEXED_REQUEST);
+    private final SparseArray<T> mByOtherRequest = new SparseArray<>();
+
+    /**
+     * @param factory Creates the value of a request on first use, given the request id.
+     */
+    RilRequestIdMap(@NonNull IntFunction<T> factory) {
+        mFactory = factory;
+    }
+
+    /** @return The value of the request, created if it has none yet. */
+    @NonNull
+    T getOrCreate(int request) {
+        if (request >= 0 && request < MAX_INDEXED_REQUEST) {
+            T value = mByRequest.get(request);
+            if (value == null) {
+                mByRequest.compareAndSet(request, null, mFactory.apply(request));
+                value = mByRequest.get(request);
+            }
+            return value;
+        }
+        synchronized (mByOtherRequest) {
+            T value = mByOtherRequest.get(request);
+            if (value == null) {
+                value = mFactory.apply(request);
+                mByOtherRequest.put(request, value);
+            }
+            return value;
+        }
+    }
+
+    /** @return The value of the request, or {@code null} if it has none yet. */
+    @Nullable
+    T get(int request) {
+        if (request >= 0 && request < MAX_INDEXED_REQUEST) {
+            return mByRequest.get(request);
+        }
+        synchronized (mByOtherRequest) {
+            return mByOtherRequest.get(request);
+        }
+    }
+
+    /** @return The values of all requests that have one, keyed by request id. */
+    @NonNull
+    SparseArray<T> getAll() {
+        SparseArray<T> all = new SparseArray<>();
+        for (int i = 0; i < MAX_INDEXED_REQUEST; i++) {
+            T value = mByRequest.get(i);
+            if (value != null) {
+                all.put(i, value);
+            }
+        }
+        synchronized (mByOtherRequest) {
+            for (int i = 0; i < mByOtherRequest.size(); i++) {
+                all.put(mByOtherRequest.keyAt(i), mByOtherRequest.valueAt(i));
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+/**
+ * Table of in-flight {@link RILRequest}s keyed by serial number.
+ *
+ * Requests are spread over a fixed number of stripes by serial, each stripe guarded by its own
+ * monitor. Since serials are handed out sequentially, concurrent responses arriving on different
+ * HAL service binder threads almost always land on different stripes and do not contend with
+ * each other or with the sending thread.
+ *
+ * Plain monitors are enough: each critical section is a single SparseArray lookup or update,
+ * with no I/O or callbacks, so a stripe is held for a short bounded time and an uncontended
+ * monitor costs little. A concurrent map would box every serial instead.
+ */
+class RilRequestTable {
+    /** Number of stripes. Must be a power of two. */
+    private static final int STRIPE_COUNT = 16;
+
+    private final SparseArray<RILRequest>[] mStripes;
+
+    @SuppressWarnings("unchecked")
+    RilRequestTable() {
+        mStripes = new SparseArray[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new SparseArray<>();
+        }
+    }
+
+    private SparseArray<RILRequest> stripeFor(int serial) {
+        return mStripes[serial & (STRIPE_COUNT - 1)];
+    }
+
+    /**
+     * Add a request to the table.
+     *
+     * @param rr The request to add, keyed by its serial.
+     */
+    void put(@NonNull RILRequest rr) {
+        SparseArray<RILRequest> stripe = stripeFor(rr.mSerial);
+        synchronized (stripe) {
+            stripe.put(rr.mSerial, rr);
+        }
+    }
+
+    /**
+     * @param serial The serial of the request.
+     * @return The request with the given serial, or {@code null} if it is not in flight.
+     */
+    @Nullable RILRequest get(int serial) {
+        SparseArray<RILRequest> stripe = stripeFor(serial);
+        synchronized (stripe) {
+            return stripe.get(serial);
+        }
+    }
+
+    /**
+     * Remove the request with the given serial.
+     *
+     * @param serial The serial of the request.
+     * @return The removed request, or {@code null} if it was not in flight.
+     */
+    @Nullable RILRequest remove(int serial) {
+        SparseArray<RILRequest> stripe = stripeFor(serial);
+        synchronized (stripe) {
+            RILRequest rr = stripe.get(serial);
+            if (rr != null) {
+                stripe.remove(serial);
+            }
+            return rr;
+        }
+    }
+
+    /** @return The number of in-flight requests. */
+    int size() {
+        int size = 0;
+        for (SparseArray<RILRequest> stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return A copy of all in-flight requests, ordered by serial. Each stripe is copied
+     * atomically, but the copy as a whole is not a consistent cut across stripes.
+     */
+    @NonNull SparseArray<RILRequest> snapshot() {
+        return collect(false);
+    }
+
+    /**
+     * Remove all in-flight requests.
+     *
+     * @return The removed requests, ordered by serial.
+     */
+    @NonNull SparseArray<RILRequest> removeAll() {
+        return collect(true);
+    }
+
+    private SparseArray<RILRequest> collect(boolean remove) {
+        SparseArray<RILRequest> result = new SparseArray<>();
+        for (SparseArray<RILRequest> stripe : mStripes) {
+            synchronized (stripe) {
+                for (int i = 0; i < stripe.size(); i++) {
+                    result.put(stripe.keyAt(i), stripe.valueAt(i));
+                }
+                if (remove) {
+                    stripe.clear();
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long each RIL request type keeps the RIL wakelock held, and how long the ack wakelock is
+ * held, recorded into {@link LatencyHistogram}s kept in a {@link RilRequestIdMap}.
+ *
+ * A request type whose holds routinely exceed the long hold threshold is flagged, so that the
+ * wakelock timeout and the HAL behavior behind it can be looked at. Per client hold times are
+ * kept by {@link ClientWakelockAccountant}.
+ */
+class RilWakelockStats {
+    /** Number of holds of a request type needed before it can be flagged. */
+    private static final int MIN_HOLDS_TO_FLAG = 10;
+
+    /** Percentage of long holds above which a request type is flagged. */
+    private static final int LONG_HOLD_PERCENT_TO_FLAG = 10;
+
+    private final int mLongHoldThresholdMillis;
+
+    private final RilRequestIdMap<RequestStats> mByRequest =
+            new RilRequestIdMap<>(request -> new RequestStats());
+    private final LatencyHistogram mAckHoldTimes = new LatencyHistogram();
+
+    private static class RequestStats {
+        final LatencyHistogram mHoldTimes = new LatencyHistogram();
+        final AtomicLong mLongHolds = new AtomicLong();
+    }
+
+    /**
+     * @param longHoldThresholdMillis Holds longer than this are counted as long holds.
+     */
+    RilWakelockStats(int longHoldThresholdMillis) {
+        mLongHoldThresholdMillis = longHoldThresholdMillis;
+    }
+
+    /**
+     * Record the time a request held the RIL wakelock.
+     *
+     * @param request The RIL_REQUEST_* that held the wakelock.
+     * @param millis The time from acquiring the wakelock for the request to releasing it.
+     */
+    void recordHold(int request, int millis) {
+        RequestStats stats = mByRequest.getOrCreate(request);
+        stats.mHoldTimes.record(millis);
+        if (millis > mLongHoldThresholdMillis) {
+            stats.mLongHolds.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the time the ack wakelock was held.
+     *
+     * @param millis The time from acquiring the released wakelock to releasing it.
+     */
+    void recordAckHold(int millis) {
+        mAckHoldTimes.record(millis);
+    }
+
+    /**
+     * @param request The RIL_REQUEST_*.
+     * @return The hold time summary of the request, or {@code null} if it never held the
+     * wakelock.
+     */
+    @Nullable
+    LatencyHistogram.Snapshot getHoldSnapshot(int request) {
+        RequestStats stats = mByRequest.get(request);
+        return stats == null ? null : stats.mHoldTimes.snapshot();
+    }
+
+    /** @return The hold time summary of the ack wakelock. */
+    @NonNull
+    LatencyHistogram.Snapshot getAckHoldSnapshot() {
+        return mAckHoldTimes.snapshot();
+    }
+
+    /**
+     * @param request The RIL_REQUEST_*.
+     * @return {@code true} if the request held the wakelock longer than the long hold threshold
+     * in more than {@link #LONG_HOLD_PERCENT_TO_FLAG} percent of enough holds.
+     */
+    boolean isLongHolder(int request) {
+        RequestStats stats = mByRequest.get(request);
+        return stats != null && isLongHolder(stats.mHoldTimes.snapshot().count,
+                stats.mLongHolds.get());
+    }
+
+    private static boolean isLongHolder(long holds, long longHolds) {
+        return holds >= MIN_HOLDS_TO_FLAG && longHolds * 100 > holds * LONG_HOLD_PERCENT_TO_FLAG;
+    }
+
+    /** Dump the hold time summaries, flagging the long holders. */
+    void dump(PrintWriter pw) {
+        pw.println(" RIL wakelock hold time, long hold threshold=" + mLongHoldThresholdMillis
+                + "ms:");
+        pw.println("  ack: " + mAckHoldTimes.snapshot());
+        SparseArray<RequestStats> all = mByRequest.getAll();
+        for (int i = 0; i < all.size(); i++) {
+            RequestStats stats = all.valueAt(i);
+            LatencyHistogram.Snapshot snapshot = stats.mHoldTimes.snapshot();
+            long longHolds = stats.mLongHolds.get();
+            pw.println("  " + RILUtils.requestToString(all.keyAt(i)) + ": " + snapshot
+                    + " long=" + longHolds
+                    + (isLongHolder(snapshot.count, longHolds) ? " LONG HOLDER" : ""));
+        }
+    }
+}
@@ -45,6 +45,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.PersistableBundle;
+import android.os.Process;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.os.SystemClock;
@@ -179,6 +180,21 @@ public class ServiceStateTracker extends Handler {
 
     private long mLastCellInfoReqTime;
     private List<CellInfo> mLastCellInfoList = null;
+    // Time mLastCellInfoList was received, whether it was requested or reported unsolicited.
+    private long mLastCellInfoListTime;
+
+    // Indices into the per-uid CellInfo request counters.
+    private static final int CELL_INFO_REQUESTS_TOTAL = 0;
+    private static final int CELL_INFO_REQUESTS_FROM_CACHE = 1;
+    private static final int CELL_INFO_REQUESTS_COALESCED = 2;
+    private static final int CELL_INFO_REQUESTS_TO_MODEM = 3;
+    // CellInfo request counters, by the first uid of the caller's WorkSource. Once
+    // MAX_CELL_INFO_REQUEST_UIDS uids are tracked, the requests of other uids are counted together.
+    private static final int MAX_CELL_INFO_REQUEST_UIDS = 16;
+    // @GuardedBy("mPendingCellInfoRequests")
+    private final SparseArray<int[]> mCellInfoRequestCounts = new SparseArray<>();
+    // @GuardedBy("mPendingCellInfoRequests")
+    private final int[] mOtherCellInfoRequestCounts = new int[CELL_INFO_REQUESTS_TO_MODEM + 1];
     private List<PhysicalChannelConfig> mLastPhysicalChannelConfigList = null;
 
     private final Set<Integer> mRadioPowerOffReasons = new HashSet();
@@ -772,6 +788,7 @@ public class ServiceStateTracker extends Handler {
         mNewSS.setOutOfService(mAccessNetworksManager.isInLegacyMode(), false);
         mLastCellInfoReqTime = 0;
         mLastCellInfoList = null;
+        mLastCellInfoListTime = 0;
         mStartedGprsRegCheck = false;
         mReportedGprsNoReg = false;
         mMdn = null;
@@ -1252,7 +1269,10 @@ public class ServiceStateTracker extends Handler {
                     } else {
                         cellInfo = (List<CellInfo>) ar.result;
                         updateOperatorNameForCellInfo(cellInfo);
-                        mLastCellInfoList = cellInfo;
+                        synchronized (mPendingCellInfoRequests) {
+                            mLastCellInfoList = cellInfo;
+                            mLastCellInfoListTime = SystemClock.elapsedRealtime();
+                        }
                         mPhone.notifyCellInfo(cellInfo);
                         if (VDBG) {
                             log("CELL_INFO_LIST: size=" + cellInfo.size() + " list=" + cellInfo);
@@ -5238,6 +5258,23 @@ public class ServiceStateTracker extends Handler {
      *     cached locally for future lookup.
      */
     public void requestAllCellInfo(WorkSource workSource, Message rspMsg) {
+        requestAllCellInfo(workSource, rspMsg, mCellInfoMinIntervalMs);
+    }
+
+    /**
+     * Request CellInfo that is at most the given age.
+     *
+     * If the cached List<CellInfo>, whether it was requested or reported unsolicited by the
+     * modem, was received less than maxAgeMillis ago, it is returned without asking the modem.
+     * Otherwise this behaves like {@link #requestAllCellInfo(WorkSource, Message)}: the request
+     * joins a pending modem request if there is one, and the minimum request interval still
+     * applies.
+     *
+     * @param workSource of the caller for power accounting
+     * @param rspMsg an optional response message to get the response to the CellInfo request.
+     * @param maxAgeMillis the maximum age of a cached CellInfo list the caller accepts.
+     */
+    public void requestAllCellInfo(WorkSource workSource, Message rspMsg, long maxAgeMillis) {
         if (VDBG) log("SST.requestAllCellInfo(): E");
         if (mCi.getRilVersion() < 8) {
             AsyncResult.forMessage(rspMsg);
@@ -5246,16 +5283,30 @@ public class ServiceStateTracker extends Handler {
             return;
         }
         synchronized (mPendingCellInfoRequests) {
+            final long curTime = SystemClock.elapsedRealtime();
+            int[] counts = getCellInfoRequestCounts(workSource);
+            counts[CELL_INFO_REQUESTS_TOTAL]++;
+            // If the last list is recent enough for the caller, return it.
+            if (mLastCellInfoList != null && (curTime - mLastCellInfoListTime) < maxAgeMillis) {
+                counts[CELL_INFO_REQUESTS_FROM_CACHE]++;
+                if (rspMsg != null) {
+                    if (VDBG) log("SST.requestAllCellInfo(): return cached, fresh enough");
+                    AsyncResult.forMessage(rspMsg, mLastCellInfoList, null);
+                    rspMsg.sendToTarget();
+                }
+                return;
+            }
             // If there are pending requests, then we already have a request active, so add this
             // request to the response queue without initiating a new request.
             if (mIsPendingCellInfoRequest) {
+                counts[CELL_INFO_REQUESTS_COALESCED]++;
                 if (rspMsg != null) mPendingCellInfoRequests.add(rspMsg);
                 return;
             }
             // Check to see whether the elapsed time is sufficient for a new request; if not, then
             // return the result of the last request (if expected).
-            final long curTime = SystemClock.elapsedRealtime();
             if ((curTime - mLastCellInfoReqTime) < mCellInfoMinIntervalMs) {
+                counts[CELL_INFO_REQUESTS_FROM_CACHE]++;
                 if (rspMsg != null) {
                     if (DBG) log("SST.requestAllCellInfo(): return last, back to back calls");
                     AsyncResult.forMessage(rspMsg, mLastCellInfoList, null);
@@ -5263,6 +5314,7 @@ public class ServiceStateTracker extends Handler {
                 }
                 return;
             }
+            counts[CELL_INFO_REQUESTS_TO_MODEM]++;
             // If this request needs an explicit response (it's a synchronous request), then queue
             // the response message.
             if (rspMsg != null) mPendingCellInfoRequests.add(rspMsg);
@@ -5280,6 +5332,43 @@ public class ServiceStateTracker extends Handler {
         }
     }
 
+    // @GuardedBy("mPendingCellInfoRequests")
+    private int[] getCellInfoRequestCounts(WorkSource workSource) {
+        int uid = (workSource == null || workSource.size() == 0)
+                ? Process.INVALID_UID : workSource.getUid(0);
+        int[] counts = mCellInfoRequestCounts.get(uid);
+        if (counts == null) {
+            if (mCellInfoRequestCounts.size() >= MAX_CELL_INFO_REQUEST_UIDS) {
+                return mOtherCellInfoRequestCounts;
+            }
+            counts = new int[CELL_INFO_REQUESTS_TO_MODEM + 1];
+            mCellInfoRequestCounts.put(uid, counts);
+        }
+        return counts;
+    }
+
+    private void dumpCellInfoRequestCounts(PrintWriter pw) {
+        pw.println(" CellInfo requests by uid (total/from cache/coalesced/to modem):");
+        synchronized (mPendingCellInfoRequests) {
+            pw.println("  mLastCellInfoListTime=" + mLastCellInfoListTime);
+            for (int i = 0; i < mCellInfoRequestCounts.size(); i++) {
+                dumpCellInfoRequestCounts(pw, "uid " + mCellInfoRequestCounts.keyAt(i),
+                        mCellInfoRequestCounts.valueAt(i));
+            }
+            if (mOtherCellInfoRequestCounts[CELL_INFO_REQUESTS_TOTAL] > 0) {
+                dumpCellInfoRequestCounts(pw, "other uids", mOtherCellInfoRequestCounts);
+            }
+        }
+    }
+
+    private static void dumpCellInfoRequestCounts(PrintWriter pw, String caller, int[] counts) {
+        pw.println("  " + caller + ": "
+                + counts[CELL_INFO_REQUESTS_TOTAL] + "/"
+                + counts[CELL_INFO_REQUESTS_FROM_CACHE] + "/"
+                + counts[CELL_INFO_REQUESTS_COALESCED] + "/"
+                + counts[CELL_INFO_REQUESTS_TO_MODEM]);
+    }
+
     /**
      * Registration point for subscription info ready
      * @param h handler to notify
@@ -5366,6 +5455,7 @@ public class ServiceStateTracker extends Handler {
         pw.println(" mPendingRadioPowerOffAfterDataOffTag=" + mPendingRadioPowerOffAfterDataOffTag);
         pw.println(" mCellIdentity=" + Rlog.pii(VDBG, mCellIdentity));
         pw.println(" mLastCellInfoReqTime=" + mLastCellInfoReqTime);
+        dumpCellInfoRequestCounts(pw);
         dumpCellInfoList(pw);
         pw.flush();
         pw.println(" mAllowedNetworkTypes=" + mAllowedNetworkTypes);
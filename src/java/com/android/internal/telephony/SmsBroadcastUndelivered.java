@@ -226,6 +226,7 @@ public class SmsBroadcastUndelivered {
                 // delete permanently
                 int rows = contentResolver.delete(InboundSmsHandler.sRawUriPermanentDelete,
                         message.getDeleteWhere(), message.getDeleteWhereArgs());
+                notifySegmentsDeleted(message);
                 if (rows == 0) {
                     Rlog.e(TAG, "No rows were deleted from raw table!");
                 } else if (DBG) {
@@ -280,6 +281,20 @@ public class SmsBroadcastUndelivered {
         }
     }
 
+    /**
+     * Tell the inbound SMS handlers of all phones that the segments of a message were deleted, so
+     * they are dropped from the in-memory reassembly index.
+     */
+    private static void notifySegmentsDeleted(SmsReferenceKey message) {
+        for (Phone phone : PhoneFactory.getPhones()) {
+            InboundSmsHandler handler = phone.getInboundSmsHandler(message.mIs3gpp2);
+            if (handler != null) {
+                handler.onRawTableSegmentsDeleted(message.getDeleteWhere(),
+                        message.getDeleteWhereArgs());
+            }
+        }
+    }
+
     private long getUndeliveredSmsExpirationTime(Context context) {
         int subId = SubscriptionManager.getDefaultSmsSubscriptionId();
         CarrierConfigManager configManager =
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.IntRange;
+import android.annotation.NonNull;
+import android.util.LongArrayQueue;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Per-application sliding window limit on the number of SMS sent, used by
+ * {@link SmsUsageMonitor}.
+ *
+ * Each application keeps a queue of send batches, a timestamp and the number of messages sent at
+ * that time, plus the running total of the batches still inside the window. Checking the limit
+ * drops expired batches from the head of the queue, so its cost does not depend on how many
+ * messages the application sent. Applications are kept in the order they were last checked; idle
+ * ones, with nothing left in the window, are evicted from the head of that order.
+ */
+class SmsRateLimiter {
+    /** Upper bound on the initial per-application queue capacity. */
+    private static final int MAX_INITIAL_CAPACITY = 16;
+
+    private final long mWindowMillis;
+    private final int mMaxAllowed;
+
+    private final LinkedHashMap<String, Window> mWindows =
+            new LinkedHashMap<String, Window>(16, 0.75f, true);
+
+    /** Send batches of one application. */
+    private static class Window {
+        final LongArrayQueue mTimestamps;
+        final LongArrayQueue mCounts;
+        int mTotal;
+
+        Window(int capacity) {
+            mTimestamps = new LongArrayQueue(capacity);
+            mCounts = new LongArrayQueue(capacity);
+        }
+
+        /** Drop the batches sent before the given time. */
+        void trim(long beginMillis) {
+            while (mTimestamps.size() > 0 && mTimestamps.peekFirst() < beginMillis) {
+                mTimestamps.removeFirst();
+                mTotal -= (int) mCounts.removeFirst();
+            }
+        }
+
+        boolean isIdle(long beginMillis) {
+            return mTimestamps.size() == 0 || mTimestamps.peekLast() < beginMillis;
+        }
+    }
+
+    /**
+     * @param windowMillis The length of the sliding window.
+     * @param maxAllowed The number of messages an application may send within the window.
+     */
+    SmsRateLimiter(@IntRange(from = 0) long windowMillis, @IntRange(from = 0) int maxAllowed) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must be greater or equal to 0");
+        }
+        if (maxAllowed < 0) {
+            throw new IllegalArgumentException("maxAllowed must be greater or equal to 0");
+        }
+        mWindowMillis = windowMillis;
+        mMaxAllowed = maxAllowed;
+    }
+
+    /**
+     * Record the messages as sent if the application stays within its limit.
+     *
+     * @param appName The package name of the application.
+     * @param smsWaiting The number of messages the application wants to send.
+     * @param nowMillis The current time.
+     * @return {@code true} if the messages were recorded, {@code false} if sending them would
+     * exceed the limit.
+     */
+    synchronized boolean tryAcquire(@NonNull String appName, int smsWaiting, long nowMillis) {
+        long beginMillis = nowMillis - mWindowMillis;
+        evictIdle(beginMillis);
+
+        Window window = mWindows.get(appName);
+        if (window != null) {
+            window.trim(beginMillis);
+        }
+        int sent = window == null ? 0 : window.mTotal;
+        if (sent + smsWaiting > mMaxAllowed) {
+            return false;
+        }
+        if (smsWaiting > 0) {
+            if (window == null) {
+                window = new Window(Math.max(1, Math.min(mMaxAllowed, MAX_INITIAL_CAPACITY)));
+                mWindows.put(appName, window);
+            }
+            window.mTimestamps.addLast(nowMillis);
+            window.mCounts.addLast(smsWaiting);
+            window.mTotal += smsWaiting;
+        }
+        return true;
+    }
+
+    /**
+     * Evict applications with nothing sent within the window, starting from the least recently
+     * checked one and stopping at the first application that is still active.
+     */
+    private void evictIdle(long beginMillis) {
+        Iterator<Window> iter = mWindows.values().iterator();
+        while (iter.hasNext()) {
+            if (!iter.next().isIdle(beginMillis)) {
+                break;
+            }
+            iter.remove();
+        }
+    }
+
+    /** Forget all applications. */
+    synchronized void clear() {
+        mWindows.clear();
+    }
+
+    /** @return The number of applications currently tracked. */
+    @VisibleForTesting
+    synchronized int size() {
+        return mWindows.size();
+    }
+
+    /** @return The number of messages the application sent within the window ending now. */
+    @VisibleForTesting
+    synchronized int getSentCount(@NonNull String appName, long nowMillis) {
+        Window window = mWindows.get(appName);
+        if (window == null) return 0;
+        window.trim(nowMillis - mWindowMillis);
+        return window.mTotal;
+    }
+
+    /** @return The number of send batches the application has queued. */
+    @VisibleForTesting
+    synchronized int getBatchCount(@NonNull String appName) {
+        Window window = mWindows.get(appName);
+        return window == null ? 0 : window.mTimestamps.size();
+    }
+}
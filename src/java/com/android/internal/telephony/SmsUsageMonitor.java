@@ -50,9 +50,8 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -101,11 +100,8 @@ public class SmsUsageMonitor {
     public static final int PREMIUM_SMS_PERMISSION_ALWAYS_ALLOW =
             SmsManager.PREMIUM_SMS_CONSENT_ALWAYS_ALLOW;
 
-    private final int mCheckPeriod;
-    private final int mMaxAllowed;
-
-    private final HashMap<String, ArrayList<Long>> mSmsStamp =
-            new HashMap<String, ArrayList<Long>>();
+    /** Per-app limit of messages sent within the checking period. */
+    private final SmsRateLimiter mRateLimiter;
 
     /** Context for retrieving regexes from XML resource. */
     private final Context mContext;
@@ -116,6 +112,15 @@ public class SmsUsageMonitor {
     /** Cached short code pattern matcher for {@link #mCurrentCountry}. */
     private ShortCodePatternMatcher mCurrentPatternMatcher;
 
+    /**
+     * Short code regexes of every country, as read from the pattern file or the resource. Loaded
+     * once and reloaded only when the pattern file changes.
+     */
+    private HashMap<String, String[]> mShortCodePatterns;
+
+    /** Compiled short code pattern matchers, by country. Null for countries without patterns. */
+    private final HashMap<String, ShortCodePatternMatcher> mPatternMatchers = new HashMap<>();
+
     /** Notice when the enabled setting changes - can be changed through gservices */
     private final AtomicBoolean mCheckEnabled = new AtomicBoolean(true);
 
@@ -176,9 +181,22 @@ public class SmsUsageMonitor {
     private static final String ATTR_PACKAGE_SMS_POLICY = "sms-policy";
 
     /**
-     * SMS short code regex pattern matcher for a specific country.
+     * SMS short code regex pattern matcher for a specific country. Remembers the category of
+     * recently checked numbers, since apps tend to send many messages to the same destination.
+     * Must be used with the {@link #mSettingsObserverHandler} lock held.
      */
     private static final class ShortCodePatternMatcher {
+        /** Number of recently checked destinations whose category is remembered. */
+        private static final int MAX_CACHED_NUMBERS = 32;
+
+        private final LinkedHashMap<String, Integer> mRecentNumbers =
+                new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                        return size() > MAX_CACHED_NUMBERS;
+                    }
+                };
+
         private final Pattern mShortCodePattern;
         private final Pattern mPremiumShortCodePattern;
         private final Pattern mFreeShortCodePattern;
@@ -196,6 +214,15 @@ public class SmsUsageMonitor {
         }
 
         int getNumberCategory(String phoneNumber) {
+            Integer category = mRecentNumbers.get(phoneNumber);
+            if (category == null) {
+                category = matchNumberCategory(phoneNumber);
+                mRecentNumbers.put(phoneNumber, category);
+            }
+            return category;
+        }
+
+        private int matchNumberCategory(String phoneNumber) {
             if (mFreeShortCodePattern != null && mFreeShortCodePattern.matcher(phoneNumber)
                     .matches()) {
                 return SmsManager.SMS_CATEGORY_FREE_SHORT_CODE;
@@ -255,32 +282,69 @@ public class SmsUsageMonitor {
         ContentResolver resolver = context.getContentResolver();
         mRoleManager = (RoleManager) mContext.getSystemService(Context.ROLE_SERVICE);
 
-        mMaxAllowed = Settings.Global.getInt(resolver,
+        int maxAllowed = Settings.Global.getInt(resolver,
                 Settings.Global.SMS_OUTGOING_CHECK_MAX_COUNT,
                 DEFAULT_SMS_MAX_COUNT);
 
-        mCheckPeriod = Settings.Global.getInt(resolver,
+        int checkPeriod = Settings.Global.getInt(resolver,
                 Settings.Global.SMS_OUTGOING_CHECK_INTERVAL_MS,
                 DEFAULT_SMS_CHECK_PERIOD);
 
+        mRateLimiter = new SmsRateLimiter(Math.max(0, checkPeriod), Math.max(0, maxAllowed));
+
         mSettingsObserverHandler = new SettingsObserverHandler(mContext, mCheckEnabled);
 
         loadPremiumSmsPolicyDb();
     }
 
     /**
-     * Return a pattern matcher object for the specified country.
+     * Return a pattern matcher object for the specified country. The patterns of all countries
+     * are parsed once and the matcher of a country is compiled on first use; both are discarded
+     * when the pattern file changes.
      * @param country the country to search for
      * @return a {@link ShortCodePatternMatcher} for the specified country, or null if not found
      */
-    private ShortCodePatternMatcher getPatternMatcherFromFile(String country) {
+    private ShortCodePatternMatcher getPatternMatcher(String country) {
+        if (mShortCodePatterns == null
+                || mPatternFile.lastModified() != mPatternFileLastModified) {
+            if (mPatternFile.exists()) {
+                if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
+                mShortCodePatterns = getPatternsFromFile();
+            } else {
+                if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
+                mShortCodePatterns = getPatternsFromResource();
+                mPatternFileLastModified = 0;
+            }
+            mPatternMatchers.clear();
+        }
+
+        if (mPatternMatchers.containsKey(country)) {
+            return mPatternMatchers.get(country);
+        }
+        ShortCodePatternMatcher matcher = null;
+        String[] patterns = mShortCodePatterns.get(country);
+        if (patterns != null) {
+            matcher = new ShortCodePatternMatcher(patterns[0], patterns[1], patterns[2],
+                    patterns[3]);
+        } else if (DBG) {
+            Rlog.d(TAG, "Country (" + country + ") not found");
+        }
+        mPatternMatchers.put(country, matcher);
+        return matcher;
+    }
+
+    /**
+     * Read the short code patterns of all countries from the pattern file.
+     * @return the patterns by country, empty if the file could not be read
+     */
+    private HashMap<String, String[]> getPatternsFromFile() {
         FileReader patternReader = null;
         XmlPullParser parser = null;
         try {
             patternReader = new FileReader(mPatternFile);
             parser = Xml.newPullParser();
             parser.setInput(patternReader);
-            return getPatternMatcherFromXmlParser(parser, country);
+            return getPatternsFromXmlParser(parser);
         } catch (FileNotFoundException e) {
             Rlog.e(TAG, "Short Code Pattern File not found");
         } catch (XmlPullParserException e) {
@@ -293,22 +357,26 @@ public class SmsUsageMonitor {
                 } catch (IOException e) {}
             }
         }
-        return null;
+        return new HashMap<>();
     }
 
-    private ShortCodePatternMatcher getPatternMatcherFromResource(String country) {
+    private HashMap<String, String[]> getPatternsFromResource() {
         int id = com.android.internal.R.xml.sms_short_codes;
         XmlResourceParser parser = null;
         try {
             parser = mContext.getResources().getXml(id);
-            return getPatternMatcherFromXmlParser(parser, country);
+            return getPatternsFromXmlParser(parser);
         } finally {
             if (parser != null) parser.close();
         }
     }
 
-    private ShortCodePatternMatcher getPatternMatcherFromXmlParser(XmlPullParser parser,
-            String country) {
+    /**
+     * @return the pattern, premium, free and standard short code regexes by country. If a
+     * country is listed more than once, its first entry is used.
+     */
+    private HashMap<String, String[]> getPatternsFromXmlParser(XmlPullParser parser) {
+        HashMap<String, String[]> patterns = new HashMap<>();
         try {
             XmlUtils.beginDocument(parser, TAG_SHORTCODES);
 
@@ -316,19 +384,18 @@ public class SmsUsageMonitor {
                 XmlUtils.nextElement(parser);
                 String element = parser.getName();
                 if (element == null) {
-                    Rlog.e(TAG, "Parsing pattern data found null");
                     break;
                 }
 
                 if (element.equals(TAG_SHORTCODE)) {
-                    String currentCountry = parser.getAttributeValue(null, ATTR_COUNTRY);
-                    if (VDBG) Rlog.d(TAG, "Found country " + currentCountry);
-                    if (country.equals(currentCountry)) {
-                        String pattern = parser.getAttributeValue(null, ATTR_PATTERN);
-                        String premium = parser.getAttributeValue(null, ATTR_PREMIUM);
-                        String free = parser.getAttributeValue(null, ATTR_FREE);
-                        String standard = parser.getAttributeValue(null, ATTR_STANDARD);
-                        return new ShortCodePatternMatcher(pattern, premium, free, standard);
+                    String country = parser.getAttributeValue(null, ATTR_COUNTRY);
+                    if (VDBG) Rlog.d(TAG, "Found country " + country);
+                    if (country != null && !patterns.containsKey(country)) {
+                        patterns.put(country, new String[] {
+                                parser.getAttributeValue(null, ATTR_PATTERN),
+                                parser.getAttributeValue(null, ATTR_PREMIUM),
+                                parser.getAttributeValue(null, ATTR_FREE),
+                                parser.getAttributeValue(null, ATTR_STANDARD)});
                     }
                 } else {
                     Rlog.e(TAG, "Error: skipping unknown XML tag " + element);
@@ -339,13 +406,12 @@ public class SmsUsageMonitor {
         } catch (IOException e) {
             Rlog.e(TAG, "I/O exception reading short code patterns", e);
         }
-        if (DBG) Rlog.d(TAG, "Country (" + country + ") not found");
-        return null;    // country not found
+        return patterns;
     }
 
     /** Clear the SMS application list for disposal. */
     void dispose() {
-        mSmsStamp.clear();
+        mRateLimiter.clear();
     }
 
     /**
@@ -360,22 +426,13 @@ public class SmsUsageMonitor {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean check(String appName, int smsWaiting) {
-        synchronized (mSmsStamp) {
-            removeExpiredTimestamps();
-
-            ArrayList<Long> sentList = mSmsStamp.get(appName);
-            if (sentList == null) {
-                sentList = new ArrayList<Long>();
-                mSmsStamp.put(appName, sentList);
-            }
-
-            List<String> defaultApp = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
-            if (defaultApp.contains(appName)) {
-                return true;
-            } else {
-                return isUnderLimit(sentList, smsWaiting);
-            }
+        List<String> defaultApp = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
+        if (defaultApp.contains(appName)) {
+            return true;
         }
+        long ct = System.currentTimeMillis();
+        if (VDBG) log("SMS send waiting=" + smsWaiting + " time=" + ct);
+        return mRateLimiter.tryAcquire(appName, smsWaiting, ct);
     }
 
     /**
@@ -412,13 +469,7 @@ public class SmsUsageMonitor {
             if (countryIso != null) {
                 if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry) ||
                         mPatternFile.lastModified() != mPatternFileLastModified) {
-                    if (mPatternFile.exists()) {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
-                        mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
-                    } else {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
-                        mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
-                    }
+                    mCurrentPatternMatcher = getPatternMatcher(countryIso);
                     mCurrentCountry = countryIso;
                 }
             }
@@ -617,44 +668,6 @@ public class SmsUsageMonitor {
         throw new SecurityException("Disallowed call for uid " + uid);
     }
 
-    /**
-     * Remove keys containing only old timestamps. This can happen if an SMS app is used
-     * to send messages and then uninstalled.
-     */
-    private void removeExpiredTimestamps() {
-        long beginCheckPeriod = System.currentTimeMillis() - mCheckPeriod;
-
-        synchronized (mSmsStamp) {
-            Iterator<Map.Entry<String, ArrayList<Long>>> iter = mSmsStamp.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<String, ArrayList<Long>> entry = iter.next();
-                ArrayList<Long> oldList = entry.getValue();
-                if (oldList.isEmpty() || oldList.get(oldList.size() - 1) < beginCheckPeriod) {
-                    iter.remove();
-                }
-            }
-        }
-    }
-
-    private boolean isUnderLimit(ArrayList<Long> sent, int smsWaiting) {
-        Long ct = System.currentTimeMillis();
-        long beginCheckPeriod = ct - mCheckPeriod;
-
-        if (VDBG) log("SMS send size=" + sent.size() + " time=" + ct);
-
-        while (!sent.isEmpty() && sent.get(0) < beginCheckPeriod) {
-            sent.remove(0);
-        }
-
-        if ((sent.size() + smsWaiting) <= mMaxAllowed) {
-            for (int i = 0; i < smsWaiting; i++ ) {
-                sent.add(ct);
-            }
-            return true;
-        }
-        return false;
-    }
-
     private static void log(String msg) {
         Rlog.d(TAG, msg);
     }
@@ -69,9 +69,12 @@ import android.telephony.UiccSlotInfo;
 import android.telephony.UiccSlotMapping;
 import android.telephony.euicc.EuiccManager;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.EventLog;
 import android.util.LocalLog;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.ims.ImsManager;
 import com.android.internal.annotations.VisibleForTesting;
@@ -134,11 +137,12 @@ public class SubscriptionController extends ISub.Stub {
     private static final int NO_ENTRY_FOR_SLOT_INDEX = -1;
     private static final int SUB_ID_NOT_IN_SLOT = -2;
 
-    // Lock that both mCacheActiveSubInfoList and mCacheOpportunisticSubInfoList use.
+    // Lock that both mCacheActiveSubInfoList and mCacheOpportunisticSubInfoList use. Readers of
+    // mCacheActiveSubInfoList do not need it, the list is immutable and replaced as a whole.
     private Object mSubInfoListLock = new Object();
 
     /* The Cache of Active SubInfoRecord(s) list of currently in use SubInfoRecord(s) */
-    private final List<SubscriptionInfo> mCacheActiveSubInfoList = new ArrayList<>();
+    private volatile List<SubscriptionInfo> mCacheActiveSubInfoList = Collections.emptyList();
 
     /* Similar to mCacheActiveSubInfoList but only caching opportunistic subscriptions. */
     private List<SubscriptionInfo> mCacheOpportunisticSubInfoList = new ArrayList<>();
@@ -179,17 +183,77 @@ public class SubscriptionController extends ISub.Stub {
     // Allows test mocks to avoid SELinux failures on invalidate calls.
     private static boolean sCachingEnabled = true;
 
+    /**
+     * Immutable view of the slot index to sub ids map, so that the subId and slot lookups need
+     * neither a lock nor a copy. A new one is published after every change of the map.
+     */
+    private static class SlotIndexToSubIdsSnapshot {
+        static final SlotIndexToSubIdsSnapshot EMPTY =
+                new SlotIndexToSubIdsSnapshot(Collections.emptyMap());
+
+        /** Number of slots in the map, including the ones without a sub id. */
+        final int mSize;
+        /** Slot of each sub id. A sub id listed in several slots maps to the first found. */
+        final SparseIntArray mSlotIndexBySubId = new SparseIntArray();
+        /** Sub ids of each slot with at least one. */
+        final SparseArray<int[]> mSubIdsBySlotIndex = new SparseArray<>();
+        /** All the sub ids, in slot index order. */
+        final int[] mActiveSubIds;
+
+        SlotIndexToSubIdsSnapshot(Map<Integer, ArrayList<Integer>> slotIndexToSubIds) {
+            mSize = slotIndexToSubIds.size();
+            int count = 0;
+            for (Entry<Integer, ArrayList<Integer>> entry : slotIndexToSubIds.entrySet()) {
+                ArrayList<Integer> subIds = entry.getValue();
+                if (subIds == null || subIds.isEmpty()) continue;
+                int[] subIdArr = new int[subIds.size()];
+                for (int i = 0; i < subIdArr.length; i++) {
+                    subIdArr[i] = subIds.get(i);
+                    if (mSlotIndexBySubId.indexOfKey(subIdArr[i]) < 0) {
+                        mSlotIndexBySubId.put(subIdArr[i], entry.getKey());
+                    }
+                }
+                mSubIdsBySlotIndex.put(entry.getKey(), subIdArr);
+                count += subIdArr.length;
+            }
+            // SparseArray keeps its keys sorted, so this is slot index order.
+            mActiveSubIds = new int[count];
+            int next = 0;
+            for (int i = 0; i < mSubIdsBySlotIndex.size(); i++) {
+                int[] subIdArr = mSubIdsBySlotIndex.valueAt(i);
+                System.arraycopy(subIdArr, 0, mActiveSubIds, next, subIdArr.length);
+                next += subIdArr.length;
+            }
+        }
+
+        /** @return the slot index of the sub id, or {@code defaultValue} if it has none. */
+        int getSlotIndex(int subId, int defaultValue) {
+            return mSlotIndexBySubId.get(subId, defaultValue);
+        }
+
+        /**
+         * @return whether the sub id is in a slot. Remote SIM subs are in slot
+         * {@link SubscriptionManager#SLOT_INDEX_FOR_REMOTE_SIM_SUB}, which is the same value as
+         * {@link SubscriptionManager#INVALID_SIM_SLOT_INDEX}, so the slot index alone cannot tell.
+         */
+        boolean contains(int subId) {
+            return mSlotIndexBySubId.indexOfKey(subId) >= 0;
+        }
+    }
+
     // Each slot can have multiple subs.
+    // The sub id lists are never changed once in the map, only replaced, and every change
+    // publishes a new snapshot before invalidating the caches that depend on it.
     private static class WatchedSlotIndexToSubIds {
         private Map<Integer, ArrayList<Integer>> mSlotIndexToSubIds = new ConcurrentHashMap<>();
+        private volatile SlotIndexToSubIdsSnapshot mSnapshot = SlotIndexToSubIdsSnapshot.EMPTY;
 
         WatchedSlotIndexToSubIds() {
         }
 
-        public void clear() {
+        public synchronized void clear() {
             mSlotIndexToSubIds.clear();
-            invalidateDefaultSubIdCaches();
-            invalidateSlotIndexCaches();
+            onChanged();
         }
 
         public Set<Entry<Integer, ArrayList<Integer>>> entrySet() {
@@ -206,39 +270,44 @@ public class SubscriptionController extends ISub.Stub {
             return new ArrayList<Integer>(subIdList);
         }
 
-        public void put(int slotIndex, ArrayList<Integer> value) {
-            mSlotIndexToSubIds.put(slotIndex, value);
-            invalidateDefaultSubIdCaches();
-            invalidateSlotIndexCaches();
+        public synchronized void put(int slotIndex, ArrayList<Integer> value) {
+            mSlotIndexToSubIds.put(slotIndex, new ArrayList<>(value));
+            onChanged();
         }
 
-        public void remove(int slotIndex) {
+        public synchronized void remove(int slotIndex) {
             mSlotIndexToSubIds.remove(slotIndex);
-            invalidateDefaultSubIdCaches();
-            invalidateSlotIndexCaches();
+            onChanged();
         }
 
         public int size() {
             return mSlotIndexToSubIds.size();
         }
 
+        /** @return the current immutable view of the map. */
+        public SlotIndexToSubIdsSnapshot getSnapshot() {
+            return mSnapshot;
+        }
+
         @VisibleForTesting
         public Map<Integer, ArrayList<Integer>> getMap() {
             return mSlotIndexToSubIds;
         }
 
-        public int removeFromSubIdList(int slotIndex, int subId) {
+        public synchronized int removeFromSubIdList(int slotIndex, int subId) {
             ArrayList<Integer> subIdList = mSlotIndexToSubIds.get(slotIndex);
             if (subIdList == null) {
                 return NO_ENTRY_FOR_SLOT_INDEX;
             } else {
                 if (subIdList.contains(subId)) {
+                    subIdList = new ArrayList<>(subIdList);
                     subIdList.remove(new Integer(subId));
                     if (subIdList.isEmpty()) {
                         mSlotIndexToSubIds.remove(slotIndex);
+                    } else {
+                        mSlotIndexToSubIds.put(slotIndex, subIdList);
                     }
-                    invalidateDefaultSubIdCaches();
-                    invalidateSlotIndexCaches();
+                    onChanged();
                     return SUB_ID_FOUND;
                 } else {
                     return SUB_ID_NOT_IN_SLOT;
@@ -246,27 +315,31 @@ public class SubscriptionController extends ISub.Stub {
             }
         }
 
-        public void addToSubIdList(int slotIndex, Integer value) {
+        public synchronized void addToSubIdList(int slotIndex, Integer value) {
             ArrayList<Integer> subIdList = mSlotIndexToSubIds.get(slotIndex);
             if (subIdList == null) {
                 subIdList = new ArrayList<Integer>();
-                subIdList.add(value);
-                mSlotIndexToSubIds.put(slotIndex, subIdList);
             } else {
-                subIdList.add(value);
+                subIdList = new ArrayList<Integer>(subIdList);
             }
-            invalidateDefaultSubIdCaches();
-            invalidateSlotIndexCaches();
+            subIdList.add(value);
+            mSlotIndexToSubIds.put(slotIndex, subIdList);
+            onChanged();
         }
 
-        public void clearSubIdList(int slotIndex) {
+        public synchronized void clearSubIdList(int slotIndex) {
             ArrayList<Integer> subIdList = mSlotIndexToSubIds.get(slotIndex);
             if (subIdList != null) {
-                subIdList.clear();
-                invalidateDefaultSubIdCaches();
-                invalidateSlotIndexCaches();
+                mSlotIndexToSubIds.put(slotIndex, new ArrayList<Integer>());
+                onChanged();
             }
         }
+
+        private void onChanged() {
+            mSnapshot = new SlotIndexToSubIdsSnapshot(mSlotIndexToSubIds);
+            invalidateDefaultSubIdCaches();
+            invalidateSlotIndexCaches();
+        }
     }
 
     public static class WatchedInt {
@@ -322,6 +395,58 @@ public class SubscriptionController extends ISub.Stub {
             SubscriptionManager.NR_ADVANCED_CALLING_ENABLED
     ));
 
+    // The properties that can be read through getSubscriptionProperty.
+    private static final Set<String> READABLE_PROPERTIES = new HashSet<>(Arrays.asList(
+            SubscriptionManager.CB_EXTREME_THREAT_ALERT,
+            SubscriptionManager.CB_SEVERE_THREAT_ALERT,
+            SubscriptionManager.CB_AMBER_ALERT,
+            SubscriptionManager.CB_EMERGENCY_ALERT,
+            SubscriptionManager.CB_ALERT_SOUND_DURATION,
+            SubscriptionManager.CB_ALERT_REMINDER_INTERVAL,
+            SubscriptionManager.CB_ALERT_VIBRATE,
+            SubscriptionManager.CB_ALERT_SPEECH,
+            SubscriptionManager.CB_ETWS_TEST_ALERT,
+            SubscriptionManager.CB_CHANNEL_50_ALERT,
+            SubscriptionManager.CB_CMAS_TEST_ALERT,
+            SubscriptionManager.CB_OPT_OUT_DIALOG,
+            SubscriptionManager.ENHANCED_4G_MODE_ENABLED,
+            SubscriptionManager.VT_IMS_ENABLED,
+            SubscriptionManager.WFC_IMS_ENABLED,
+            SubscriptionManager.WFC_IMS_MODE,
+            SubscriptionManager.WFC_IMS_ROAMING_MODE,
+            SubscriptionManager.WFC_IMS_ROAMING_ENABLED,
+            SubscriptionManager.IMS_RCS_UCE_ENABLED,
+            SubscriptionManager.CROSS_SIM_CALLING_ENABLED,
+            SubscriptionManager.IS_OPPORTUNISTIC,
+            SubscriptionManager.GROUP_UUID,
+            SubscriptionManager.DATA_ENABLED_OVERRIDE_RULES,
+            SubscriptionManager.ALLOWED_NETWORK_TYPES,
+            SubscriptionManager.D2D_STATUS_SHARING,
+            SubscriptionManager.VOIMS_OPT_IN_STATUS,
+            SubscriptionManager.D2D_STATUS_SHARING_SELECTED_CONTACTS,
+            SubscriptionManager.NR_ADVANCED_CALLING_ENABLED,
+            SimInfo.COLUMN_PHONE_NUMBER_SOURCE_CARRIER,
+            SimInfo.COLUMN_PHONE_NUMBER_SOURCE_IMS,
+            SubscriptionManager.USAGE_SETTING
+    ));
+
+    /**
+     * The readable properties by subId, read from the siminfo table on first use. A subId
+     * without a row maps to an empty map. Cleared whenever the table may have changed, by
+     * {@link #invalidateSubscriptionPropertyCache()}.
+     *
+     * <p>Every write to the siminfo table made by this class, or by {@link SubscriptionInfoUpdater}
+     * through it, invalidates the cache before returning, either directly or through
+     * {@link #refreshCachedActiveSubscriptionInfoList()}, so callers read their own writes.
+     * Writes made by other processes, e.g. a settings restore, are only noticed by the content
+     * observer registered in the constructor. It is notified asynchronously, so until it runs
+     * reads may return the values from before such a write.
+     */
+    private final SparseArray<ArrayMap<String, String>> mSubscriptionPropertyCache =
+            new SparseArray<>();
+    /** Bumped on each invalidation, so that a row read across one is not cached. */
+    private int mSubscriptionPropertyCacheGeneration;
+
     public static SubscriptionController init(Context c) {
         synchronized (SubscriptionController.class) {
             if (sInstance == null) {
@@ -381,6 +506,17 @@ public class SubscriptionController extends ISub.Stub {
         invalidateActiveDataSubIdCaches();
         invalidateSlotIndexCaches();
 
+        // The siminfo table is also written outside of this class, e.g. on restore. Writes made
+        // here invalidate the property cache synchronously, the observer only covers the others.
+        mContext.getContentResolver().registerContentObserver(
+                SubscriptionManager.CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateSubscriptionPropertyCache();
+                    }
+                });
+
         mContext.getContentResolver().registerContentObserver(
                 SubscriptionManager.SIM_INFO_SUW_RESTORE_CONTENT_URI, false,
                 new ContentObserver(new Handler()) {
@@ -437,6 +573,7 @@ public class SubscriptionController extends ISub.Stub {
         ContentValues value = new ContentValues(1);
         value.put(SubscriptionManager.SIM_SLOT_INDEX, SubscriptionManager.INVALID_SIM_SLOT_INDEX);
         mContext.getContentResolver().update(SubscriptionManager.CONTENT_URI, value, null, null);
+        invalidateSubscriptionPropertyCache();
     }
 
     /**
@@ -529,10 +666,7 @@ public class SubscriptionController extends ISub.Stub {
 
         MultiSimSettingController.getInstance().notifySubscriptionInfoChanged();
         TelephonyMetrics metrics = TelephonyMetrics.getInstance();
-        List<SubscriptionInfo> subInfos;
-        synchronized (mSubInfoListLock) {
-            subInfos = new ArrayList<>(mCacheActiveSubInfoList);
-        }
+        List<SubscriptionInfo> subInfos = new ArrayList<>(mCacheActiveSubInfoList);
 
         if (mOpptSubInfoListChangedDirtyBit.getAndSet(false)) {
             notifyOpportunisticSubscriptionInfoChanged();
@@ -793,14 +927,14 @@ public class SubscriptionController extends ISub.Stub {
      * @hide
      */
     public SubscriptionInfo getSubscriptionInfo(int subId) {
-        synchronized (mSubInfoListLock) {
-            // check cache for active subscriptions first, before querying db
-            for (SubscriptionInfo subInfo : mCacheActiveSubInfoList) {
-                if (subInfo.getSubscriptionId() == subId) {
-                    return subInfo;
-                }
+        // check cache for active subscriptions first, before querying db
+        for (SubscriptionInfo subInfo : mCacheActiveSubInfoList) {
+            if (subInfo.getSubscriptionId() == subId) {
+                return subInfo;
             }
+        }
 
+        synchronized (mSubInfoListLock) {
             // check cache for opportunistic subscriptions too, before querying db
             for (SubscriptionInfo subInfo : mCacheOpportunisticSubInfoList) {
                 if (subInfo.getSubscriptionId() == subId) {
@@ -987,7 +1121,7 @@ public class SubscriptionController extends ISub.Stub {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public List<SubscriptionInfo> getActiveSubscriptionInfoList(String callingPackage) {
         return getSubscriptionInfoListFromCacheHelper(callingPackage, null,
-                makeCacheListCopyWithLock(mCacheActiveSubInfoList));
+                new ArrayList<>(mCacheActiveSubInfoList));
     }
 
     /**
@@ -1001,7 +1135,7 @@ public class SubscriptionController extends ISub.Stub {
     public List<SubscriptionInfo> getActiveSubscriptionInfoList(String callingPackage,
             String callingFeatureId) {
         return getSubscriptionInfoListFromCacheHelper(callingPackage, callingFeatureId,
-                makeCacheListCopyWithLock(mCacheActiveSubInfoList));
+                new ArrayList<>(mCacheActiveSubInfoList));
     }
 
     /**
@@ -1012,6 +1146,9 @@ public class SubscriptionController extends ISub.Stub {
     public void refreshCachedActiveSubscriptionInfoList() {
         boolean opptSubListChanged;
 
+        // Every write to the siminfo table is followed by a refresh.
+        invalidateSubscriptionPropertyCache();
+
         List<SubscriptionInfo> activeSubscriptionInfoList = getSubInfo(
                 SubscriptionManager.SIM_SLOT_INDEX + ">=0 OR "
                 + SubscriptionManager.SUBSCRIPTION_TYPE + "="
@@ -1026,12 +1163,11 @@ public class SubscriptionController extends ISub.Stub {
                     logdl("Active subscription info list changed. " + activeSubscriptionInfoList);
                 }
 
-                mCacheActiveSubInfoList.clear();
                 activeSubscriptionInfoList.sort(SUBSCRIPTION_INFO_COMPARATOR);
-                mCacheActiveSubInfoList.addAll(activeSubscriptionInfoList);
+                mCacheActiveSubInfoList = Collections.unmodifiableList(activeSubscriptionInfoList);
             } else {
                 logd("activeSubscriptionInfoList is null.");
-                mCacheActiveSubInfoList.clear();
+                mCacheActiveSubInfoList = Collections.emptyList();
             }
             if (DBG_CACHE) {
                 if (!mCacheActiveSubInfoList.isEmpty()) {
@@ -1454,6 +1590,7 @@ public class SubscriptionController extends ISub.Stub {
                         if (value.size() > 0) {
                             resolver.update(SubscriptionManager.getUriForSubscriptionId(subId),
                                     value, null, null);
+                            invalidateSubscriptionPropertyCache();
                         }
 
                         if (DBG) logdl("[addSubInfoRecord] Record already exists");
@@ -1616,9 +1753,7 @@ public class SubscriptionController extends ISub.Stub {
      */
     private boolean isActiveSubscriptionId(int subId) {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) return false;
-        ArrayList<Integer> subIdList = getActiveSubIdArrayList();
-        if (subIdList.isEmpty()) return false;
-        return subIdList.contains(new Integer(subId));
+        return isInSlotIndexToSubIds(subId);
     }
 
     /*
@@ -1639,14 +1774,12 @@ public class SubscriptionController extends ISub.Stub {
         // validate the given info - does it exist in the active subscription list
         int subId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         int slotIndex = SubscriptionManager.INVALID_SIM_SLOT_INDEX;
-        synchronized (mSubInfoListLock) {
-            for (SubscriptionInfo info : mCacheActiveSubInfoList) {
-                if ((info.getSubscriptionType() == subscriptionType)
-                        && info.getIccId().equalsIgnoreCase(uniqueId)) {
-                    subId = info.getSubscriptionId();
-                    slotIndex = info.getSimSlotIndex();
-                    break;
-                }
+        for (SubscriptionInfo info : mCacheActiveSubInfoList) {
+            if ((info.getSubscriptionType() == subscriptionType)
+                    && info.getIccId().equalsIgnoreCase(uniqueId)) {
+                subId = info.getSubscriptionId();
+                slotIndex = info.getSimSlotIndex();
+                break;
             }
         }
         if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
@@ -2339,18 +2472,22 @@ public class SubscriptionController extends ISub.Stub {
     private int updateDatabase(ContentValues value, int subId, boolean updateEntireGroup) {
         List<SubscriptionInfo> infoList = getSubscriptionsInGroup(getGroupUuid(subId),
                 mContext.getOpPackageName(), mContext.getAttributionTag());
-        if (!updateEntireGroup || infoList == null || infoList.size() == 0) {
-            // Only update specified subscriptions.
-            return mContext.getContentResolver().update(
-                    SubscriptionManager.getUriForSubscriptionId(subId), value, null, null);
-        } else {
-            // Update all subscriptions in the same group.
-            int[] subIdList = new int[infoList.size()];
-            for (int i = 0; i < infoList.size(); i++) {
-                subIdList[i] = infoList.get(i).getSubscriptionId();
+        try {
+            if (!updateEntireGroup || infoList == null || infoList.size() == 0) {
+                // Only update specified subscriptions.
+                return mContext.getContentResolver().update(
+                        SubscriptionManager.getUriForSubscriptionId(subId), value, null, null);
+            } else {
+                // Update all subscriptions in the same group.
+                int[] subIdList = new int[infoList.size()];
+                for (int i = 0; i < infoList.size(); i++) {
+                    subIdList[i] = infoList.get(i).getSubscriptionId();
+                }
+                return mContext.getContentResolver().update(SubscriptionManager.CONTENT_URI,
+                        value, getSelectionForSubIdList(subIdList), null);
             }
-            return mContext.getContentResolver().update(SubscriptionManager.CONTENT_URI,
-                    value, getSelectionForSubIdList(subIdList), null);
+        } finally {
+            invalidateSubscriptionPropertyCache();
         }
     }
 
@@ -2607,25 +2744,19 @@ public class SubscriptionController extends ISub.Stub {
             return SubscriptionManager.INVALID_SIM_SLOT_INDEX;
         }
 
-        int size = sSlotIndexToSubIds.size();
-
-        if (size == 0) {
+        SlotIndexToSubIdsSnapshot snapshot = sSlotIndexToSubIds.getSnapshot();
+        if (snapshot.mSize == 0) {
             if (DBG) logd("[getSlotIndex]- size == 0, return SIM_NOT_INSERTED instead");
             return SubscriptionManager.SIM_NOT_INSERTED;
         }
 
-        for (Entry<Integer, ArrayList<Integer>> entry : sSlotIndexToSubIds.entrySet()) {
-            int sim = entry.getKey();
-            ArrayList<Integer> subs = entry.getValue();
-
-            if (subs != null && subs.contains(subId)) {
-                if (VDBG) logv("[getSlotIndex]- return = " + sim);
-                return sim;
-            }
+        int sim = snapshot.getSlotIndex(subId, SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+        if (sim == SubscriptionManager.INVALID_SIM_SLOT_INDEX) {
+            if (DBG) logd("[getSlotIndex]- return fail");
+        } else {
+            if (VDBG) logv("[getSlotIndex]- return = " + sim);
         }
-
-        if (DBG) logd("[getSlotIndex]- return fail");
-        return SubscriptionManager.INVALID_SIM_SLOT_INDEX;
+        return sim;
     }
 
     /**
@@ -2657,8 +2788,8 @@ public class SubscriptionController extends ISub.Stub {
         }
 
         // Check if we've got any SubscriptionInfo records using slotIndexToSubId as a surrogate.
-        int size = sSlotIndexToSubIds.size();
-        if (size == 0) {
+        SlotIndexToSubIdsSnapshot snapshot = sSlotIndexToSubIds.getSnapshot();
+        if (snapshot.mSize == 0) {
             if (VDBG) {
                 logd("[getSubId]- sSlotIndexToSubIds.size == 0, return null slotIndex="
                         + slotIndex);
@@ -2666,15 +2797,11 @@ public class SubscriptionController extends ISub.Stub {
             return null;
         }
 
-        // Convert ArrayList to array
-        ArrayList<Integer> subIds = sSlotIndexToSubIds.getCopy(slotIndex);
-        if (subIds != null && subIds.size() > 0) {
-            int[] subIdArr = new int[subIds.size()];
-            for (int i = 0; i < subIds.size(); i++) {
-                subIdArr[i] = subIds.get(i);
-            }
+        int[] subIdArr = snapshot.mSubIdsBySlotIndex.get(slotIndex);
+        if (subIdArr != null) {
             if (VDBG) logd("[getSubId]- subIdArr=" + subIdArr);
-            return subIdArr;
+            // The snapshot is shared, hand out a copy.
+            return subIdArr.clone();
         } else {
             if (DBG) logd("[getSubId]- numSubIds == 0, return null slotIndex=" + slotIndex);
             return null;
@@ -2700,22 +2827,18 @@ public class SubscriptionController extends ISub.Stub {
             return SubscriptionManager.INVALID_PHONE_INDEX;
         }
 
-        int size = sSlotIndexToSubIds.size();
-        if (size == 0) {
+        SlotIndexToSubIdsSnapshot snapshot = sSlotIndexToSubIds.getSnapshot();
+        if (snapshot.mSize == 0) {
             phoneId = mDefaultPhoneId;
             if (VDBG) logdl("[getPhoneId]- no sims, returning default phoneId=" + phoneId);
             return phoneId;
         }
 
         // FIXME: Assumes phoneId == slotIndex
-        for (Entry<Integer, ArrayList<Integer>> entry: sSlotIndexToSubIds.entrySet()) {
-            int sim = entry.getKey();
-            ArrayList<Integer> subs = entry.getValue();
-
-            if (subs != null && subs.contains(subId)) {
-                if (VDBG) logdl("[getPhoneId]- found subId=" + subId + " phoneId=" + sim);
-                return sim;
-            }
+        if (snapshot.contains(subId)) {
+            int sim = snapshot.getSlotIndex(subId, SubscriptionManager.INVALID_SIM_SLOT_INDEX);
+            if (VDBG) logdl("[getPhoneId]- found subId=" + subId + " phoneId=" + sim);
+            return sim;
         }
 
         phoneId = mDefaultPhoneId;
@@ -3086,22 +3209,21 @@ public class SubscriptionController extends ISub.Stub {
         }
     }
 
-    private synchronized ArrayList<Integer> getActiveSubIdArrayList() {
-        // Clone the sub id list so it can't change out from under us while iterating
-        List<Entry<Integer, ArrayList<Integer>>> simInfoList =
-                new ArrayList<>(sSlotIndexToSubIds.entrySet());
-
-        // Put the set of sub ids in slot index order
-        Collections.sort(simInfoList, (x, y) -> x.getKey().compareTo(y.getKey()));
-
-        // Collect the sub ids for each slot in turn
-        ArrayList<Integer> allSubs = new ArrayList<>();
-        for (Entry<Integer, ArrayList<Integer>> slot : simInfoList) {
-            allSubs.addAll(slot.getValue());
+    private ArrayList<Integer> getActiveSubIdArrayList() {
+        // The snapshot keeps the sub ids in slot index order
+        int[] activeSubIds = sSlotIndexToSubIds.getSnapshot().mActiveSubIds;
+        ArrayList<Integer> allSubs = new ArrayList<>(activeSubIds.length);
+        for (int subId : activeSubIds) {
+            allSubs.add(subId);
         }
         return allSubs;
     }
 
+    /** @return whether the sub id is in a slot, without allocating. */
+    private static boolean isInSlotIndexToSubIds(int subId) {
+        return sSlotIndexToSubIds.getSnapshot().contains(subId);
+    }
+
     private boolean isSubscriptionVisible(int subId) {
         synchronized (mSubInfoListLock) {
             for (SubscriptionInfo info : mCacheOpportunisticSubInfoList) {
@@ -3125,6 +3247,10 @@ public class SubscriptionController extends ISub.Stub {
 
         final long token = Binder.clearCallingIdentity();
         try {
+            if (!visibleOnly) {
+                // The snapshot array is shared, hand out a copy.
+                return sSlotIndexToSubIds.getSnapshot().mActiveSubIds.clone();
+            }
             List<Integer> allSubs = getActiveSubIdArrayList();
 
             if (visibleOnly) {
@@ -3168,7 +3294,7 @@ public class SubscriptionController extends ISub.Stub {
     @Deprecated // This should be moved into isActiveSubId(int, String)
     public boolean isActiveSubId(int subId) {
         boolean retVal = SubscriptionManager.isValidSubscriptionId(subId)
-                && getActiveSubIdArrayList().contains(subId);
+                && isInSlotIndexToSubIds(subId);
 
         if (VDBG) logdl("[isActiveSubId]- " + retVal);
         return retVal;
@@ -3328,61 +3454,64 @@ public class SubscriptionController extends ISub.Stub {
      * @return Value associated with subId and propKey column in database
      */
     public String getSubscriptionProperty(int subId, String propKey) {
-        String resultValue = null;
+        if (!READABLE_PROPERTIES.contains(propKey)) {
+            if (DBG) logd("Invalid column name");
+            return null;
+        }
+        String resultValue = getSubscriptionProperties(subId).get(propKey);
+        if (DBG) logd("getSubscriptionProperty Query value = " + resultValue);
+        return resultValue;
+    }
+
+    /**
+     * @return The readable properties of the subscription, from the cache or else from the
+     * siminfo table. Empty if the subscription has no row.
+     */
+    private ArrayMap<String, String> getSubscriptionProperties(int subId) {
+        int generation;
+        synchronized (mSubscriptionPropertyCache) {
+            ArrayMap<String, String> properties = mSubscriptionPropertyCache.get(subId);
+            if (properties != null) return properties;
+            generation = mSubscriptionPropertyCacheGeneration;
+        }
+
+        ArrayMap<String, String> properties = new ArrayMap<>(READABLE_PROPERTIES.size());
         try (Cursor cursor = mContext.getContentResolver().query(SubscriptionManager.CONTENT_URI,
-                new String[]{propKey},
-                SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID + "=?",
+                null, SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID + "=?",
                 new String[]{subId + ""}, null)) {
-            if (cursor != null) {
-                if (cursor.moveToFirst()) {
-                    switch (propKey) {
-                        case SubscriptionManager.CB_EXTREME_THREAT_ALERT:
-                        case SubscriptionManager.CB_SEVERE_THREAT_ALERT:
-                        case SubscriptionManager.CB_AMBER_ALERT:
-                        case SubscriptionManager.CB_EMERGENCY_ALERT:
-                        case SubscriptionManager.CB_ALERT_SOUND_DURATION:
-                        case SubscriptionManager.CB_ALERT_REMINDER_INTERVAL:
-                        case SubscriptionManager.CB_ALERT_VIBRATE:
-                        case SubscriptionManager.CB_ALERT_SPEECH:
-                        case SubscriptionManager.CB_ETWS_TEST_ALERT:
-                        case SubscriptionManager.CB_CHANNEL_50_ALERT:
-                        case SubscriptionManager.CB_CMAS_TEST_ALERT:
-                        case SubscriptionManager.CB_OPT_OUT_DIALOG:
-                        case SubscriptionManager.ENHANCED_4G_MODE_ENABLED:
-                        case SubscriptionManager.VT_IMS_ENABLED:
-                        case SubscriptionManager.WFC_IMS_ENABLED:
-                        case SubscriptionManager.WFC_IMS_MODE:
-                        case SubscriptionManager.WFC_IMS_ROAMING_MODE:
-                        case SubscriptionManager.WFC_IMS_ROAMING_ENABLED:
-                        case SubscriptionManager.IMS_RCS_UCE_ENABLED:
-                        case SubscriptionManager.CROSS_SIM_CALLING_ENABLED:
-                        case SubscriptionManager.IS_OPPORTUNISTIC:
-                        case SubscriptionManager.GROUP_UUID:
-                        case SubscriptionManager.DATA_ENABLED_OVERRIDE_RULES:
-                        case SubscriptionManager.ALLOWED_NETWORK_TYPES:
-                        case SubscriptionManager.D2D_STATUS_SHARING:
-                        case SubscriptionManager.VOIMS_OPT_IN_STATUS:
-                        case SubscriptionManager.D2D_STATUS_SHARING_SELECTED_CONTACTS:
-                        case SubscriptionManager.NR_ADVANCED_CALLING_ENABLED:
-                        case SimInfo.COLUMN_PHONE_NUMBER_SOURCE_CARRIER:
-                        case SimInfo.COLUMN_PHONE_NUMBER_SOURCE_IMS:
-                        case SubscriptionManager.USAGE_SETTING:
-                            resultValue = cursor.getString(0);
-                            break;
-                        default:
-                            if(DBG) logd("Invalid column name");
-                            break;
+            if (cursor == null) {
+                if (DBG) logd("Query failed");
+                // Do not cache the failure.
+                return properties;
+            }
+            if (cursor.moveToFirst()) {
+                for (String propKey : READABLE_PROPERTIES) {
+                    int columnIndex = cursor.getColumnIndex(propKey);
+                    if (columnIndex != -1) {
+                        properties.put(propKey, cursor.getString(columnIndex));
                     }
-                } else {
-                    if(DBG) logd("Valid row not present in db");
                 }
             } else {
-                if(DBG) logd("Query failed");
+                if (DBG) logd("Valid row not present in db");
             }
         }
 
-        if (DBG) logd("getSubscriptionProperty Query value = " + resultValue);
-        return resultValue;
+        synchronized (mSubscriptionPropertyCache) {
+            if (generation == mSubscriptionPropertyCacheGeneration) {
+                mSubscriptionPropertyCache.put(subId, properties);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Drop the cached subscription properties, for the siminfo table may have changed.
+     */
+    private void invalidateSubscriptionPropertyCache() {
+        synchronized (mSubscriptionPropertyCache) {
+            mSubscriptionPropertyCache.clear();
+            mSubscriptionPropertyCacheGeneration++;
+        }
     }
 
     private void printStackTrace(String msg) {
@@ -3758,8 +3887,10 @@ public class SubscriptionController extends ISub.Stub {
         // permission checks on all members.
         ContentValues value = new ContentValues(1);
         value.put(SubscriptionManager.GROUP_OWNER, groupOwner);
-        return mContext.getContentResolver().update(SubscriptionManager.CONTENT_URI,
+        int result = mContext.getContentResolver().update(SubscriptionManager.CONTENT_URI,
                 value, SubscriptionManager.GROUP_UUID + "=\"" + groupUuid + "\"", null);
+        invalidateSubscriptionPropertyCache();
+        return result;
     }
 
     @Override
@@ -4541,11 +4672,9 @@ public class SubscriptionController extends ISub.Stub {
     private boolean shouldDisableSubGroup(ParcelUuid groupUuid) {
         if (groupUuid == null) return false;
 
-        synchronized (mSubInfoListLock) {
-            for (SubscriptionInfo activeInfo : mCacheActiveSubInfoList) {
-                if (!activeInfo.isOpportunistic() && groupUuid.equals(activeInfo.getGroupUuid())) {
-                    return false;
-                }
+        for (SubscriptionInfo activeInfo : mCacheActiveSubInfoList) {
+            if (!activeInfo.isOpportunistic() && groupUuid.equals(activeInfo.getGroupUuid())) {
+                return false;
             }
         }
 
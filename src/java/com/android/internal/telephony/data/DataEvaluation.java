@@ -25,9 +25,7 @@ import android.telephony.data.DataProfile;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * The class to describe a data evaluation for whether allowing or disallowing certain operations
@@ -35,11 +33,36 @@ import java.util.Set;
  * cellular.
  */
 public class DataEvaluation {
+    /** All the disallowed reasons, indexed by ordinal. */
+    private static final DataDisallowedReason[] DATA_DISALLOWED_REASONS =
+            DataDisallowedReason.values();
+
+    /** The bits of the hard disallowed reasons. */
+    private static final long HARD_DATA_DISALLOWED_REASONS;
+
+    static {
+        // The reasons are kept one bit each in a long.
+        if (DATA_DISALLOWED_REASONS.length > Long.SIZE) {
+            throw new IllegalStateException("More than " + Long.SIZE
+                    + " data disallowed reasons: " + DATA_DISALLOWED_REASONS.length);
+        }
+        long hardReasons = 0;
+        for (DataDisallowedReason reason : DATA_DISALLOWED_REASONS) {
+            if (reason.isHardReason()) {
+                hardReasons |= reason.getBit();
+            }
+        }
+        HARD_DATA_DISALLOWED_REASONS = hardReasons;
+    }
+
     /** The reason for this evaluation */
     private final @NonNull DataEvaluationReason mDataEvaluationReason;
 
-    /** Data disallowed reasons. There could be multiple reasons for not allowing data. */
-    private final @NonNull Set<DataDisallowedReason> mDataDisallowedReasons = new HashSet<>();
+    /**
+     * Data disallowed reasons, one bit per {@link DataDisallowedReason#getBit()}. There could be
+     * multiple reasons for not allowing data.
+     */
+    private long mDataDisallowedReasons = 0;
 
     /** Data allowed reason. It is intended to only have one allowed reason. */
     private @NonNull DataAllowedReason mDataAllowedReason = DataAllowedReason.NONE;
@@ -66,7 +89,7 @@ public class DataEvaluation {
      */
     public void addDataDisallowedReason(DataDisallowedReason reason) {
         mDataAllowedReason = DataAllowedReason.NONE;
-        mDataDisallowedReasons.add(reason);
+        mDataDisallowedReasons |= reason.getBit();
         mEvaluatedTime = System.currentTimeMillis();
     }
 
@@ -76,7 +99,7 @@ public class DataEvaluation {
      * @param reason Disallowed reason.
      */
     public void removeDataDisallowedReason(DataDisallowedReason reason) {
-        mDataDisallowedReasons.remove(reason);
+        mDataDisallowedReasons &= ~reason.getBit();
         mEvaluatedTime = System.currentTimeMillis();
     }
 
@@ -87,7 +110,7 @@ public class DataEvaluation {
      * @param reason Allowed reason.
      */
     public void addDataAllowedReason(DataAllowedReason reason) {
-        mDataDisallowedReasons.clear();
+        mDataDisallowedReasons = 0;
 
         // Only higher priority allowed reason can overwrite the old one. See
         // DataAllowedReason for the oder.
@@ -98,10 +121,15 @@ public class DataEvaluation {
     }
 
     /**
-     * @return List of data disallowed reasons.
+     * @return List of data disallowed reasons, in the order they are declared.
      */
     public @NonNull List<DataDisallowedReason> getDataDisallowedReasons() {
-        return new ArrayList<>(mDataDisallowedReasons);
+        List<DataDisallowedReason> reasons =
+                new ArrayList<>(Long.bitCount(mDataDisallowedReasons));
+        for (long bits = mDataDisallowedReasons; bits != 0; bits &= bits - 1) {
+            reasons.add(DATA_DISALLOWED_REASONS[Long.numberOfTrailingZeros(bits)]);
+        }
+        return reasons;
     }
 
     /**
@@ -131,7 +159,7 @@ public class DataEvaluation {
      * @return {@code true} if the evaluation contains disallowed reasons.
      */
     public boolean containsDisallowedReasons() {
-        return mDataDisallowedReasons.size() != 0;
+        return mDataDisallowedReasons != 0;
     }
 
     /**
@@ -141,7 +169,7 @@ public class DataEvaluation {
      * @return {@code true} if the provided reason matches one of the disallowed reasons.
      */
     public boolean contains(DataDisallowedReason reason) {
-        return mDataDisallowedReasons.contains(reason);
+        return (mDataDisallowedReasons & reason.getBit()) != 0;
     }
 
     /**
@@ -151,7 +179,7 @@ public class DataEvaluation {
      * @return {@code true} if the given reason is the only one that prevents data connection
      */
     public boolean containsOnly(DataDisallowedReason reason) {
-        return mDataDisallowedReasons.size() == 1 && contains(reason);
+        return mDataDisallowedReasons == reason.getBit();
     }
 
     /**
@@ -162,7 +190,7 @@ public class DataEvaluation {
      */
     public boolean containsAny(DataDisallowedReason... reasons) {
         for (DataDisallowedReason reason : reasons) {
-            if (mDataDisallowedReasons.contains(reason)) return true;
+            if (contains(reason)) return true;
         }
         return false;
     }
@@ -181,12 +209,7 @@ public class DataEvaluation {
      * @return {@code true} if the disallowed reasons contains hard reasons.
      */
     public boolean containsHardDisallowedReasons() {
-        for (DataDisallowedReason reason : mDataDisallowedReasons) {
-            if (reason.isHardReason()) {
-                return true;
-            }
-        }
-        return false;
+        return (mDataDisallowedReasons & HARD_DATA_DISALLOWED_REASONS) != 0;
     }
 
     /**
@@ -330,6 +353,14 @@ public class DataEvaluation {
             return mIsHardReason;
         }
 
+        /**
+         * @return The bit of the reason in a set of disallowed reasons. There can be at most
+         * {@link Long#SIZE} reasons, which is checked when {@link DataEvaluation} is loaded.
+         */
+        long getBit() {
+            return 1L << ordinal();
+        }
+
         /**
          * Constructor
          *
@@ -385,10 +416,11 @@ public class DataEvaluation {
     public String toString() {
         StringBuilder evaluationStr = new StringBuilder();
         evaluationStr.append("Data evaluation: evaluation reason:" + mDataEvaluationReason + ", ");
-        if (mDataDisallowedReasons.size() > 0) {
+        if (mDataDisallowedReasons != 0) {
             evaluationStr.append("Data disallowed reasons:");
-            for (DataDisallowedReason reason : mDataDisallowedReasons) {
-                evaluationStr.append(" ").append(reason);
+            for (long bits = mDataDisallowedReasons; bits != 0; bits &= bits - 1) {
+                evaluationStr.append(" ")
+                        .append(DATA_DISALLOWED_REASONS[Long.numberOfTrailingZeros(bits)]);
             }
         } else {
             evaluationStr.append("Data allowed reason:");
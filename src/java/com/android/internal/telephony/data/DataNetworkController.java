@@ -204,6 +204,24 @@ public class DataNetworkController extends Handler {
     /** The maximum number of previously connected data networks for debugging purposes. */
     private static final int MAX_HISTORICAL_CONNECTED_DATA_NETWORKS = 10;
 
+    /**
+     * Hard disallowed reasons that only depend on the device state and the transport. A network
+     * request held back by one of them is not allowed until that state changes, so evaluating it
+     * again can be skipped while the reason still applies.
+     */
+    private static final DataDisallowedReason[] DEVICE_STATE_DISALLOWED_REASONS = {
+            DataDisallowedReason.NOT_IN_SERVICE,
+            DataDisallowedReason.SIM_NOT_READY,
+            DataDisallowedReason.DATA_CONFIG_NOT_READY,
+            DataDisallowedReason.CONCURRENT_VOICE_DATA_NOT_ALLOWED,
+            DataDisallowedReason.DATA_RESTRICTED_BY_NETWORK,
+            DataDisallowedReason.PENDING_TEAR_DOWN_ALL,
+            DataDisallowedReason.RADIO_POWER_OFF,
+            DataDisallowedReason.RADIO_DISABLED_BY_CARRIER,
+            DataDisallowedReason.DATA_SERVICE_NOT_READY,
+            DataDisallowedReason.CDMA_EMERGENCY_CALLBACK_MODE,
+    };
+
     /**
      * The delay in milliseconds to re-evaluate preferred transport when handover failed and
      * fallback to source.
@@ -355,6 +373,16 @@ public class DataNetworkController extends Handler {
      */
     private boolean mPendingTearDownAllNetworks = false;
 
+    /** Number of evaluations done, by {@link DataEvaluationReason} ordinal. */
+    private final @NonNull int[] mEvaluationCount = new int[DataEvaluationReason.values().length];
+
+    /**
+     * Number of unsatisfied network request evaluations skipped because the request was still
+     * held back by the device state, by {@link DataEvaluationReason} ordinal.
+     */
+    private final @NonNull int[] mSkippedEvaluationCount =
+            new int[DataEvaluationReason.values().length];
+
     /**
      * The capabilities of the latest released IMS request. To detect back to back release/request
      * IMS network.
@@ -1427,6 +1455,7 @@ public class DataNetworkController extends Handler {
      */
     private @NonNull DataEvaluation evaluateNetworkRequest(
             @NonNull TelephonyNetworkRequest networkRequest, DataEvaluationReason reason) {
+        countEvaluation(mEvaluationCount, reason);
         DataEvaluation evaluation = new DataEvaluation(reason);
         int transport = mAccessNetworksManager.getPreferredTransportByNetworkCapability(
                 networkRequest.getApnTypeNetworkCapability());
@@ -1441,25 +1470,11 @@ public class DataNetworkController extends Handler {
             return evaluation;
         }
 
-        if (!serviceStateAllowsPSAttach(mServiceState, transport)) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.NOT_IN_SERVICE);
-        }
-
-        // Check SIM state
-        if (mSimState != TelephonyManager.SIM_STATE_LOADED) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.SIM_NOT_READY);
-        }
-
-        // Check if carrier specific config is loaded or not.
-        if (!mDataConfigManager.isConfigCarrierSpecific()) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.DATA_CONFIG_NOT_READY);
-        }
-
-        // Check CS call state and see if concurrent voice/data is allowed.
-        if (mPhone.getCallTracker().getState() != PhoneConstants.State.IDLE
-                && !mPhone.getServiceStateTracker().isConcurrentVoiceAndDataAllowed()) {
-            evaluation.addDataDisallowedReason(
-                    DataDisallowedReason.CONCURRENT_VOICE_DATA_NOT_ALLOWED);
+        // Check the service state, SIM state, radio power, etc...
+        for (DataDisallowedReason disallowedReason : DEVICE_STATE_DISALLOWED_REASONS) {
+            if (isDeviceStateDisallowedReasonActive(disallowedReason, transport)) {
+                evaluation.addDataDisallowedReason(disallowedReason);
+            }
         }
 
         // Check VoPS support
@@ -1487,40 +1502,6 @@ public class DataNetworkController extends Handler {
             evaluation.addDataDisallowedReason(DataDisallowedReason.ROAMING_DISABLED);
         }
 
-        // Check if data is restricted by the cellular network.
-        if (mPsRestricted && transport == AccessNetworkConstants.TRANSPORT_TYPE_WWAN) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.DATA_RESTRICTED_BY_NETWORK);
-        }
-
-        // Check if there are pending tear down all networks request.
-        if (mPendingTearDownAllNetworks) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.PENDING_TEAR_DOWN_ALL);
-        }
-
-        // Check if the request is preferred on cellular and radio is/will be turned off.
-        // We are using getDesiredPowerState() instead of isRadioOn() because we also don't want
-        // to setup data network when radio power is about to be turned off.
-        if (transport == AccessNetworkConstants.TRANSPORT_TYPE_WWAN
-                && (!mPhone.getServiceStateTracker().getDesiredPowerState()
-                || mPhone.mCi.getRadioState() != TelephonyManager.RADIO_POWER_ON)) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.RADIO_POWER_OFF);
-        }
-
-        // Check if radio is/will be turned off by carrier.
-        if (!mPhone.getServiceStateTracker().getPowerStateFromCarrier()) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.RADIO_DISABLED_BY_CARRIER);
-        }
-
-        // Check if the underlying data service is bound.
-        if (!mDataServiceBound.get(transport)) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.DATA_SERVICE_NOT_READY);
-        }
-
-        // Check if device is in CDMA ECBM
-        if (mPhone.isInCdmaEcm()) {
-            evaluation.addDataDisallowedReason(DataDisallowedReason.CDMA_EMERGENCY_CALLBACK_MODE);
-        }
-
         // Check if only one data network is allowed.
         if (isOnlySingleDataNetworkAllowed(transport)
                 && !hasCapabilityExemptsFromSinglePdnRule(networkRequest.getCapabilities())) {
@@ -1612,6 +1593,75 @@ public class DataNetworkController extends Handler {
         return evaluation;
     }
 
+    /**
+     * Check if a disallowed reason that only depends on the device state applies.
+     *
+     * @param reason One of {@link #DEVICE_STATE_DISALLOWED_REASONS}.
+     * @param transport The transport the network request is preferred on.
+     * @return {@code true} if the reason applies.
+     */
+    private boolean isDeviceStateDisallowedReasonActive(@NonNull DataDisallowedReason reason,
+            @TransportType int transport) {
+        switch (reason) {
+            case NOT_IN_SERVICE:
+                return !serviceStateAllowsPSAttach(mServiceState, transport);
+            case SIM_NOT_READY:
+                return mSimState != TelephonyManager.SIM_STATE_LOADED;
+            case DATA_CONFIG_NOT_READY:
+                // Check if carrier specific config is loaded or not.
+                return !mDataConfigManager.isConfigCarrierSpecific();
+            case CONCURRENT_VOICE_DATA_NOT_ALLOWED:
+                // Check CS call state and see if concurrent voice/data is allowed.
+                return mPhone.getCallTracker().getState() != PhoneConstants.State.IDLE
+                        && !mPhone.getServiceStateTracker().isConcurrentVoiceAndDataAllowed();
+            case DATA_RESTRICTED_BY_NETWORK:
+                // Check if data is restricted by the cellular network.
+                return mPsRestricted && transport == AccessNetworkConstants.TRANSPORT_TYPE_WWAN;
+            case PENDING_TEAR_DOWN_ALL:
+                // Check if there are pending tear down all networks request.
+                return mPendingTearDownAllNetworks;
+            case RADIO_POWER_OFF:
+                // Check if the request is preferred on cellular and radio is/will be turned off.
+                // We are using getDesiredPowerState() instead of isRadioOn() because we also don't
+                // want to setup data network when radio power is about to be turned off.
+                return transport == AccessNetworkConstants.TRANSPORT_TYPE_WWAN
+                        && (!mPhone.getServiceStateTracker().getDesiredPowerState()
+                        || mPhone.mCi.getRadioState() != TelephonyManager.RADIO_POWER_ON);
+            case RADIO_DISABLED_BY_CARRIER:
+                // Check if radio is/will be turned off by carrier.
+                return !mPhone.getServiceStateTracker().getPowerStateFromCarrier();
+            case DATA_SERVICE_NOT_READY:
+                // Check if the underlying data service is bound.
+                return !mDataServiceBound.get(transport);
+            case CDMA_EMERGENCY_CALLBACK_MODE:
+                return mPhone.isInCdmaEcm();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check if the last evaluation of a network request was held back by a device state that
+     * still applies. Evaluating the request again would not allow it, so it can be skipped.
+     *
+     * @param networkRequest The network request.
+     * @return {@code true} if the request is still not allowed.
+     */
+    private boolean isStillDisallowedByDeviceState(
+            @NonNull TelephonyNetworkRequest networkRequest) {
+        DataEvaluation evaluation = networkRequest.getEvaluation();
+        if (evaluation == null || !evaluation.containsHardDisallowedReasons()) return false;
+        int transport = mAccessNetworksManager.getPreferredTransportByNetworkCapability(
+                networkRequest.getApnTypeNetworkCapability());
+        for (DataDisallowedReason reason : DEVICE_STATE_DISALLOWED_REASONS) {
+            if (evaluation.contains(reason)
+                    && isDeviceStateDisallowedReasonActive(reason, transport)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * @return The grouped unsatisfied network requests. The network requests that have the same
      * network capabilities is grouped into one {@link NetworkRequestList}.
@@ -1642,11 +1692,20 @@ public class DataNetworkController extends Handler {
                 .collect(Collectors.joining(", ")) + " due to " + reason);
 
         // Second, see if any existing network can satisfy those network requests.
+        int skipped = 0;
         for (NetworkRequestList requestList : networkRequestLists) {
             if (findCompatibleDataNetworkAndAttach(requestList)) {
                 continue;
             }
 
+            // Only the inputs that held the request back last time can allow it now. If one of
+            // them still applies, the whole evaluation would not allow it either.
+            if (isStillDisallowedByDeviceState(requestList.get(0))) {
+                countEvaluation(mSkippedEvaluationCount, reason);
+                skipped++;
+                continue;
+            }
+
             // If no data network can satisfy the requests, then start the evaluation process. Since
             // all the requests in the list have the same capabilities, we can only evaluate one
             // of them.
@@ -1659,6 +1718,20 @@ public class DataNetworkController extends Handler {
                 }
             }
         }
+        if (skipped > 0) {
+            log("Skipped evaluating " + skipped + " groups still not allowed by device state.");
+        }
+    }
+
+    /**
+     * Count an evaluation for debugging purposes.
+     *
+     * @param counts The counts by {@link DataEvaluationReason} ordinal.
+     * @param reason The reason for evaluation.
+     */
+    private static void countEvaluation(@NonNull int[] counts,
+            @Nullable DataEvaluationReason reason) {
+        if (reason != null) counts[reason.ordinal()]++;
     }
 
     /**
@@ -1673,6 +1746,7 @@ public class DataNetworkController extends Handler {
      */
     private @NonNull DataEvaluation evaluateDataNetwork(@NonNull DataNetwork dataNetwork,
             @NonNull DataEvaluationReason reason) {
+        countEvaluation(mEvaluationCount, reason);
         DataEvaluation evaluation = new DataEvaluation(reason);
         // Bypass all checks for emergency data network.
         if (dataNetwork.getNetworkCapabilities().hasCapability(
@@ -3686,6 +3760,16 @@ public class DataNetworkController extends Handler {
                 .map(TelephonyManager::getNetworkTypeName).collect(Collectors.joining(",")));
         pw.println("mImsThrottleCounter=" + mImsThrottleCounter);
         pw.println("mNetworkUnwantedCounter=" + mNetworkUnwantedCounter);
+        pw.println("Evaluations by reason (done/skipped):");
+        pw.increaseIndent();
+        for (DataEvaluationReason reason : DataEvaluationReason.values()) {
+            if (mEvaluationCount[reason.ordinal()] + mSkippedEvaluationCount[reason.ordinal()]
+                    > 0) {
+                pw.println(reason + ": " + mEvaluationCount[reason.ordinal()] + "/"
+                        + mSkippedEvaluationCount[reason.ordinal()]);
+            }
+        }
+        pw.decreaseIndent();
         pw.println("Local logs:");
         pw.increaseIndent();
         mLocalLog.dump(fd, pw, args);
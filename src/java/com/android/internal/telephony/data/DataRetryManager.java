@@ -38,6 +38,7 @@ import android.telephony.data.DataProfile;
 import android.telephony.data.ThrottleStatus;
 import android.telephony.data.ThrottleStatus.RetryType;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.IndentingPrintWriter;
 import android.util.LocalLog;
@@ -54,8 +55,12 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
@@ -164,15 +169,30 @@ public class DataRetryManager extends Handler {
     /** Data handover retry rule list. */
     private @NonNull List<DataHandoverRetryRule> mDataHandoverRetryRuleList = new ArrayList<>();
 
-    /** Data retry entries. */
-    private final @NonNull List<DataRetryEntry> mDataRetryEntries = new ArrayList<>();
+    /** Data retry entries, oldest first. */
+    private final @NonNull ArrayDeque<DataRetryEntry> mDataRetryEntries = new ArrayDeque<>();
 
     /**
-     * Data throttling entries. Note this only stores throttling requested by networks. We intended
-     * not to store frameworks-initiated throttling because they are not explicit/strong throttling
-     * requests.
+     * Data setup retry entries that might not have been retried yet, by transport. Entries that
+     * changed state are dropped when the transport is looked up.
      */
-    private final @NonNull List<DataThrottlingEntry> mDataThrottlingEntries = new ArrayList<>();
+    private final @NonNull SparseArray<List<DataSetupRetryEntry>> mPendingSetupRetryEntries =
+            new SparseArray<>();
+
+    /**
+     * Data handover retry entries that might not have been retried yet, by data network. Entries
+     * that changed state are dropped when the data network is looked up.
+     */
+    private final @NonNull ArrayMap<DataNetwork, List<DataHandoverRetryEntry>>
+            mPendingHandoverRetryEntries = new ArrayMap<>();
+
+    /**
+     * Data throttling entries by data profile, oldest first. Note this only stores throttling
+     * requested by networks. We intended not to store frameworks-initiated throttling because they
+     * are not explicit/strong throttling requests.
+     */
+    private final @NonNull LinkedHashMap<DataProfile, DataThrottlingEntry> mDataThrottlingEntries =
+            new LinkedHashMap<>();
 
     /**
      * Represent a single data setup/handover throttling reported by networks.
@@ -1016,7 +1036,8 @@ public class DataRetryManager extends Handler {
             case EVENT_DATA_HANDOVER_RETRY:
                 DataHandoverRetryEntry dataHandoverRetryEntry = (DataHandoverRetryEntry) msg.obj;
                 Objects.requireNonNull(dataHandoverRetryEntry);
-                if (mDataRetryEntries.contains(dataHandoverRetryEntry)) {
+                if (getPendingHandoverRetryEntries(dataHandoverRetryEntry.dataNetwork)
+                        .contains(dataHandoverRetryEntry)) {
                     mDataRetryManagerCallbacks.forEach(callback -> callback.invokeFromExecutor(
                             () -> callback.onDataNetworkHandoverRetry(dataHandoverRetryEntry)));
                 } else {
@@ -1294,11 +1315,15 @@ public class DataRetryManager extends Handler {
         logl("Remove all retry and throttling entries, reason=" + resetReasonToString(reason));
         removeMessages(EVENT_DATA_SETUP_RETRY);
         removeMessages(EVENT_DATA_HANDOVER_RETRY);
-        mDataRetryEntries.stream()
-                .filter(entry -> entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED)
-                .forEach(entry -> entry.setState(DataRetryEntry.RETRY_STATE_CANCELLED));
+        for (DataRetryEntry entry : mDataRetryEntries) {
+            if (entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED) {
+                entry.setState(DataRetryEntry.RETRY_STATE_CANCELLED);
+            }
+        }
+        mPendingSetupRetryEntries.clear();
+        mPendingHandoverRetryEntries.clear();
 
-        for (DataThrottlingEntry dataThrottlingEntry : mDataThrottlingEntries) {
+        for (DataThrottlingEntry dataThrottlingEntry : mDataThrottlingEntries.values()) {
             DataProfile dataProfile = dataThrottlingEntry.dataProfile;
             String apn = dataProfile.getApnSetting() != null
                     ? dataProfile.getApnSetting().getApnName() : null;
@@ -1319,9 +1344,11 @@ public class DataRetryManager extends Handler {
     private int getRetryFailedCount(@NonNull DataNetwork dataNetwork,
             @NonNull DataHandoverRetryRule dataRetryRule) {
         int count = 0;
-        for (int i = mDataRetryEntries.size() - 1; i >= 0; i--) {
-            if (mDataRetryEntries.get(i) instanceof DataHandoverRetryEntry) {
-                DataHandoverRetryEntry entry = (DataHandoverRetryEntry) mDataRetryEntries.get(i);
+        Iterator<DataRetryEntry> iterator = mDataRetryEntries.descendingIterator();
+        while (iterator.hasNext()) {
+            DataRetryEntry dataRetryEntry = iterator.next();
+            if (dataRetryEntry instanceof DataHandoverRetryEntry) {
+                DataHandoverRetryEntry entry = (DataHandoverRetryEntry) dataRetryEntry;
                 if (entry.dataNetwork == dataNetwork
                         && dataRetryRule.equals(entry.appliedDataRetryRule)) {
                     if (entry.getState() == DataRetryEntry.RETRY_STATE_SUCCEEDED
@@ -1346,9 +1373,11 @@ public class DataRetryManager extends Handler {
     private int getRetryFailedCount(@NetCapability int networkCapability,
             @NonNull DataSetupRetryRule dataRetryRule) {
         int count = 0;
-        for (int i = mDataRetryEntries.size() - 1; i >= 0; i--) {
-            if (mDataRetryEntries.get(i) instanceof DataSetupRetryEntry) {
-                DataSetupRetryEntry entry = (DataSetupRetryEntry) mDataRetryEntries.get(i);
+        Iterator<DataRetryEntry> iterator = mDataRetryEntries.descendingIterator();
+        while (iterator.hasNext()) {
+            DataRetryEntry dataRetryEntry = iterator.next();
+            if (dataRetryEntry instanceof DataSetupRetryEntry) {
+                DataSetupRetryEntry entry = (DataSetupRetryEntry) dataRetryEntry;
                 // count towards the last succeeded data setup.
                 if (entry.setupRetryType == DataSetupRetryEntry.RETRY_TYPE_NETWORK_REQUESTS) {
                     if (entry.networkRequestList.isEmpty()) {
@@ -1383,10 +1412,23 @@ public class DataRetryManager extends Handler {
      */
     private void schedule(@NonNull DataRetryEntry dataRetryEntry) {
         logl("Scheduled data retry: " + dataRetryEntry);
-        mDataRetryEntries.add(dataRetryEntry);
+        mDataRetryEntries.addLast(dataRetryEntry);
+        if (dataRetryEntry instanceof DataSetupRetryEntry) {
+            DataSetupRetryEntry entry = (DataSetupRetryEntry) dataRetryEntry;
+            List<DataSetupRetryEntry> entries = mPendingSetupRetryEntries.get(entry.transport);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                mPendingSetupRetryEntries.put(entry.transport, entries);
+            }
+            entries.add(entry);
+        } else if (dataRetryEntry instanceof DataHandoverRetryEntry) {
+            DataHandoverRetryEntry entry = (DataHandoverRetryEntry) dataRetryEntry;
+            mPendingHandoverRetryEntries.computeIfAbsent(entry.dataNetwork,
+                    dataNetwork -> new ArrayList<>()).add(entry);
+        }
         if (mDataRetryEntries.size() >= MAXIMUM_HISTORICAL_ENTRIES) {
             // Discard the oldest retry entry.
-            mDataRetryEntries.remove(0);
+            removePendingRetryEntry(mDataRetryEntries.removeFirst());
         }
 
         // Using delayed message instead of alarm manager to schedule data retry is intentional.
@@ -1398,6 +1440,57 @@ public class DataRetryManager extends Handler {
                 dataRetryEntry.retryDelayMillis);
     }
 
+    /**
+     * Drop a retry entry from the pending retry entries.
+     *
+     * @param dataRetryEntry The data retry entry.
+     */
+    private void removePendingRetryEntry(@NonNull DataRetryEntry dataRetryEntry) {
+        if (dataRetryEntry instanceof DataSetupRetryEntry) {
+            DataSetupRetryEntry entry = (DataSetupRetryEntry) dataRetryEntry;
+            List<DataSetupRetryEntry> entries = mPendingSetupRetryEntries.get(entry.transport);
+            if (entries != null) {
+                entries.remove(entry);
+            }
+        } else if (dataRetryEntry instanceof DataHandoverRetryEntry) {
+            DataHandoverRetryEntry entry = (DataHandoverRetryEntry) dataRetryEntry;
+            List<DataHandoverRetryEntry> entries = mPendingHandoverRetryEntries.get(
+                    entry.dataNetwork);
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                mPendingHandoverRetryEntries.remove(entry.dataNetwork);
+            }
+        }
+    }
+
+    /**
+     * @param transport The transport.
+     * @return The data setup retry entries on the transport that have not been retried yet,
+     * oldest first.
+     */
+    private @NonNull List<DataSetupRetryEntry> getPendingSetupRetryEntries(
+            @TransportType int transport) {
+        List<DataSetupRetryEntry> entries = mPendingSetupRetryEntries.get(transport);
+        if (entries == null) return Collections.emptyList();
+        entries.removeIf(entry -> entry.getState() != DataRetryEntry.RETRY_STATE_NOT_RETRIED);
+        return entries;
+    }
+
+    /**
+     * @param dataNetwork The data network.
+     * @return The data handover retry entries of the data network that have not been retried yet,
+     * oldest first.
+     */
+    private @NonNull List<DataHandoverRetryEntry> getPendingHandoverRetryEntries(
+            @NonNull DataNetwork dataNetwork) {
+        List<DataHandoverRetryEntry> entries = mPendingHandoverRetryEntries.get(dataNetwork);
+        if (entries == null) return Collections.emptyList();
+        entries.removeIf(entry -> entry.getState() != DataRetryEntry.RETRY_STATE_NOT_RETRIED);
+        if (entries.isEmpty()) {
+            mPendingHandoverRetryEntries.remove(dataNetwork);
+        }
+        return entries;
+    }
+
     /**
      * Add the latest throttling request and report it to the clients.
      *
@@ -1419,16 +1512,17 @@ public class DataRetryManager extends Handler {
         DataThrottlingEntry entry = new DataThrottlingEntry(dataProfile, networkRequestList,
                 dataNetwork, transport, retryType, expirationTime);
         if (mDataThrottlingEntries.size() >= MAXIMUM_HISTORICAL_ENTRIES) {
-            mDataThrottlingEntries.remove(0);
+            Iterator<DataProfile> oldest = mDataThrottlingEntries.keySet().iterator();
+            oldest.next();
+            oldest.remove();
         }
 
-        // Remove previous entry that contains the same data profile.
-        mDataThrottlingEntries.removeIf(
-                throttlingEntry -> dataProfile.equals(throttlingEntry.dataProfile));
-
+        // Remove previous entry that contains the same data profile, so the new entry becomes the
+        // newest one.
+        mDataThrottlingEntries.remove(dataProfile);
 
         logl("Add throttling entry " + entry);
-        mDataThrottlingEntries.add(entry);
+        mDataThrottlingEntries.put(dataProfile, entry);
 
         // For backwards compatibility, we use RETRY_TYPE_NONE if network suggests never retry.
         final int dataRetryType = expirationTime == Long.MAX_VALUE
@@ -1478,7 +1572,7 @@ public class DataRetryManager extends Handler {
             // in DataProfileInfo.aidl), so we need to get the equivalent data profile from data
             // profile manager.
             log("onDataProfileUnthrottled: dataProfile=" + dataProfile);
-            Stream<DataThrottlingEntry> stream = mDataThrottlingEntries.stream();
+            Stream<DataThrottlingEntry> stream = mDataThrottlingEntries.values().stream();
             stream = stream.filter(entry -> entry.expirationTimeMillis > now);
             if (dataProfile.getApnSetting() != null) {
                 dataProfile.getApnSetting().setPermanentFailed(false);
@@ -1493,7 +1587,7 @@ public class DataRetryManager extends Handler {
             dataUnthrottlingEntries = stream.collect(Collectors.toList());
         } else if (apn != null) {
             // For HIDL 1.6 or below
-            dataUnthrottlingEntries = mDataThrottlingEntries.stream()
+            dataUnthrottlingEntries = mDataThrottlingEntries.values().stream()
                     .filter(entry -> entry.expirationTimeMillis > now
                             && entry.dataProfile.getApnSetting() != null
                             && apn.equals(entry.dataProfile.getApnSetting().getApnName())
@@ -1558,7 +1652,7 @@ public class DataRetryManager extends Handler {
             }
         }
         if (remove) {
-            mDataThrottlingEntries.removeAll(dataUnthrottlingEntries);
+            mDataThrottlingEntries.values().removeAll(dataUnthrottlingEntries);
         }
     }
 
@@ -1572,27 +1666,23 @@ public class DataRetryManager extends Handler {
      */
     public boolean isSimilarNetworkRequestRetryScheduled(
             @NonNull TelephonyNetworkRequest networkRequest, @TransportType int transport) {
-        for (int i = mDataRetryEntries.size() - 1; i >= 0; i--) {
-            if (mDataRetryEntries.get(i) instanceof DataSetupRetryEntry) {
-                DataSetupRetryEntry entry = (DataSetupRetryEntry) mDataRetryEntries.get(i);
-                if (entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED
-                        && entry.setupRetryType
-                        == DataSetupRetryEntry.RETRY_TYPE_NETWORK_REQUESTS) {
-                    if (entry.networkRequestList.isEmpty()) {
-                        String msg = "Invalid data retry entry detected";
-                        logl(msg);
-                        loge("mDataRetryEntries=" + mDataRetryEntries);
-                        AnomalyReporter.reportAnomaly(
-                                UUID.fromString("781af571-f55d-476d-b510-7a5381f633dc"),
-                                msg,
-                                mPhone.getCarrierId());
-                        continue;
-                    }
-                    if (entry.networkRequestList.get(0).getApnTypeNetworkCapability()
-                            == networkRequest.getApnTypeNetworkCapability()
-                            && entry.transport == transport) {
-                        return true;
-                    }
+        List<DataSetupRetryEntry> entries = getPendingSetupRetryEntries(transport);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            DataSetupRetryEntry entry = entries.get(i);
+            if (entry.setupRetryType == DataSetupRetryEntry.RETRY_TYPE_NETWORK_REQUESTS) {
+                if (entry.networkRequestList.isEmpty()) {
+                    String msg = "Invalid data retry entry detected";
+                    logl(msg);
+                    loge("mDataRetryEntries=" + mDataRetryEntries);
+                    AnomalyReporter.reportAnomaly(
+                            UUID.fromString("781af571-f55d-476d-b510-7a5381f633dc"),
+                            msg,
+                            mPhone.getCarrierId());
+                    continue;
+                }
+                if (entry.networkRequestList.get(0).getApnTypeNetworkCapability()
+                        == networkRequest.getApnTypeNetworkCapability()) {
+                    return true;
                 }
             }
         }
@@ -1608,12 +1698,10 @@ public class DataRetryManager extends Handler {
      */
     public boolean isAnySetupRetryScheduled(@NonNull DataProfile dataProfile,
             @TransportType int transport) {
-        return mDataRetryEntries.stream()
-                .filter(DataSetupRetryEntry.class::isInstance)
-                .map(DataSetupRetryEntry.class::cast)
-                .anyMatch(entry -> entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED
-                        && dataProfile.equals(entry.dataProfile)
-                        && entry.transport == transport);
+        for (DataSetupRetryEntry entry : getPendingSetupRetryEntries(transport)) {
+            if (dataProfile.equals(entry.dataProfile)) return true;
+        }
+        return false;
     }
 
     /**
@@ -1625,10 +1713,9 @@ public class DataRetryManager extends Handler {
      */
     public boolean isDataProfileThrottled(@NonNull DataProfile dataProfile,
             @TransportType int transport) {
-        long now = SystemClock.elapsedRealtime();
-        return mDataThrottlingEntries.stream().anyMatch(
-                entry -> entry.dataProfile.equals(dataProfile) && entry.expirationTimeMillis > now
-                        && entry.transport == transport);
+        DataThrottlingEntry entry = mDataThrottlingEntries.get(dataProfile);
+        return entry != null && entry.expirationTimeMillis > SystemClock.elapsedRealtime()
+                && entry.transport == transport;
     }
 
     /**
@@ -1646,9 +1733,15 @@ public class DataRetryManager extends Handler {
      * @param dataNetwork The data network that was originally scheduled for handover retry.
      */
     private void onCancelPendingHandoverRetry(@NonNull DataNetwork dataNetwork) {
+        List<DataHandoverRetryEntry> entries = mPendingHandoverRetryEntries.remove(dataNetwork);
+        if (entries != null) {
+            for (DataHandoverRetryEntry entry : entries) {
+                removeMessages(EVENT_DATA_HANDOVER_RETRY, entry);
+            }
+        }
         mDataRetryEntries.removeIf(entry -> entry instanceof DataHandoverRetryEntry
                 && ((DataHandoverRetryEntry) entry).dataNetwork == dataNetwork);
-        mDataThrottlingEntries.removeIf(entry -> entry.dataNetwork == dataNetwork);
+        mDataThrottlingEntries.values().removeIf(entry -> entry.dataNetwork == dataNetwork);
     }
 
     /**
@@ -1658,11 +1751,7 @@ public class DataRetryManager extends Handler {
      * @return {@code true} if there is retry scheduled for this network capability.
      */
     public boolean isAnyHandoverRetryScheduled(@NonNull DataNetwork dataNetwork) {
-        return mDataRetryEntries.stream()
-                .filter(DataHandoverRetryEntry.class::isInstance)
-                .map(DataHandoverRetryEntry.class::cast)
-                .anyMatch(entry -> entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED
-                        && entry.dataNetwork == dataNetwork);
+        return !getPendingHandoverRetryEntries(dataNetwork).isEmpty();
     }
 
     /**
@@ -1770,7 +1859,7 @@ public class DataRetryManager extends Handler {
 
         pw.println("Throttling entries:");
         pw.increaseIndent();
-        for (DataThrottlingEntry entry : mDataThrottlingEntries) {
+        for (DataThrottlingEntry entry : mDataThrottlingEntries.values()) {
             pw.println(entry);
         }
         pw.decreaseIndent();
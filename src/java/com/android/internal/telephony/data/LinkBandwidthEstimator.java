@@ -66,6 +66,8 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -96,6 +98,8 @@ public class LinkBandwidthEstimator extends Handler {
     static final int MSG_ACTIVE_PHONE_CHANGED = 8;
     @VisibleForTesting
     static final int MSG_DATA_REG_STATE_OR_RAT_CHANGED = 9;
+    @VisibleForTesting
+    static final int MSG_PERSIST_NETWORK_BANDWIDTH = 10;
 
     // TODO: move the following parameters to xml file
     private static final int TRAFFIC_STATS_POLL_INTERVAL_MS = 1_000;
@@ -125,6 +129,17 @@ public class LinkBandwidthEstimator extends Handler {
     private static final int DEFAULT_LINK_BAND_WIDTH_KBPS = 14;
     // If Tx or Rx link bandwidth change is above the following value, send the BW update
     private static final int BW_UPDATE_THRESHOLD_PERCENT = 15;
+    // Bandwidth stats are kept in memory and written back to storage at most once per interval
+    @VisibleForTesting
+    static final int PERSIST_NETWORK_BANDWIDTH_DELAY_MS = 60_000;
+    // Once a link/level has this many samples, its history is halved so that recent samples keep
+    // moving the long term avg
+    @VisibleForTesting
+    static final int MAX_BW_STATS_COUNT = 500;
+    // Upper bound on the networks kept in memory. The least recently used one is written back and
+    // dropped first.
+    @VisibleForTesting
+    static final int MAX_NETWORK_COUNT = 64;
 
     // To be used in link bandwidth estimation, each TrafficStats poll sample needs to be above
     // a predefine threshold.
@@ -344,6 +359,9 @@ public class LinkBandwidthEstimator extends Handler {
             case MSG_DATA_REG_STATE_OR_RAT_CHANGED:
                 handleDrsOrRatChanged((AsyncResult) msg.obj);
                 break;
+            case MSG_PERSIST_NETWORK_BANDWIDTH:
+                persistNetworkBandwidth();
+                break;
             default:
                 Rlog.e(TAG, "invalid message " + msg.what);
                 break;
@@ -468,6 +486,9 @@ public class LinkBandwidthEstimator extends Handler {
             handleTrafficStatsPoll();
         } else {
             logd("Traffic status poll stopped");
+            // No more samples until the poll restarts, so write back what was collected.
+            removeMessages(MSG_PERSIST_NETWORK_BANDWIDTH);
+            persistNetworkBandwidth();
             if (mDataActivity != TelephonyManager.DATA_ACTIVITY_NONE) {
                 mDataActivity = TelephonyManager.DATA_ACTIVITY_NONE;
                 mLinkBandwidthEstimatorCallbacks.forEach(callback -> callback.invokeFromExecutor(
@@ -1145,10 +1166,11 @@ public class LinkBandwidthEstimator extends Handler {
 
     @VisibleForTesting
     static final int UNKNOWN_TAC = -1;
-    // Map with NetworkKey as the key and NetworkBandwidth as the value.
+    // Map with NetworkKey as the key and NetworkBandwidth as the value, least recently used first.
     // NetworkKey is specified by the PLMN, data RAT and TAC of network.
     // NetworkBandwidth represents the bandwidth related stats of each network.
-    private final Map<NetworkKey, NetworkBandwidth> mNetworkMap = new ArrayMap<>();
+    private final LinkedHashMap<NetworkKey, NetworkBandwidth> mNetworkMap =
+            new LinkedHashMap<>(16, 0.75f, true);
     private static class NetworkKey {
         private final String mPlmn;
         private final String mDataRat;
@@ -1194,6 +1216,30 @@ public class LinkBandwidthEstimator extends Handler {
         return lookupNetwork(plmn, UNKNOWN_TAC, dataRat);
     }
 
+    /** Write back the bandwidth stats changed since the last write */
+    private void persistNetworkBandwidth() {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
+                mPhone.getContext()).edit();
+        boolean changed = mPlaceholderNetwork.persist(editor);
+        for (NetworkBandwidth network : mNetworkMap.values()) {
+            changed |= network.persist(editor);
+        }
+        if (changed) {
+            editor.apply();
+        }
+    }
+
+    private void evictLeastRecentNetwork() {
+        Iterator<NetworkBandwidth> eldest = mNetworkMap.values().iterator();
+        NetworkBandwidth network = eldest.next();
+        eldest.remove();
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(
+                mPhone.getContext()).edit();
+        if (network.persist(editor)) {
+            editor.apply();
+        }
+    }
+
     /** Look up NetworkBandwidth and create a new one if it doesn't exist */
     @VisibleForTesting
     @NonNull
@@ -1207,6 +1253,9 @@ public class LinkBandwidthEstimator extends Handler {
         if (ans == null) {
             ans = new NetworkBandwidth(key.toString());
             mNetworkMap.put(key, ans);
+            if (mNetworkMap.size() > MAX_NETWORK_COUNT) {
+                evictLeastRecentNetwork();
+            }
         }
         return ans;
     }
@@ -1215,22 +1264,69 @@ public class LinkBandwidthEstimator extends Handler {
     @VisibleForTesting
     public class NetworkBandwidth {
         private final String mKey;
+        // Accumulated value and count by link and signal level, read from storage on first use
+        private long[][] mValues;
+        private int[][] mCounts;
+        // Stats not written back yet, one bit per link and signal level
+        private int mDirtyBits;
+
         NetworkBandwidth(String key) {
             mKey = key;
         }
 
         /** Update link bandwidth stats */
         public void update(long value, int link, int level) {
+            loadIfNeeded();
+            if (mCounts[link][level] >= MAX_BW_STATS_COUNT) {
+                mValues[link][level] /= 2;
+                mCounts[link][level] /= 2;
+            }
+            mValues[link][level] += value;
+            mCounts[link][level]++;
+            mDirtyBits |= 1 << (link * NUM_SIGNAL_LEVEL + level);
+            if (!hasMessages(MSG_PERSIST_NETWORK_BANDWIDTH)) {
+                sendEmptyMessageDelayed(MSG_PERSIST_NETWORK_BANDWIDTH,
+                        PERSIST_NETWORK_BANDWIDTH_DELAY_MS);
+            }
+        }
+
+        private void loadIfNeeded() {
+            if (mValues != null) {
+                return;
+            }
             SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
                     mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            String countKey = getCountKey(link, level);
-            SharedPreferences.Editor editor = sp.edit();
-            long currValue = sp.getLong(valueKey, 0);
-            int currCount = sp.getInt(countKey, 0);
-            editor.putLong(valueKey, currValue + value);
-            editor.putInt(countKey, currCount + 1);
-            editor.apply();
+            long[][] values = new long[NUM_LINK_DIRECTION][NUM_SIGNAL_LEVEL];
+            int[][] counts = new int[NUM_LINK_DIRECTION][NUM_SIGNAL_LEVEL];
+            for (int link = 0; link < NUM_LINK_DIRECTION; link++) {
+                for (int level = 0; level < NUM_SIGNAL_LEVEL; level++) {
+                    values[link][level] = sp.getLong(getValueKey(link, level), 0);
+                    counts[link][level] = sp.getInt(getCountKey(link, level), 0);
+                }
+            }
+            mCounts = counts;
+            mValues = values;
+        }
+
+        /**
+         * Add the stats changed since the last write to the editor.
+         *
+         * @return {@code true} if anything was added.
+         */
+        private boolean persist(SharedPreferences.Editor editor) {
+            if (mDirtyBits == 0) {
+                return false;
+            }
+            for (int link = 0; link < NUM_LINK_DIRECTION; link++) {
+                for (int level = 0; level < NUM_SIGNAL_LEVEL; level++) {
+                    if ((mDirtyBits & (1 << (link * NUM_SIGNAL_LEVEL + level))) != 0) {
+                        editor.putLong(getValueKey(link, level), mValues[link][level]);
+                        editor.putInt(getCountKey(link, level), mCounts[link][level]);
+                    }
+                }
+            }
+            mDirtyBits = 0;
+            return true;
         }
 
         private String getValueKey(int link, int level) {
@@ -1251,18 +1347,14 @@ public class LinkBandwidthEstimator extends Handler {
 
         /** Get the accumulated bandwidth value */
         public long getValue(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            return sp.getLong(valueKey, 0);
+            loadIfNeeded();
+            return mValues[link][level];
         }
 
         /** Get the accumulated bandwidth count */
         public int getCount(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String countKey = getCountKey(link, level);
-            return sp.getInt(countKey, 0);
+            loadIfNeeded();
+            return mCounts[link][level];
         }
 
         @Override
@@ -1296,7 +1388,7 @@ public class LinkBandwidthEstimator extends Handler {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, " ");
         pw.increaseIndent();
         pw.println("current PLMN " + mPlmn + " TAC " + mTac + " RAT " + getDataRatName(mDataRat));
-        pw.println("all networks visited since device boot");
+        pw.println("recently visited networks");
         for (NetworkBandwidth network : mNetworkMap.values()) {
             pw.println(network.toString());
         }
@@ -381,6 +381,13 @@ public class TelephonyNetworkRequest {
         mEvaluation = evaluation;
     }
 
+    /**
+     * @return The last data evaluation result. {@code null} if the request was never evaluated.
+     */
+    public @Nullable DataEvaluation getEvaluation() {
+        return mEvaluation;
+    }
+
     /**
      * Get the capability differentiator from the network request. Some capabilities
      * (e.g. {@link NetworkCapabilities#NET_CAPABILITY_ENTERPRISE} could support more than one
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.phone.ecc.nano.ProtobufEccData;
+import com.android.phone.ecc.nano.ProtobufEccData.EccInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A decoded emergency number database, indexed by country.
+ *
+ * The database file is a gzipped {@link ProtobufEccData.AllInfo} covering every country.
+ * {@link EmergencyNumberTracker} decodes each database file once and keeps it, so that a country
+ * change only looks up the entries of the new country instead of decoding the whole file again.
+ */
+class EmergencyNumberDatabase {
+    private static final EccInfo[] NO_ECC_INFO = new EccInfo[0];
+
+    private final int mRevision;
+
+    /** Entries by upper case country ISO. */
+    private final HashMap<String, EccInfo[]> mEccInfoByCountry = new HashMap<>();
+
+    private EmergencyNumberDatabase(@NonNull ProtobufEccData.AllInfo allEccMessages) {
+        mRevision = allEccMessages.revision;
+        for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
+            // A country listed more than once gets the entries of all its listings, in order.
+            EccInfo[] eccInfo = mEccInfoByCountry.get(countryEccInfo.isoCode);
+            if (eccInfo == null) {
+                eccInfo = countryEccInfo.eccs;
+            } else {
+                eccInfo = Arrays.copyOf(eccInfo, eccInfo.length + countryEccInfo.eccs.length);
+                System.arraycopy(countryEccInfo.eccs, 0, eccInfo,
+                        eccInfo.length - countryEccInfo.eccs.length, countryEccInfo.eccs.length);
+            }
+            mEccInfoByCountry.put(countryEccInfo.isoCode, eccInfo);
+        }
+    }
+
+    /**
+     * Decode a database.
+     *
+     * @param inputStream The gzipped database. It is closed once read.
+     * @return The decoded database.
+     * @throws IOException If the stream cannot be read or is not a valid database.
+     */
+    @NonNull
+    static EmergencyNumberDatabase decode(@NonNull InputStream inputStream) throws IOException {
+        // try-with-resource. Closing the gzip stream closes the given one too.
+        try (GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
+            return new EmergencyNumberDatabase(ProtobufEccData.AllInfo.parseFrom(
+                    readInputStreamToByteArray(gzipInputStream)));
+        }
+    }
+
+    /**
+     * Util function to convert inputStream to byte array before parsing proto data.
+     */
+    private static byte[] readInputStreamToByteArray(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int nRead;
+        int size = 16 * 1024; // Read 16k chunks
+        byte[] data = new byte[size];
+        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+        buffer.flush();
+        return buffer.toByteArray();
+    }
+
+    /** @return The revision of the database. */
+    int getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * @param countryIso The country ISO, in any case.
+     * @return The entries of the country, empty if the database has none.
+     */
+    @NonNull
+    EccInfo[] getEccInfo(@Nullable String countryIso) {
+        if (countryIso == null) return NO_ECC_INFO;
+        EccInfo[] eccInfo = mEccInfoByCountry.get(countryIso.toUpperCase(Locale.ROOT));
+        return eccInfo == null ? NO_ECC_INFO : eccInfo;
+    }
+
+    /** @return The number of countries in the database. */
+    int getCountryCount() {
+        return mEccInfoByCountry.size();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.emergency.EmergencyNumber;
+import android.telephony.emergency.EmergencyNumber.EmergencyCallRouting;
+import android.telephony.emergency.EmergencyNumber.EmergencyServiceCategories;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Immutable index of an emergency number list, answering the lookups of
+ * {@link EmergencyNumberTracker} without scanning the list.
+ *
+ * Every lookup returns what the first matching entry of the list would, so an index built from a
+ * list gives the same answers as scanning that list in order. The tracker builds a new index
+ * whenever its merged list changes and publishes it in a single write.
+ */
+class EmergencyNumberIndex {
+    /** Number of trie edges per node: the digits, '*' and '#'. */
+    private static final int DIAL_CHARS = 12;
+
+    /** A copy of the indexed list. */
+    private final List<EmergencyNumber> mEmergencyNumbers;
+
+    /** The first entry of the list for each number. */
+    private final HashMap<String, EmergencyNumber> mFirstByNumber = new HashMap<>();
+
+    /** Service categories by number, from the first entry with a trusted source. */
+    private final HashMap<String, Integer> mCategoriesByNumber = new HashMap<>();
+
+    /** Call routing by number, from the first entry from the database. */
+    private final HashMap<String, Integer> mRoutingByNumber = new HashMap<>();
+
+    /** Trie of the numbers made only of dial characters, for prefix matching. */
+    private final Node mRoot = new Node();
+
+    /** Numbers with characters outside the trie, matched by scanning. */
+    private final List<String> mOtherNumbers = new ArrayList<>();
+
+    private static class Node {
+        final Node[] mNext = new Node[DIAL_CHARS];
+        boolean mIsNumber;
+    }
+
+    /** An index of an empty list. */
+    static final EmergencyNumberIndex EMPTY = new EmergencyNumberIndex(new ArrayList<>());
+
+    EmergencyNumberIndex(@NonNull List<EmergencyNumber> emergencyNumbers) {
+        mEmergencyNumbers = new ArrayList<>(emergencyNumbers);
+        for (EmergencyNumber num : emergencyNumbers) {
+            String number = num.getNumber();
+            if (!mFirstByNumber.containsKey(number)) {
+                mFirstByNumber.put(number, num);
+                addToTrie(number);
+            }
+            if (!mCategoriesByNumber.containsKey(number)
+                    && (num.isFromSources(
+                            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
+                    || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM))) {
+                mCategoriesByNumber.put(number, num.getEmergencyServiceCategoryBitmask());
+            }
+            if (!mRoutingByNumber.containsKey(number)
+                    && num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
+                mRoutingByNumber.put(number, num.getEmergencyCallRouting());
+            }
+        }
+    }
+
+    private void addToTrie(String number) {
+        Node node = mRoot;
+        for (int i = 0; i < number.length(); i++) {
+            int edge = edgeFor(number.charAt(i));
+            if (edge < 0) {
+                mOtherNumbers.add(number);
+                return;
+            }
+            if (node.mNext[edge] == null) {
+                node.mNext[edge] = new Node();
+            }
+            node = node.mNext[edge];
+        }
+        node.mIsNumber = true;
+    }
+
+    private static int edgeFor(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c == '*') return 10;
+        if (c == '#') return 11;
+        return -1;
+    }
+
+    /** @return {@code true} if the index was built from a list equal to the given one. */
+    boolean isIndexOf(@NonNull List<EmergencyNumber> emergencyNumbers) {
+        return mEmergencyNumbers.equals(emergencyNumbers);
+    }
+
+    /** @return {@code true} if the number is in the list. */
+    boolean containsNumber(@NonNull String number) {
+        return mFirstByNumber.containsKey(number);
+    }
+
+    /** @return {@code true} if a number of the list is a prefix of the given number. */
+    boolean containsPrefixOf(@NonNull String number) {
+        Node node = mRoot;
+        for (int i = 0; i < number.length(); i++) {
+            int edge = edgeFor(number.charAt(i));
+            if (edge < 0) break;
+            node = node.mNext[edge];
+            if (node == null) break;
+            if (node.mIsNumber) return true;
+        }
+        for (String other : mOtherNumbers) {
+            if (number.startsWith(other)) return true;
+        }
+        // The empty number is a prefix of everything.
+        return mRoot.mIsNumber;
+    }
+
+    /** @return The first entry of the list for the number, or {@code null}. */
+    @Nullable
+    EmergencyNumber getEmergencyNumber(@NonNull String number) {
+        return mFirstByNumber.get(number);
+    }
+
+    /**
+     * @return The service categories of the first entry for the number from network signaling
+     * or the SIM, or {@link EmergencyNumber#EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED}.
+     */
+    @EmergencyServiceCategories
+    int getEmergencyServiceCategories(@NonNull String number) {
+        Integer categories = mCategoriesByNumber.get(number);
+        return categories == null
+                ? EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED : categories;
+    }
+
+    /**
+     * @return The call routing of the first entry for the number from the database, or
+     * {@link EmergencyNumber#EMERGENCY_CALL_ROUTING_UNKNOWN}.
+     */
+    @EmergencyCallRouting
+    int getEmergencyCallRouting(@NonNull String number) {
+        Integer routing = mRoutingByNumber.get(number);
+        return routing == null ? EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN : routing;
+    }
+}
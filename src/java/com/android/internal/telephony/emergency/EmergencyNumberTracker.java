@@ -49,25 +49,21 @@ import com.android.internal.telephony.ServiceStateTracker;
 import com.android.internal.telephony.SubscriptionController;
 import com.android.internal.telephony.metrics.TelephonyMetrics;
 import com.android.internal.util.IndentingPrintWriter;
-import com.android.phone.ecc.nano.ProtobufEccData;
 import com.android.phone.ecc.nano.ProtobufEccData.EccInfo;
 import com.android.telephony.Rlog;
 
 import com.google.i18n.phonenumbers.ShortNumberInfo;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Emergency Number Tracker that handles update of emergency number list from RIL and emergency
@@ -107,11 +103,24 @@ public class EmergencyNumberTracker extends Handler {
 
     private static final String EMERGENCY_NUMBER_DB_ASSETS_FILE = "eccdata";
 
+    /** The decoded asset database, read on first use. */
+    private EmergencyNumberDatabase mAssetsDatabase;
+    /** The decoded OTA database, and the path and version of the file it was read from. */
+    private EmergencyNumberDatabase mOtaDatabase;
+    private String mOtaDatabaseKey;
+
     private List<EmergencyNumber> mEmergencyNumberListFromDatabase = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromRadio = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListWithPrefix = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberListFromTestMode = new ArrayList<>();
     private List<EmergencyNumber> mEmergencyNumberList = new ArrayList<>();
+    /** Index of {@link #mEmergencyNumberList}, replaced whenever the list is. */
+    private volatile EmergencyNumberIndex mEmergencyNumberIndex = EmergencyNumberIndex.EMPTY;
+    /**
+     * Index of the list derived from ril.ecclist, the database and test mode when there is no
+     * radio list, replaced when that list changes.
+     */
+    private volatile EmergencyNumberIndex mEccListIndex = EmergencyNumberIndex.EMPTY;
 
     private final LocalLog mEmergencyNumberListDatabaseLocalLog = new LocalLog(16);
     private final LocalLog mEmergencyNumberListRadioLocalLog = new LocalLog(16);
@@ -240,6 +249,8 @@ public class EmergencyNumberTracker extends Handler {
                 }
                 break;
             case EVENT_UPDATE_OTA_EMERGENCY_NUMBER_DB:
+                // A new database may keep the path, size and modification time of the old one.
+                mOtaDatabase = null;
                 updateOtaEmergencyNumberListDatabaseAndNotify();
                 break;
             case EVENT_OVERRIDE_OTA_EMERGENCY_NUMBER_DB_FILE_PATH:
@@ -450,33 +461,33 @@ public class EmergencyNumberTracker extends Handler {
                 EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
     }
 
+    private List<EmergencyNumber> convertEmergencyNumbersFromDatabase(
+            EmergencyNumberDatabase database, String countryIso) {
+        List<EmergencyNumber> emergencyNumberList = new ArrayList<>();
+        for (EccInfo eccInfo : database.getEccInfo(countryIso)) {
+            emergencyNumberList.add(convertEmergencyNumberFromEccInfo(eccInfo, countryIso));
+        }
+        EmergencyNumber.mergeSameNumbersInEmergencyNumberList(emergencyNumberList);
+        return emergencyNumberList;
+    }
+
     private void cacheEmergencyDatabaseByCountry(String countryIso) {
-        int assetsDatabaseVersion;
-
-        // Read the Asset emergency number database
-        List<EmergencyNumber> updatedAssetEmergencyNumberList = new ArrayList<>();
-        // try-with-resource. The 2 streams are auto closeable.
-        try (BufferedInputStream inputStream = new BufferedInputStream(
-                mPhone.getContext().getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE));
-             GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-            ProtobufEccData.AllInfo allEccMessages = ProtobufEccData.AllInfo.parseFrom(
-                    readInputStreamToByteArray(gzipInputStream));
-            assetsDatabaseVersion = allEccMessages.revision;
-            logd(countryIso + " asset emergency database is loaded. Ver: " + assetsDatabaseVersion
-                    + " Phone Id: " + mPhone.getPhoneId());
-            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
-                if (countryEccInfo.isoCode.equals(countryIso.toUpperCase())) {
-                    for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
-                        updatedAssetEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
-                                eccInfo, countryIso));
-                    }
-                }
+        // Read the Asset emergency number database, once; assets do not change at runtime.
+        if (mAssetsDatabase == null) {
+            // try-with-resource. The stream is closed once decoded.
+            try (BufferedInputStream inputStream = new BufferedInputStream(
+                    mPhone.getContext().getAssets().open(EMERGENCY_NUMBER_DB_ASSETS_FILE))) {
+                mAssetsDatabase = EmergencyNumberDatabase.decode(inputStream);
+            } catch (IOException ex) {
+                logw("Cache asset emergency database failure: " + ex);
+                return;
             }
-            EmergencyNumber.mergeSameNumbersInEmergencyNumberList(updatedAssetEmergencyNumberList);
-        } catch (IOException ex) {
-            logw("Cache asset emergency database failure: " + ex);
-            return;
         }
+        int assetsDatabaseVersion = mAssetsDatabase.getRevision();
+        logd(countryIso + " asset emergency database is loaded. Ver: " + assetsDatabaseVersion
+                + " Phone Id: " + mPhone.getPhoneId());
+        List<EmergencyNumber> updatedAssetEmergencyNumberList =
+                convertEmergencyNumbersFromDatabase(mAssetsDatabase, countryIso);
 
         // Cache OTA emergency number database
         int otaDatabaseVersion = cacheOtaEmergencyNumberDatabase();
@@ -495,12 +506,6 @@ public class EmergencyNumberTracker extends Handler {
     }
 
     private int cacheOtaEmergencyNumberDatabase() {
-        ProtobufEccData.AllInfo allEccMessages = null;
-        int otaDatabaseVersion = INVALID_DATABASE_VERSION;
-
-        // Read the OTA emergency number database
-        List<EmergencyNumber> updatedOtaEmergencyNumberList = new ArrayList<>();
-
         File file;
         // If OTA File partition is not available, try to reload the default one.
         if (mOverridedOtaDbParcelFileDescriptor == null) {
@@ -515,53 +520,34 @@ public class EmergencyNumberTracker extends Handler {
             }
         }
 
-        // try-with-resource. Those 3 streams are all auto closeable.
-        try (FileInputStream fileInputStream = new FileInputStream(file);
-             BufferedInputStream inputStream = new BufferedInputStream(fileInputStream);
-             GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)) {
-            allEccMessages = ProtobufEccData.AllInfo.parseFrom(
-                    readInputStreamToByteArray(gzipInputStream));
-            String countryIso = getLastKnownEmergencyCountryIso();
-            logd(countryIso + " ota emergency database is loaded. Ver: " + otaDatabaseVersion);
-            otaDatabaseVersion = allEccMessages.revision;
-            for (ProtobufEccData.CountryInfo countryEccInfo : allEccMessages.countries) {
-                if (countryEccInfo.isoCode.equals(countryIso.toUpperCase())) {
-                    for (ProtobufEccData.EccInfo eccInfo : countryEccInfo.eccs) {
-                        updatedOtaEmergencyNumberList.add(convertEmergencyNumberFromEccInfo(
-                                eccInfo, countryIso));
-                    }
-                }
+        // Read the OTA emergency number database, unless the file is the one decoded last time.
+        String otaDatabaseKey = file.getPath() + ":" + file.lastModified() + ":" + file.length();
+        if (mOtaDatabase == null || !otaDatabaseKey.equals(mOtaDatabaseKey)) {
+            mOtaDatabase = null;
+            // try-with-resource. The stream is closed once decoded.
+            try (BufferedInputStream inputStream = new BufferedInputStream(
+                    new FileInputStream(file))) {
+                mOtaDatabase = EmergencyNumberDatabase.decode(inputStream);
+                mOtaDatabaseKey = otaDatabaseKey;
+            } catch (IOException ex) {
+                loge("Cache ota emergency database IOException: " + ex);
+                return INVALID_DATABASE_VERSION;
             }
-            EmergencyNumber.mergeSameNumbersInEmergencyNumberList(updatedOtaEmergencyNumberList);
-        } catch (IOException ex) {
-            loge("Cache ota emergency database IOException: " + ex);
-            return INVALID_DATABASE_VERSION;
         }
+        String countryIso = getLastKnownEmergencyCountryIso();
+        int otaDatabaseVersion = mOtaDatabase.getRevision();
+        logd(countryIso + " ota emergency database is loaded. Ver: " + otaDatabaseVersion);
 
         // Use a valid database that has higher version.
         if (otaDatabaseVersion != INVALID_DATABASE_VERSION
                 && mCurrentDatabaseVersion < otaDatabaseVersion) {
             mCurrentDatabaseVersion = otaDatabaseVersion;
-            mEmergencyNumberListFromDatabase = updatedOtaEmergencyNumberList;
+            mEmergencyNumberListFromDatabase =
+                    convertEmergencyNumbersFromDatabase(mOtaDatabase, countryIso);
         }
         return otaDatabaseVersion;
     }
 
-    /**
-     * Util function to convert inputStream to byte array before parsing proto data.
-     */
-    private static byte[] readInputStreamToByteArray(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        int size = 16 * 1024; // Read 16k chunks
-        byte[] data = new byte[size];
-        while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-        buffer.flush();
-        return buffer.toByteArray();
-    }
-
     private void updateRadioEmergencyNumberListAndNotify(
             List<EmergencyNumber> emergencyNumberListRadio) {
         Collections.sort(emergencyNumberListRadio);
@@ -689,6 +675,28 @@ public class EmergencyNumberTracker extends Handler {
         mergedEmergencyNumberList.addAll(mEmergencyNumberListFromTestMode);
         EmergencyNumber.mergeSameNumbersInEmergencyNumberList(mergedEmergencyNumberList);
         mEmergencyNumberList = mergedEmergencyNumberList;
+        mEmergencyNumberIndex = new EmergencyNumberIndex(mergedEmergencyNumberList);
+    }
+
+    /**
+     * @return the index of the emergency number list returned by
+     *         {@link #getEmergencyNumberList()}.
+     */
+    private EmergencyNumberIndex getEmergencyNumberIndex() {
+        if (!mEmergencyNumberListFromRadio.isEmpty()) {
+            return mEmergencyNumberIndex;
+        } else {
+            // ril.ecclist is a system property and can change at any time, so the list is
+            // derived again on each call, but it is only indexed again when it changed.
+            List<EmergencyNumber> emergencyNumberList =
+                    getEmergencyNumberListFromEccListDatabaseAndTest();
+            EmergencyNumberIndex index = mEccListIndex;
+            if (!index.isIndexOf(emergencyNumberList)) {
+                index = new EmergencyNumberIndex(emergencyNumberList);
+                mEccListIndex = index;
+            }
+            return index;
+        }
     }
 
     /**
@@ -725,27 +733,24 @@ public class EmergencyNumberTracker extends Handler {
         number = PhoneNumberUtils.extractNetworkPortionAlt(number);
 
         if (!mEmergencyNumberListFromRadio.isEmpty()) {
-            for (EmergencyNumber num : mEmergencyNumberList) {
-                // According to com.android.i18n.phonenumbers.ShortNumberInfo, in
-                // these countries, if extra digits are added to an emergency number,
-                // it no longer connects to the emergency service.
-                String countryIso = getLastKnownEmergencyCountryIso();
-                if (countryIso.equals("br") || countryIso.equals("cl")
-                        || countryIso.equals("ni")) {
-                    exactMatch = true;
-                } else {
-                    exactMatch = false || exactMatch;
+            // According to com.android.i18n.phonenumbers.ShortNumberInfo, in
+            // these countries, if extra digits are added to an emergency number,
+            // it no longer connects to the emergency service.
+            String countryIso = getLastKnownEmergencyCountryIso();
+            if (countryIso.equals("br") || countryIso.equals("cl")
+                    || countryIso.equals("ni")) {
+                exactMatch = true;
+            }
+            EmergencyNumberIndex index = mEmergencyNumberIndex;
+            if (exactMatch) {
+                if (index.containsNumber(number)) {
+                    logd("Found in mEmergencyNumberList [exact match] ");
+                    return true;
                 }
-                if (exactMatch) {
-                    if (num.getNumber().equals(number)) {
-                        logd("Found in mEmergencyNumberList [exact match] ");
-                        return true;
-                    }
-                } else {
-                    if (number.startsWith(num.getNumber())) {
-                        logd("Found in mEmergencyNumberList [not exact match] ");
-                        return true;
-                    }
+            } else {
+                if (index.containsPrefixOf(number)) {
+                    logd("Found in mEmergencyNumberList [not exact match] ");
+                    return true;
                 }
             }
             return false;
@@ -768,12 +773,7 @@ public class EmergencyNumberTracker extends Handler {
      */
     public EmergencyNumber getEmergencyNumber(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                return num;
-            }
-        }
-        return null;
+        return getEmergencyNumberIndex().getEmergencyNumber(emergencyNumber);
     }
 
     /**
@@ -787,15 +787,7 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyServiceCategories int getEmergencyServiceCategories(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
-                        || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM)) {
-                    return num.getEmergencyServiceCategoryBitmask();
-                }
-            }
-        }
-        return EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED;
+        return getEmergencyNumberIndex().getEmergencyServiceCategories(emergencyNumber);
     }
 
     /**
@@ -807,14 +799,7 @@ public class EmergencyNumberTracker extends Handler {
      */
     public @EmergencyCallRouting int getEmergencyCallRouting(String emergencyNumber) {
         emergencyNumber = PhoneNumberUtils.stripSeparators(emergencyNumber);
-        for (EmergencyNumber num : getEmergencyNumberList()) {
-            if (num.getNumber().equals(emergencyNumber)) {
-                if (num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
-                    return num.getEmergencyCallRouting();
-                }
-            }
-        }
-        return EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
+        return getEmergencyNumberIndex().getEmergencyCallRouting(emergencyNumber);
     }
 
     public String getEmergencyCountryIso() {
@@ -61,6 +61,9 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     // SFI to ADN Efid mapping table
     private SparseIntArray mSfiEfidTable;
 
+    // Position of the first record of each ADN EF in mPhoneBookRecords, by ADN efid
+    private SparseIntArray mAdnEfOffsets;
+
     private boolean mRefreshCache = false;
 
 
@@ -88,6 +91,17 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private static final int INVALID_SFI = -1;
     private static final byte INVALID_BYTE = -1;
 
+    // Number of SIM IOs in flight while loading the phonebook. Each EF read keeps up to
+    // IccFileHandler#getMaxPendingRecordReads() record reads in flight, so the EFs read at the
+    // same time share this budget.
+    private static final int MAX_PENDING_SIM_IOS = 4;
+
+    // Contents of the EFs read by readFilesAndWait, by efid. Failed reads are left out.
+    private SparseArray<ArrayList<?>> mLoadedFiles = new SparseArray<ArrayList<?>>();
+    private int mPendingFileLoads;
+    // Tells the answers of an interrupted readFilesAndWait from those of the current one
+    private int mFileLoadGeneration;
+
     // class File represent a PBR record TLV object which points to the rest of the phonebook EFs
     private class File {
         // Phonebook reference file constructed tag defined in 3GPP TS 31.102
@@ -113,6 +127,20 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         public int getIndex() { return mIndex; }
     }
 
+    // An EF to read while loading the phonebook
+    private static class FileLoad {
+        private final int mEfid;
+        // Extension EF of an EF_ADN, read through the ADN cache
+        private final int mExtEfid;
+        private final int mEvent;
+
+        FileLoad(int efid, int extEfid, int event) {
+            mEfid = efid;
+            mExtEfid = extEfid;
+            mEvent = event;
+        }
+    }
+
     public UsimPhoneBookManager(IccFileHandler fh, AdnRecordCache cache) {
         mFh = fh;
         mPhoneBookRecords = new ArrayList<AdnRecord>();
@@ -123,6 +151,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         mAdnCache = cache;
         mEmailsForAdnRec = new SparseArray<ArrayList<String>>();
         mSfiEfidTable = new SparseIntArray();
+        mAdnEfOffsets = new SparseIntArray();
     }
 
     @UnsupportedAppUsage
@@ -135,6 +164,7 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         mRefreshCache = false;
         mEmailsForAdnRec.clear();
         mSfiEfidTable.clear();
+        mAdnEfOffsets.clear();
     }
 
     // Load all phonebook related EFs from the SIM.
@@ -160,13 +190,9 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             if (mPbrRecords == null)
                 return null;
 
-            int numRecs = mPbrRecords.size();
-
             log("loadEfFilesFromUsim: Loading adn and emails");
-            for (int i = 0; i < numRecs; i++) {
-                readAdnFileAndWait(i);
-                readEmailFileAndWait(i);
-            }
+            readAdnFilesAndWait();
+            readEmailFilesAndWait();
 
             updatePhoneAdnRecord();
             // All EF files are loaded, return all the records
@@ -178,11 +204,9 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
     private void refreshCache() {
         if (mPbrRecords == null) return;
         mPhoneBookRecords.clear();
+        mAdnEfOffsets.clear();
 
-        int numRecs = mPbrRecords.size();
-        for (int i = 0; i < numRecs; i++) {
-            readAdnFileAndWait(i);
-        }
+        readAdnFilesAndWait();
     }
 
     // Invalidate the phonebook cache.
@@ -190,6 +214,29 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         mRefreshCache = true;
     }
 
+    /**
+     * Replace a loaded record after it was written to the card. The whole phonebook is read
+     * again on the next load if the record cannot be found.
+     *
+     * @param efid the EF id of the ADN file
+     * @param recordNumber the 1-based record number in that file
+     * @param adn the record written
+     */
+    public void updateRecord(int efid, int recordNumber, AdnRecord adn) {
+        synchronized (mLock) {
+            if (mPhoneBookRecords.isEmpty()) return;
+            int offset = mAdnEfOffsets.get(efid, -1);
+            int position = offset + recordNumber - 1;
+            if (offset >= 0 && position < mPhoneBookRecords.size()
+                    && mPhoneBookRecords.get(position).getEfid() == efid
+                    && mPhoneBookRecords.get(position).getRecId() == recordNumber) {
+                mPhoneBookRecords.set(position, adn);
+            } else {
+                invalidateCache();
+            }
+        }
+    }
+
     // Read the phonebook reference file EF_PBR.
     private void readPbrFileAndWait() {
         mFh.loadEFLinearFixedAll(EF_PBR, obtainMessage(EVENT_PBR_LOAD_DONE));
@@ -200,70 +247,52 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         }
     }
 
-    // Read EF_EMAIL which contains the email records.
-    private void readEmailFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null) return;
-
-        File email = files.get(USIM_EFEMAIL_TAG);
-        if (email != null) {
+    // Read the EF_EMAIL files of all the PBR records, along with the EF_IAP files indexing the
+    // type 2 ones, and build the email lists.
+    private void readEmailFilesAndWait() {
+        int numRecs = mPbrRecords.size();
+        File[] emails = new File[numRecs];
+        ArrayList<FileLoad> loads = new ArrayList<FileLoad>();
+        for (int recId = 0; recId < numRecs; recId++) {
+            emails[recId] = getEmailFileToRead(recId);
+            if (emails[recId] == null) continue;
 
             /**
              * Check if the EF_EMAIL is a Type 1 file or a type 2 file.
              * If mEmailPresentInIap is true, its a type 2 file.
-             * So we read the IAP file and then read the email records.
-             * instead of reading directly.
+             * So we read the IAP file along with the email records.
              */
-            if (email.getParentTag() == USIM_TYPE2_TAG) {
-                if (files.get(USIM_EFIAP_TAG) == null) {
-                    Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
-                    return;
-                }
+            if (emails[recId].getParentTag() == USIM_TYPE2_TAG) {
+                addFileLoad(loads, mPbrRecords.get(recId).mFileIds.get(USIM_EFIAP_TAG).getEfid(),
+                        0, EVENT_IAP_LOAD_DONE);
+            }
+            addFileLoad(loads, emails[recId].getEfid(), 0, EVENT_EMAIL_LOAD_DONE);
+        }
+        if (loads.isEmpty()) return;
 
-                log("EF_IAP exists. Loading EF_IAP to retrieve the index.");
-                readIapFileAndWait(files.get(USIM_EFIAP_TAG).getEfid());
+        readFilesAndWait(loads);
+
+        // Build the email lists in PBR order, whatever the order the files were read in.
+        for (int recId = 0; recId < numRecs; recId++) {
+            File email = emails[recId];
+            if (email == null) continue;
+
+            mIapFileRecord = null;
+            if (email.getParentTag() == USIM_TYPE2_TAG) {
+                mIapFileRecord = (ArrayList<byte[]>) mLoadedFiles.get(
+                        mPbrRecords.get(recId).mFileIds.get(USIM_EFIAP_TAG).getEfid());
                 if (mIapFileRecord == null) {
                     Rlog.e(LOG_TAG, "Error: IAP file is empty");
-                    return;
+                    continue;
                 }
 
                 log("EF_EMAIL order in PBR record: " + email.getIndex());
             }
 
-            int emailEfid = email.getEfid();
-            log("EF_EMAIL exists in PBR. efid = 0x" +
-                    Integer.toHexString(emailEfid).toUpperCase());
-
-            /**
-             * Make sure this EF_EMAIL was never read earlier. Sometimes two PBR record points
-             */
-            // to the same EF_EMAIL
-            for (int i = 0; i < recId; i++) {
-                if (mPbrRecords.get(i) != null) {
-                    SparseArray<File> previousFileIds = mPbrRecords.get(i).mFileIds;
-                    if (previousFileIds != null) {
-                        File id = previousFileIds.get(USIM_EFEMAIL_TAG);
-                        if (id != null && id.getEfid() == emailEfid) {
-                            log("Skipped this EF_EMAIL which was loaded earlier");
-                            return;
-                        }
-                    }
-                }
-            }
-
-            // Read the EFEmail file.
-            mFh.loadEFLinearFixedAll(emailEfid,
-                    obtainMessage(EVENT_EMAIL_LOAD_DONE));
-            try {
-                mLock.wait();
-            } catch (InterruptedException e) {
-                Rlog.e(LOG_TAG, "Interrupted Exception in readEmailFileAndWait");
-            }
-
+            mEmailFileRecord = (ArrayList<byte[]>) mLoadedFiles.get(email.getEfid());
             if (mEmailFileRecord == null) {
                 Rlog.e(LOG_TAG, "Error: Email file is empty");
-                return;
+                continue;
             }
 
             // Build email list
@@ -282,6 +311,44 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
                 buildType1EmailList(recId);
             }
         }
+        mLoadedFiles.clear();
+    }
+
+    // Get the EF_EMAIL of a PBR record, or null if it has none or it is read for another record.
+    private File getEmailFileToRead(int recId) {
+        SparseArray<File> files;
+        files = mPbrRecords.get(recId).mFileIds;
+        if (files == null) return null;
+
+        File email = files.get(USIM_EFEMAIL_TAG);
+        if (email == null) return null;
+
+        if (email.getParentTag() == USIM_TYPE2_TAG && files.get(USIM_EFIAP_TAG) == null) {
+            Rlog.e(LOG_TAG, "Can't locate EF_IAP in EF_PBR.");
+            return null;
+        }
+
+        int emailEfid = email.getEfid();
+        log("EF_EMAIL exists in PBR. efid = 0x" +
+                Integer.toHexString(emailEfid).toUpperCase());
+
+        /**
+         * Make sure this EF_EMAIL was never read earlier. Sometimes two PBR record points
+         */
+        // to the same EF_EMAIL
+        for (int i = 0; i < recId; i++) {
+            if (mPbrRecords.get(i) != null) {
+                SparseArray<File> previousFileIds = mPbrRecords.get(i).mFileIds;
+                if (previousFileIds != null) {
+                    File id = previousFileIds.get(USIM_EFEMAIL_TAG);
+                    if (id != null && id.getEfid() == emailEfid) {
+                        log("Skipped this EF_EMAIL which was loaded earlier");
+                        return null;
+                    }
+                }
+            }
+        }
+        return email;
     }
 
     // Build type 1 email list
@@ -409,16 +476,6 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return true;
     }
 
-    // Read Phonebook Index Admistration EF_IAP file
-    private void readIapFileAndWait(int efid) {
-        mFh.loadEFLinearFixedAll(efid, obtainMessage(EVENT_IAP_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readIapFileAndWait");
-        }
-    }
-
     private void updatePhoneAdnRecord() {
 
         int numAdnRecs = mPhoneBookRecords.size();
@@ -465,35 +522,103 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
         return IccUtils.adnStringFieldToString(emailRec, 0, emailRec.length - 2);
     }
 
-    // Read EF_ADN file
-    private void readAdnFileAndWait(int recId) {
-        SparseArray<File> files;
-        files = mPbrRecords.get(recId).mFileIds;
-        if (files == null || files.size() == 0) return;
+    // Read the EF_ADN files of all the PBR records.
+    private void readAdnFilesAndWait() {
+        ArrayList<FileLoad> loads = new ArrayList<FileLoad>();
+        for (PbrRecord record : mPbrRecords) {
+            File adn = getAdnFile(record);
+            if (adn == null) continue;
 
-        int extEf = 0;
-        // Only call fileIds.get while EF_EXT1_TAG is available
-        if (files.get(USIM_EFEXT1_TAG) != null) {
-            extEf = files.get(USIM_EFEXT1_TAG).getEfid();
+            int extEf = 0;
+            // Only call fileIds.get while EF_EXT1_TAG is available
+            if (record.mFileIds.get(USIM_EFEXT1_TAG) != null) {
+                extEf = record.mFileIds.get(USIM_EFEXT1_TAG).getEfid();
+            }
+            addFileLoad(loads, adn.getEfid(), extEf, EVENT_USIM_ADN_LOAD_DONE);
         }
+        if (loads.isEmpty()) return;
 
-        if (files.get(USIM_EFADN_TAG) == null)
-            return;
+        readFilesAndWait(loads);
 
-        int previousSize = mPhoneBookRecords.size();
-        mAdnCache.requestLoadAllAdnLike(files.get(USIM_EFADN_TAG).getEfid(),
-            extEf, obtainMessage(EVENT_USIM_ADN_LOAD_DONE));
-        try {
-            mLock.wait();
-        } catch (InterruptedException e) {
-            Rlog.e(LOG_TAG, "Interrupted Exception in readAdnFileAndWait");
+        // Concatenate the records in PBR order, whatever the order the files were read in.
+        for (PbrRecord record : mPbrRecords) {
+            File adn = getAdnFile(record);
+            if (adn == null) continue;
+
+            int previousSize = mPhoneBookRecords.size();
+            mAdnEfOffsets.put(adn.getEfid(), previousSize);
+            ArrayList<AdnRecord> adnRecords =
+                    (ArrayList<AdnRecord>) mLoadedFiles.get(adn.getEfid());
+            if (adnRecords != null) {
+                mPhoneBookRecords.addAll(adnRecords);
+            }
+
+            /**
+             * The recent added ADN record # would be the reference record size
+             * for the rest of EFs associated within this PBR.
+             */
+            record.mMainFileRecordNum = mPhoneBookRecords.size() - previousSize;
         }
+        mLoadedFiles.clear();
+    }
 
-        /**
-         * The recent added ADN record # would be the reference record size
-         * for the rest of EFs associated within this PBR.
-         */
-        mPbrRecords.get(recId).mMainFileRecordNum = mPhoneBookRecords.size() - previousSize;
+    // Get the EF_ADN of a PBR record, or null if it has none.
+    private File getAdnFile(PbrRecord record) {
+        SparseArray<File> files = record.mFileIds;
+        if (files == null || files.size() == 0) return null;
+        return files.get(USIM_EFADN_TAG);
+    }
+
+    private void addFileLoad(ArrayList<FileLoad> loads, int efid, int extEfid, int event) {
+        for (FileLoad load : loads) {
+            // Several PBR records may point to the same file
+            if (load.mEfid == efid) return;
+        }
+        loads.add(new FileLoad(efid, extEfid, event));
+    }
+
+    /**
+     * Read EFs from the card and wait until all of them are read. Several EFs are read at the
+     * same time, within MAX_PENDING_SIM_IOS, so the card is not left idle between two files.
+     * The contents are left in mLoadedFiles.
+     */
+    private void readFilesAndWait(ArrayList<FileLoad> loads) {
+        mLoadedFiles.clear();
+        mPendingFileLoads = 0;
+        mFileLoadGeneration++;
+        int maxPendingFileLoads =
+                Math.max(1, MAX_PENDING_SIM_IOS / Math.max(1, mFh.getMaxPendingRecordReads()));
+        int next = 0;
+        while (next < loads.size() || mPendingFileLoads > 0) {
+            while (next < loads.size() && mPendingFileLoads < maxPendingFileLoads) {
+                FileLoad load = loads.get(next++);
+                Message response = obtainMessage(load.mEvent, load.mEfid, mFileLoadGeneration);
+                if (load.mEvent == EVENT_USIM_ADN_LOAD_DONE) {
+                    mAdnCache.requestLoadAllAdnLike(load.mEfid, load.mExtEfid, response);
+                } else {
+                    mFh.loadEFLinearFixedAll(load.mEfid, response);
+                }
+                mPendingFileLoads++;
+            }
+            try {
+                mLock.wait();
+            } catch (InterruptedException e) {
+                Rlog.e(LOG_TAG, "Interrupted Exception in readFilesAndWait");
+                return;
+            }
+        }
+    }
+
+    private void onFileLoaded(Message msg) {
+        AsyncResult ar = (AsyncResult) msg.obj;
+        synchronized (mLock) {
+            if (msg.arg2 != mFileLoadGeneration) return;
+            if (ar.exception == null) {
+                mLoadedFiles.put(msg.arg1, (ArrayList<?>) ar.result);
+            }
+            mPendingFileLoads--;
+            mLock.notify();
+        }
     }
 
     // Create the phonebook reference file based on EF_PBR
@@ -542,34 +667,15 @@ public class UsimPhoneBookManager extends Handler implements IccConstants {
             break;
         case EVENT_USIM_ADN_LOAD_DONE:
             log("Loading USIM ADN records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mPhoneBookRecords.addAll((ArrayList<AdnRecord>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onFileLoaded(msg);
             break;
         case EVENT_IAP_LOAD_DONE:
             log("Loading USIM IAP records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mIapFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onFileLoaded(msg);
             break;
         case EVENT_EMAIL_LOAD_DONE:
             log("Loading USIM Email records done");
-            ar = (AsyncResult) msg.obj;
-            if (ar.exception == null) {
-                mEmailFileRecord = ((ArrayList<byte[]>)ar.result);
-            }
-
-            synchronized (mLock) {
-                mLock.notify();
-            }
+            onFileLoaded(msg);
             break;
         }
     }
@@ -24,6 +24,7 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 import android.telephony.TelephonyManager.NetworkTypeBitMask;
 import android.util.SparseIntArray;
@@ -171,6 +172,21 @@ public class PersistAtomsStorage {
     private final Context mContext;
     private final Handler mHandler;
     private final HandlerThread mHandlerThread;
+
+    /** Whether {@link #mSaveRunnable} is posted. Guarded by {@code this}. */
+    private boolean mSavePending;
+
+    /** Uptime at which the posted {@link #mSaveRunnable} runs. Guarded by {@code this}. */
+    private long mSaveUptimeMillis;
+
+    /** Number of snapshots of {@link #mAtoms} serialized so far. Guarded by {@code this}. */
+    private long mSerializedVersion;
+
+    /** Serializes writes to the file, which are done without holding {@code this}. */
+    private final Object mFileLock = new Object();
+
+    /** Version of the snapshot last written to the file. Guarded by {@link #mFileLock}. */
+    private long mWrittenVersion;
     private static final SecureRandom sRandom = new SecureRandom();
 
     private Runnable mSaveRunnable =
@@ -1174,15 +1190,20 @@ public class PersistAtomsStorage {
         return bitmask;
     }
 
-    /** Saves {@link PersistAtoms} to a file in private storage immediately. */
-    public synchronized void flushAtoms() {
-        saveAtomsToFile(0);
+    /**
+     * Saves {@link PersistAtoms} to a file in private storage immediately. The file is written
+     * without holding the lock of the storage.
+     */
+    public void flushAtoms() {
+        saveAtomsToFileNow();
     }
 
     /** Clears atoms for testing purpose. */
-    public synchronized void clearAtoms() {
-        mAtoms = makeNewPersistAtoms();
-        saveAtomsToFile(0);
+    public void clearAtoms() {
+        synchronized (this) {
+            mAtoms = makeNewPersistAtoms();
+        }
+        saveAtomsToFileNow();
     }
 
     /** Loads {@link PersistAtoms} from a file in private storage. */
@@ -1368,28 +1389,60 @@ public class PersistAtomsStorage {
     }
 
     /**
-     * Posts message to save a copy of {@link PersistAtoms} to a file after a delay or immediately.
+     * Posts message to save a copy of {@link PersistAtoms} to a file after a delay.
      *
      * <p>The delay is introduced to avoid too frequent operations to disk, which would negatively
-     * impact the power consumption.
+     * impact the power consumption. Changes are coalesced: if a save is already due no later than
+     * the requested delay, it covers this change as well and nothing is posted. Otherwise the
+     * pending save is moved earlier, so a steady stream of updates cannot postpone it forever.
+     *
+     * <p>Called with {@code this} held by the methods updating the atoms. Saves that must happen
+     * immediately go through {@link #flushAtoms()} instead, which writes without the lock.
      */
-    private synchronized void saveAtomsToFile(int delayMillis) {
-        mHandler.removeCallbacks(mSaveRunnable);
-        if (delayMillis > 0 && !mSaveImmediately) {
-            if (mHandler.postDelayed(mSaveRunnable, delayMillis)) {
+    private void saveAtomsToFile(int delayMillis) {
+        if (!mSaveImmediately) {
+            long uptimeMillis = SystemClock.uptimeMillis() + delayMillis;
+            if (mSavePending && mSaveUptimeMillis <= uptimeMillis) {
+                return;
+            }
+            mHandler.removeCallbacks(mSaveRunnable);
+            if (mHandler.postAtTime(mSaveRunnable, uptimeMillis)) {
+                mSavePending = true;
+                mSaveUptimeMillis = uptimeMillis;
                 return;
             }
         }
-        // In case of error posting the event or if delay is 0, save immediately
+        // The handler thread is gone, or tests skip the delay: save in the caller.
         saveAtomsToFileNow();
     }
 
-    /** Saves a copy of {@link PersistAtoms} to a file in private storage. */
-    private synchronized void saveAtomsToFileNow() {
-        try (FileOutputStream stream = mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
-            stream.write(PersistAtoms.toByteArray(mAtoms));
-        } catch (IOException e) {
-            Rlog.e(TAG, "cannot save PersistAtoms", e);
+    /**
+     * Saves a copy of {@link PersistAtoms} to a file in private storage.
+     *
+     * <p>Only the serialization holds the lock of the storage, so metric writers are not blocked
+     * by the disk write. If snapshots are written concurrently, an older one never overwrites a
+     * newer one.
+     */
+    private void saveAtomsToFileNow() {
+        final byte[] bytes;
+        final long version;
+        synchronized (this) {
+            mHandler.removeCallbacks(mSaveRunnable);
+            mSavePending = false;
+            bytes = PersistAtoms.toByteArray(mAtoms);
+            version = ++mSerializedVersion;
+        }
+        synchronized (mFileLock) {
+            if (version < mWrittenVersion) {
+                return;
+            }
+            try (FileOutputStream stream =
+                    mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
+                stream.write(bytes);
+                mWrittenVersion = version;
+            } catch (IOException e) {
+                Rlog.e(TAG, "cannot save PersistAtoms", e);
+            }
         }
     }
 
@@ -365,8 +365,11 @@ public class AdnRecordCache extends Handler implements IccConstants {
                 AdnRecord adn = (AdnRecord) (ar.userObj);
 
                 if (ar.exception == null) {
-                    mAdnLikeFiles.get(efid).set(index - 1, adn);
-                    mUsimPhoneBookManager.invalidateCache();
+                    ArrayList<AdnRecord> adnList = mAdnLikeFiles.get(efid);
+                    if (adnList != null) {
+                        adnList.set(index - 1, adn);
+                    }
+                    mUsimPhoneBookManager.updateRecord(efid, index, adn);
                 }
 
                 Message response = mUserWriteResponse.get(efid);
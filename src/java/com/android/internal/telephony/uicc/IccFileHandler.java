@@ -21,10 +21,12 @@ import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.android.internal.telephony.CommandsInterface;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * {@hide}
@@ -100,6 +102,12 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     /** Finished retriveing record size of transparent file. */
     protected static final int EVENT_GET_EF_TRANSPARENT_SIZE_DONE = 12;
 
+    /**
+     * Default number of READ RECORD requests in flight when loading all records of an EF. Cards
+     * are read one record at a time unless the device configures a larger window.
+     */
+    public static final int DEFAULT_MAX_PENDING_RECORD_READS = 1;
+
      // member variables
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected final CommandsInterface mCi;
@@ -108,14 +116,22 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected final String mAid;
 
+    private int mMaxPendingRecordReads = DEFAULT_MAX_PENDING_RECORD_READS;
+
     static class LoadLinearFixedContext {
 
         int mEfid;
+        // When loading all records, mRecordNum is the next record to request.
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
         int mRecordNum, mRecordSize, mCountRecords;
         boolean mLoadAll;
         String mPath;
 
+        // Progress of loading all records.
+        int mReadRecords;
+        boolean mFailed;
+        long mStartTimeMillis;
+
         Message mOnLoaded;
 
         @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -167,6 +183,24 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     public void dispose() {
     }
 
+    /**
+     * Set how many READ RECORD requests are sent ahead when loading all records of a linear
+     * fixed EF. The records are still handed out in order. 1 reads the records one at a time.
+     *
+     * @param maxPendingRecordReads The number of requests in flight, at least 1.
+     */
+    public void setMaxPendingRecordReads(int maxPendingRecordReads) {
+        mMaxPendingRecordReads = Math.max(1, maxPendingRecordReads);
+    }
+
+    /**
+     * @return The number of READ RECORD requests sent ahead when loading all records of a linear
+     * fixed EF.
+     */
+    public int getMaxPendingRecordReads() {
+        return mMaxPendingRecordReads;
+    }
+
     //***** Public Methods
 
     /**
@@ -543,13 +577,23 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
                 lc.mCountRecords = size / lc.mRecordSize;
 
-                if (lc.mLoadAll) {
-                    lc.results = new ArrayList<byte[]>(lc.mCountRecords);
-                }
-
                 if (path == null) {
                     path = getEFPath(lc.mEfid);
                 }
+
+                if (lc.mLoadAll) {
+                    lc.mPath = path;
+                    // Like when the records were read one at a time, an EF without records
+                    // still reads record 1.
+                    int count = Math.max(lc.mCountRecords, 1);
+                    lc.results = new ArrayList<byte[]>(Collections.nCopies(count, null));
+                    lc.mStartTimeMillis = SystemClock.elapsedRealtime();
+                    for (int i = Math.min(mMaxPendingRecordReads, count); i > 0; i--) {
+                        readNextRecord(lc);
+                    }
+                    break;
+                }
+
                 mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
                         lc.mRecordNum,
                         READ_RECORD_MODE_ABSOLUTE,
@@ -597,31 +641,35 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 lc = (LoadLinearFixedContext) ar.userObj;
                 result = (IccIoResult) ar.result;
                 response = lc.mOnLoaded;
-                path = lc.mPath;
+
+                if (lc.mFailed) {
+                    // A record before this one failed and the caller has been told already.
+                    response = null;
+                    break;
+                }
 
                 if (processException(response, (AsyncResult) msg.obj)) {
+                    lc.mFailed = true;
                     break;
                 }
 
                 if (!lc.mLoadAll) {
                     sendResult(response, result.payload, null);
                 } else {
-                    lc.results.add(result.payload);
-
-                    lc.mRecordNum++;
-
-                    if (lc.mRecordNum > lc.mCountRecords) {
-                        sendResult(response, lc.results, null);
-                    } else {
-                        if (path == null) {
-                            path = getEFPath(lc.mEfid);
+                    // The responses can come back in any order, the record number is in arg1.
+                    lc.results.set(msg.arg1 - 1, result.payload);
+                    lc.mReadRecords++;
+
+                    if (lc.mReadRecords == lc.results.size()) {
+                        if (VDBG) {
+                            logd("Loaded " + lc.mReadRecords + " records of EF "
+                                    + Integer.toHexString(lc.mEfid) + " in "
+                                    + (SystemClock.elapsedRealtime() - lc.mStartTimeMillis)
+                                    + "ms");
                         }
-
-                        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
-                                    lc.mRecordNum,
-                                    READ_RECORD_MODE_ABSOLUTE,
-                                    lc.mRecordSize, null, null, mAid,
-                                    obtainMessage(EVENT_READ_RECORD_DONE, lc));
+                        sendResult(response, lc.results, null);
+                    } else if (lc.mRecordNum <= lc.results.size()) {
+                        readNextRecord(lc);
                     }
                 }
 
@@ -666,6 +714,11 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 break;
 
         }} catch (Exception exc) {
+            if (msg.what == EVENT_READ_RECORD_DONE && msg.obj instanceof AsyncResult
+                    && ((AsyncResult) msg.obj).userObj instanceof LoadLinearFixedContext) {
+                // The other records in flight must not answer the caller again.
+                ((LoadLinearFixedContext) ((AsyncResult) msg.obj).userObj).mFailed = true;
+            }
             if (response != null) {
                 sendResult(response, null, exc);
             } else {
@@ -708,6 +761,16 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         return null;
     }
 
+    /** Request the next record of an EF whose records are all being loaded. */
+    private void readNextRecord(LoadLinearFixedContext lc) {
+        int recordNum = lc.mRecordNum++;
+        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, lc.mPath,
+                recordNum,
+                READ_RECORD_MODE_ABSOLUTE,
+                lc.mRecordSize, null, null, mAid,
+                obtainMessage(EVENT_READ_RECORD_DONE, recordNum, 0, lc));
+    }
+
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected abstract String getEFPath(int efid);
     protected abstract void logd(String s);
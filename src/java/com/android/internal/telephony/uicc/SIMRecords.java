@@ -96,6 +96,9 @@ public class SIMRecords extends IccRecords {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     UsimServiceTable mUsimServiceTable;
 
+    /** Static EFs of the card from the last time it was read, or null if the ICCID is unknown. */
+    private SimRecordCache mRecordCache;
+
     @Override
     public String toString() {
         return "SimRecords: " + super.toString()
@@ -184,6 +187,8 @@ public class SIMRecords extends IccRecords {
     private static final int EVENT_GET_FPLMN_DONE = 41 + SIM_RECORD_EVENT_BASE;
     private static final int EVENT_GET_FPLMN_SIZE_DONE = 42 + SIM_RECORD_EVENT_BASE;
     private static final int EVENT_SET_FPLMN_DONE = 43 + SIM_RECORD_EVENT_BASE;
+    private static final int EVENT_GET_CACHEABLE_EF_DONE = 44 + SIM_RECORD_EVENT_BASE;
+    private static final int EVENT_VERIFY_CACHED_EF_DONE = 45 + SIM_RECORD_EVENT_BASE;
     // ***** Constructor
 
     public SIMRecords(UiccCardApplication app, Context c, CommandsInterface ci) {
@@ -591,6 +596,15 @@ public class SIMRecords extends IccRecords {
      */
     @Override
     public void onRefresh(boolean fileChanged, int[] fileList) {
+        if (fileChanged && mRecordCache != null) {
+            if (fileList == null) {
+                mRecordCache.clear();
+            } else {
+                for (int efid : fileList) {
+                    mRecordCache.remove(efid);
+                }
+            }
+        }
         if (fileChanged) {
             // A future optimization would be to inspect fileList and
             // only reload those files that we care about.  For now,
@@ -1291,6 +1305,40 @@ public class SIMRecords extends IccRecords {
                     }
                     break;
 
+                case EVENT_GET_CACHEABLE_EF_DONE:
+                    ar = (AsyncResult) msg.obj;
+                    if (ar.exception == null && ar.userObj != null && ar.userObj == mRecordCache) {
+                        mRecordCache.put(msg.arg1, ar.result);
+                    }
+                    // Hand the result to the handler of the EF, which counts the record load.
+                    response = obtainMessage(msg.arg2);
+                    AsyncResult.forMessage(response, ar.result, ar.exception);
+                    response.sendToTarget();
+                    break;
+
+                case EVENT_VERIFY_CACHED_EF_DONE:
+                    ar = (AsyncResult) msg.obj;
+                    if (ar.userObj == null || ar.userObj != mRecordCache) {
+                        // The card changed since, this is not the EF that was served.
+                        break;
+                    }
+                    if (ar.exception != null) {
+                        // Keep what was served but read the card again next time.
+                        logw("Failed verifying cached EF " + Integer.toHexString(msg.arg1),
+                                ar.exception);
+                        mRecordCache.remove(msg.arg1);
+                        break;
+                    }
+                    if (!mRecordCache.matches(msg.arg1, ar.result)) {
+                        log("Cached EF " + Integer.toHexString(msg.arg1) + " changed, reloading");
+                        mRecordCache.put(msg.arg1, ar.result);
+                        mRecordsToLoad++;
+                        response = obtainMessage(msg.arg2);
+                        AsyncResult.forMessage(response, ar.result, null);
+                        response.sendToTarget();
+                    }
+                    break;
+
                 default:
                     super.handleMessage(msg);   // IccRecords handles generic record load responses
             }
@@ -1329,6 +1377,9 @@ public class SIMRecords extends IccRecords {
 
     @Override
     protected void handleFileUpdate(int efid) {
+        if (mRecordCache != null) {
+            mRecordCache.remove(efid);
+        }
         switch(efid) {
             case EF_MBDN:
                 mRecordsToLoad++;
@@ -1343,8 +1394,7 @@ public class SIMRecords extends IccRecords {
             case EF_CSP_CPHS:
                 mRecordsToLoad++;
                 log("[CSP] SIM Refresh for EF_CSP_CPHS");
-                mFh.loadEFTransparent(EF_CSP_CPHS,
-                        obtainMessage(EVENT_GET_CSP_CPHS_DONE));
+                loadCacheableEf(EF_CSP_CPHS, false, EVENT_GET_CSP_CPHS_DONE);
                 break;
             case EF_FDN:
                 if (DBG) log("SIM Refresh called for EF_FDN");
@@ -1597,6 +1647,13 @@ public class SIMRecords extends IccRecords {
 
         if (DBG) log("fetchSimRecords " + mRecordsToLoad);
 
+        String iccId = getCardIccId();
+        if (iccId == null) {
+            mRecordCache = null;
+        } else if (mRecordCache == null || !iccId.equals(mRecordCache.getIccId())) {
+            mRecordCache = SimRecordCache.load(mContext, iccId);
+        }
+
         mCi.getIMSIForApp(mParentApp.getAid(), obtainMessage(EVENT_GET_IMSI_DONE));
         mRecordsToLoad++;
 
@@ -1636,40 +1693,40 @@ public class SIMRecords extends IccRecords {
 
         getSpnFsm(true, null);
 
-        mFh.loadEFTransparent(EF_SPDI, obtainMessage(EVENT_GET_SPDI_DONE));
+        loadCacheableEf(EF_SPDI, false, EVENT_GET_SPDI_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFLinearFixedAll(EF_PNN, obtainMessage(EVENT_GET_PNN_DONE));
+        loadCacheableEf(EF_PNN, true, EVENT_GET_PNN_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFLinearFixedAll(EF_OPL, obtainMessage(EVENT_GET_OPL_DONE));
+        loadCacheableEf(EF_OPL, true, EVENT_GET_OPL_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_SST, obtainMessage(EVENT_GET_SST_DONE));
+        loadCacheableEf(EF_SST, false, EVENT_GET_SST_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_INFO_CPHS, obtainMessage(EVENT_GET_INFO_CPHS_DONE));
+        loadCacheableEf(EF_INFO_CPHS, false, EVENT_GET_INFO_CPHS_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_CSP_CPHS,obtainMessage(EVENT_GET_CSP_CPHS_DONE));
+        loadCacheableEf(EF_CSP_CPHS, false, EVENT_GET_CSP_CPHS_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_GID1, obtainMessage(EVENT_GET_GID1_DONE));
+        loadCacheableEf(EF_GID1, false, EVENT_GET_GID1_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_GID2, obtainMessage(EVENT_GET_GID2_DONE));
+        loadCacheableEf(EF_GID2, false, EVENT_GET_GID2_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_PLMN_W_ACT, obtainMessage(EVENT_GET_PLMN_W_ACT_DONE));
+        loadCacheableEf(EF_PLMN_W_ACT, false, EVENT_GET_PLMN_W_ACT_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_OPLMN_W_ACT, obtainMessage(EVENT_GET_OPLMN_W_ACT_DONE));
+        loadCacheableEf(EF_OPLMN_W_ACT, false, EVENT_GET_OPLMN_W_ACT_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_HPLMN_W_ACT, obtainMessage(EVENT_GET_HPLMN_W_ACT_DONE));
+        loadCacheableEf(EF_HPLMN_W_ACT, false, EVENT_GET_HPLMN_W_ACT_DONE);
         mRecordsToLoad++;
 
-        mFh.loadEFTransparent(EF_EHPLMN, obtainMessage(EVENT_GET_EHPLMN_DONE));
+        loadCacheableEf(EF_EHPLMN, false, EVENT_GET_EHPLMN_DONE);
         mRecordsToLoad++;
 
         mFh.loadEFTransparent(EF_FPLMN, obtainMessage(
@@ -1701,6 +1758,51 @@ public class SIMRecords extends IccRecords {
         if (DBG) log("fetchSimRecords " + mRecordsToLoad + " requested: " + mRecordsRequested);
     }
 
+    /**
+     * Load an EF whose contents only change with a refresh from the card. If the contents are
+     * cached for the card, they are handed to the handler of the EF right away, and the card is
+     * read in the background to check that they are still current.
+     *
+     * @param efid The EF id.
+     * @param linearFixedAll {@code true} to load all the records of a linear fixed EF,
+     *        {@code false} to load a transparent EF.
+     * @param what The event handling the contents of the EF.
+     */
+    private void loadCacheableEf(int efid, boolean linearFixedAll, int what) {
+        if (mRecordCache == null) {
+            loadEf(efid, linearFixedAll, obtainMessage(what));
+            return;
+        }
+        Object cached = mRecordCache.get(efid);
+        if (cached == null) {
+            loadEf(efid, linearFixedAll,
+                    obtainMessage(EVENT_GET_CACHEABLE_EF_DONE, efid, what, mRecordCache));
+            return;
+        }
+        Message response = obtainMessage(what);
+        AsyncResult.forMessage(response, cached, null);
+        response.sendToTarget();
+        loadEf(efid, linearFixedAll,
+                obtainMessage(EVENT_VERIFY_CACHED_EF_DONE, efid, what, mRecordCache));
+    }
+
+    private void loadEf(int efid, boolean linearFixedAll, Message response) {
+        if (linearFixedAll) {
+            mFh.loadEFLinearFixedAll(efid, response);
+        } else {
+            mFh.loadEFTransparent(efid, response);
+        }
+    }
+
+    /** @return The ICCID the card reported in its status, or null if there is no card yet. */
+    private String getCardIccId() {
+        if (mParentApp == null) return null;
+        UiccPort port = UiccController.getInstance().getUiccPortForPhone(
+                mParentApp.getPhoneId());
+        String iccId = port == null ? null : port.getIccId();
+        return TextUtils.isEmpty(iccId) ? null : iccId;
+    }
+
     @Override
     @CarrierNameDisplayConditionBitmask
     public int getCarrierNameDisplayCondition() {
@@ -2124,6 +2226,7 @@ public class SIMRecords extends IccRecords {
         pw.println(" mEfCPHS_MWI[]=" + Arrays.toString(mEfCPHS_MWI));
         pw.println(" mEfCff[]=" + Arrays.toString(mEfCff));
         pw.println(" mEfCfis[]=" + Arrays.toString(mEfCfis));
+        pw.println(" mRecordCache=" + mRecordCache);
         pw.println(" mCarrierNameDisplayCondition=" + mCarrierNameDisplayCondition);
         pw.println(" mSpdi[]=" + mSpdi);
         pw.println(" mUsimServiceTable=" + mUsimServiceTable);
@@ -35,10 +35,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 
@@ -85,6 +87,12 @@ public class SimPhonebookRecordCache extends Handler {
     private Object mReadLock = new Object();
     private final ConcurrentSkipListMap<Integer, AdnRecord> mSimPbRecords =
             new ConcurrentSkipListMap<Integer, AdnRecord>();
+    // Read-only copy of mSimPbRecords in record ID order, handed out to every reader and only
+    // rebuilt when the records change.
+    private volatile List<AdnRecord> mSimPbRecordsSnapshot = Collections.emptyList();
+    // Record IDs by alpha tag and number, so that a search only compares a few records.
+    private final ConcurrentHashMap<String, Set<Integer>> mRecordIdsBySearchKey =
+            new ConcurrentHashMap<String, Set<Integer>>();
     private final List<UpdateRequest> mUpdateRequests =
             Collections.synchronizedList(new ArrayList<UpdateRequest>());
     // If true, clear the records in the cache and re-query from modem
@@ -135,7 +143,7 @@ public class SimPhonebookRecordCache extends Handler {
 
     private void reset() {
         mAdnCapacity.set(null);
-        mSimPbRecords.clear();
+        clearSimPbRecords();
         mIsCacheInvalidated.set(false);
         mIsRecordLoading.set(false);
         mIsInRetry.set(false);
@@ -153,10 +161,9 @@ public class SimPhonebookRecordCache extends Handler {
 
     private void notifyAndClearWaiters() {
         synchronized (mReadLock) {
+            List<AdnRecord> result = mSimPbRecordsSnapshot;
             for (Message response : mAdnLoadingWaiters){
                 if (response != null) {
-                    List<AdnRecord> result =
-                            new ArrayList<AdnRecord>(mSimPbRecords.values());
                     AsyncResult.forMessage(response, result, null);
                     response.sendToTarget();
                 }
@@ -248,13 +255,13 @@ public class SimPhonebookRecordCache extends Handler {
 
     @VisibleForTesting
     public List<AdnRecord> getAdnRecords() {
-        return mSimPbRecords.values().stream().collect(Collectors.toList());
+        return mSimPbRecordsSnapshot;
     }
 
     @VisibleForTesting
     public void clear() {
         if (!ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.clear();
+            clearSimPbRecords();
         }
     }
 
@@ -287,12 +294,7 @@ public class SimPhonebookRecordCache extends Handler {
         int recordId = INVALID_RECORD_ID; // The ID isn't specified by caller
 
         if (oldAdn != null && !oldAdn.isEmpty()) {
-            for(AdnRecord adn : mSimPbRecords.values()) {
-                if (oldAdn.isEqual(adn)) {
-                    recordId = adn.getRecId();
-                    break;
-                }
-            }
+            recordId = findSimPbRecordId(oldAdn);
         }
         if (recordId == INVALID_RECORD_ID
                 && mAdnCapacity.get() != null && mAdnCapacity.get().isSimFull()) {
@@ -465,9 +467,10 @@ public class SimPhonebookRecordCache extends Handler {
             logd("inflateWithEmptyRecords");
             if (capacity != null && mSimPbRecords.isEmpty()) {
                 for (int i = 1; i <= capacity.getMaxAdnCount(); i++) {
-                    mSimPbRecords.putIfAbsent(i,
+                    putSimPbRecord(i,
                             new AdnRecord(IccConstants.EF_ADN, i, null, null, null, null));
                 }
+                publishSimPbRecords();
             }
         }
     }
@@ -562,7 +565,8 @@ public class SimPhonebookRecordCache extends Handler {
                     record.getEmails(),
                     record.getAdditionalNumbers());})
                     .collect(Collectors.toMap(AdnRecord::getRecId, adn -> adn));
-            mSimPbRecords.putAll(newRecords);
+            newRecords.forEach(this::putSimPbRecord);
+            publishSimPbRecords();
         }
     }
 
@@ -578,35 +582,97 @@ public class SimPhonebookRecordCache extends Handler {
     private void addOrChangeSimPbRecord(AdnRecord record, int recordId) {
         logd("Record number for the added or changed ADN is " + recordId);
         record.setRecId(recordId);
-        if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.replace(recordId, record);
-        } else {
-            mSimPbRecords.put(recordId, record);
+        if (!ENABLE_INFLATE_WITH_EMPTY_RECORDS || mSimPbRecords.containsKey(recordId)) {
+            putSimPbRecord(recordId, record);
+            publishSimPbRecords();
         }
     }
 
 
     private void deleteSimPbRecord(int recordId) {
         logd("Record number for the deleted ADN is " + recordId);
+        if (!mSimPbRecords.containsKey(recordId)) {
+            return;
+        }
         if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.replace(recordId,
+            putSimPbRecord(recordId,
                     new AdnRecord(IccConstants.EF_ADN, recordId, null, null, null, null));
         } else {
-            if (mSimPbRecords.containsKey(recordId)) {
-                mSimPbRecords.remove(recordId);
-            }
+            unindexSimPbRecord(recordId, mSimPbRecords.remove(recordId));
         }
+        publishSimPbRecords();
     }
 
     private void invalidateSimPbCache() {
         logd("invalidateSimPbCache");
         mIsCacheInvalidated.set(true);
         if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.replaceAll((k, v) ->
-                    new AdnRecord(IccConstants.EF_ADN, k, null, null, null, null));
+            for (Integer recordId : mSimPbRecords.keySet()) {
+                putSimPbRecord(recordId,
+                        new AdnRecord(IccConstants.EF_ADN, recordId, null, null, null, null));
+            }
+            publishSimPbRecords();
         } else {
-            mSimPbRecords.clear();
+            clearSimPbRecords();
+        }
+    }
+
+    /**
+     * Store a record and index it for {@link #findSimPbRecordId}. The change is only visible to
+     * readers after {@link #publishSimPbRecords}.
+     */
+    private void putSimPbRecord(int recordId, AdnRecord adn) {
+        unindexSimPbRecord(recordId, mSimPbRecords.put(recordId, adn));
+        mRecordIdsBySearchKey.computeIfAbsent(getSearchKey(adn),
+                key -> ConcurrentHashMap.newKeySet()).add(recordId);
+    }
+
+    private void unindexSimPbRecord(int recordId, AdnRecord adn) {
+        if (adn == null) {
+            return;
         }
+        mRecordIdsBySearchKey.computeIfPresent(getSearchKey(adn), (key, recordIds) -> {
+            recordIds.remove(recordId);
+            return recordIds.isEmpty() ? null : recordIds;
+        });
+    }
+
+    private void clearSimPbRecords() {
+        mSimPbRecords.clear();
+        mRecordIdsBySearchKey.clear();
+        publishSimPbRecords();
+    }
+
+    private void publishSimPbRecords() {
+        mSimPbRecordsSnapshot =
+                Collections.unmodifiableList(new ArrayList<AdnRecord>(mSimPbRecords.values()));
+    }
+
+    /**
+     * @return The lowest ID of the records equal to the given one as per
+     * {@link AdnRecord#isEqual}, or {@link #INVALID_RECORD_ID} if there is none.
+     */
+    private int findSimPbRecordId(AdnRecord adn) {
+        int recordId = INVALID_RECORD_ID;
+        Set<Integer> candidates = mRecordIdsBySearchKey.get(getSearchKey(adn));
+        if (candidates == null) {
+            return recordId;
+        }
+        for (int candidate : candidates) {
+            AdnRecord record = mSimPbRecords.get(candidate);
+            // The index may lag behind the records, so confirm each candidate.
+            if (record != null && adn.isEqual(record)
+                    && (recordId == INVALID_RECORD_ID || candidate < recordId)) {
+                recordId = candidate;
+            }
+        }
+        return recordId;
+    }
+
+    /** Records that are equal as per {@link AdnRecord#isEqual} have the same key. */
+    private static String getSearchKey(AdnRecord adn) {
+        return TextUtils.emptyIfNull(adn.getAlphaTag()) + '\n'
+                + TextUtils.emptyIfNull(adn.getNumber());
     }
 
     private void logd(String msg) {
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.android.telephony.Rlog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contents of the static EFs of one card, kept across reboots and keyed by the card ICCID.
+ *
+ * {@link SIMRecords} answers the reads of these EFs from the cache as soon as the records start
+ * loading, then reads the EFs from the card and updates the cache and the records if they
+ * changed. Entries are dropped when the card reports that the EF changed.
+ *
+ * The contents of an EF are either the bytes of a transparent EF or the list of records of a
+ * linear fixed EF, as {@link IccFileHandler} returns them.
+ */
+class SimRecordCache {
+    private static final String LOG_TAG = "SimRecordCache";
+
+    private static final String SHARED_PREFS_NAME = "sim_record_cache_prefs";
+    private static final String KEY_ICCID_PREFIX = "iccid_";
+    /** Cached cards, least recently loaded first. */
+    private static final String KEY_ICCIDS = "iccids";
+
+    /** Number of cards kept. Swapping between more cards than this only costs the reads. */
+    private static final int MAX_CARDS = 4;
+
+    private static final char TRANSPARENT = 'T';
+    private static final char LINEAR_FIXED = 'L';
+
+    private final SharedPreferences mPrefs;
+    private final String mIccId;
+
+    /** byte[] or ArrayList<byte[]> by EF id. */
+    private final SparseArray<Object> mContents = new SparseArray<>();
+
+    private SimRecordCache(@NonNull SharedPreferences prefs, @NonNull String iccId) {
+        mPrefs = prefs;
+        mIccId = iccId;
+    }
+
+    /**
+     * Load the cached EFs of a card.
+     *
+     * @param context The context.
+     * @param iccId The ICCID of the card.
+     * @return The cache of the card, empty if nothing was cached for it.
+     */
+    @NonNull
+    static SimRecordCache load(@NonNull Context context, @NonNull String iccId) {
+        SharedPreferences prefs =
+                context.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+        SimRecordCache cache = new SimRecordCache(prefs, iccId);
+        cache.decode(prefs.getString(KEY_ICCID_PREFIX + iccId, ""));
+        cache.markRecentlyUsed();
+        return cache;
+    }
+
+    /** @return The ICCID of the card. */
+    @NonNull
+    String getIccId() {
+        return mIccId;
+    }
+
+    /**
+     * @param efid The EF id.
+     * @return A copy of the cached contents, or {@code null} if the EF is not cached.
+     */
+    @Nullable
+    Object get(int efid) {
+        return copy(mContents.get(efid));
+    }
+
+    /**
+     * @param efid The EF id.
+     * @param contents The contents read from the card.
+     * @return {@code true} if the contents are the ones cached for the EF.
+     */
+    boolean matches(int efid, @Nullable Object contents) {
+        Object cached = mContents.get(efid);
+        if (cached instanceof byte[] && contents instanceof byte[]) {
+            return Arrays.equals((byte[]) cached, (byte[]) contents);
+        }
+        if (cached instanceof List && contents instanceof List) {
+            List<?> cachedRecords = (List<?>) cached;
+            List<?> records = (List<?>) contents;
+            if (cachedRecords.size() != records.size()) return false;
+            for (int i = 0; i < records.size(); i++) {
+                if (!Arrays.equals((byte[]) cachedRecords.get(i), (byte[]) records.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cache the contents of an EF.
+     *
+     * @param efid The EF id.
+     * @param contents The contents read from the card, a byte[] or an ArrayList<byte[]>.
+     */
+    void put(int efid, @Nullable Object contents) {
+        Object copy = copy(contents);
+        if (copy == null) {
+            remove(efid);
+            return;
+        }
+        mContents.put(efid, copy);
+        persist();
+    }
+
+    /** Drop the cached contents of an EF. */
+    void remove(int efid) {
+        if (mContents.indexOfKey(efid) < 0) return;
+        mContents.remove(efid);
+        persist();
+    }
+
+    /** Drop all the cached EFs of the card. */
+    void clear() {
+        if (mContents.size() == 0) return;
+        mContents.clear();
+        persist();
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static Object copy(@Nullable Object contents) {
+        if (contents instanceof byte[]) {
+            return ((byte[]) contents).clone();
+        }
+        if (contents instanceof List) {
+            ArrayList<byte[]> records = new ArrayList<>();
+            for (Object record : (List<Object>) contents) {
+                if (!(record instanceof byte[])) return null;
+                records.add(((byte[]) record).clone());
+            }
+            return records;
+        }
+        return null;
+    }
+
+    private void persist() {
+        // apply() only writes the latest state, so a burst of updates costs a single write.
+        mPrefs.edit().putString(KEY_ICCID_PREFIX + mIccId, encode()).apply();
+    }
+
+    private void markRecentlyUsed() {
+        synchronized (SimRecordCache.class) {
+            List<String> iccIds = new ArrayList<>(
+                    Arrays.asList(TextUtils.split(mPrefs.getString(KEY_ICCIDS, ""), ",")));
+            iccIds.remove(mIccId);
+            iccIds.add(mIccId);
+            SharedPreferences.Editor editor = mPrefs.edit();
+            while (iccIds.size() > MAX_CARDS) {
+                editor.remove(KEY_ICCID_PREFIX + iccIds.remove(0));
+            }
+            editor.putString(KEY_ICCIDS, TextUtils.join(",", iccIds)).apply();
+        }
+    }
+
+    /** Entries are "efid=T<hex>" or "efid=L<hex>,<hex>,...", separated by ';'. */
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mContents.size(); i++) {
+            if (i > 0) sb.append(';');
+            sb.append(Integer.toHexString(mContents.keyAt(i))).append('=');
+            Object contents = mContents.valueAt(i);
+            if (contents instanceof byte[]) {
+                sb.append(TRANSPARENT).append(IccUtils.bytesToHexString((byte[]) contents));
+            } else {
+                sb.append(LINEAR_FIXED);
+                List<?> records = (List<?>) contents;
+                for (int j = 0; j < records.size(); j++) {
+                    if (j > 0) sb.append(',');
+                    sb.append(IccUtils.bytesToHexString((byte[]) records.get(j)));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void decode(@NonNull String encoded) {
+        if (encoded.isEmpty()) return;
+        try {
+            for (String entry : encoded.split(";")) {
+                int separator = entry.indexOf('=');
+                int efid = Integer.parseInt(entry.substring(0, separator), 16);
+                char type = entry.charAt(separator + 1);
+                String value = entry.substring(separator + 2);
+                if (type == TRANSPARENT) {
+                    mContents.put(efid, hexToBytes(value));
+                } else if (type == LINEAR_FIXED) {
+                    ArrayList<byte[]> records = new ArrayList<>();
+                    if (!value.isEmpty()) {
+                        for (String record : value.split(",", -1)) {
+                            records.add(hexToBytes(record));
+                        }
+                    }
+                    mContents.put(efid, records);
+                }
+            }
+        } catch (RuntimeException e) {
+            // A corrupt entry only means the EFs are read from the card again.
+            Rlog.w(LOG_TAG, "Dropping unreadable cache entry", e);
+            mContents.clear();
+        }
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        return hex.isEmpty() ? new byte[0] : IccUtils.hexStringToBytes(hex);
+    }
+
+    @Override
+    public String toString() {
+        return "SimRecordCache{cachedEfs=" + mContents.size() + "}";
+    }
+}
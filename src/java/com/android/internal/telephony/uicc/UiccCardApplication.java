@@ -24,6 +24,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Registrant;
 import android.os.RegistrantList;
+import android.os.SystemProperties;
 
 import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.CommandsInterface;
@@ -54,6 +55,11 @@ public class UiccCardApplication {
     private static final int EVENT_PIN2_PUK2_DONE = 8;
     private static final int EVENT_RADIO_UNAVAILABLE = 9;
 
+    // Number of READ RECORD requests the file handler keeps in flight when loading all records of
+    // an EF. Only raise it for cards known to handle pipelined reads.
+    private static final String PROPERTY_MAX_PENDING_RECORD_READS =
+            "persist.radio.sim_max_pending_record_reads";
+
     /**
      * These values are for authContext (parameter P2) per 3GPP TS 31.102 (Section 7.1.2)
      */
@@ -212,20 +218,29 @@ public class UiccCardApplication {
     }
 
     private IccFileHandler createIccFileHandler(AppType type) {
+        IccFileHandler fh;
         switch (type) {
             case APPTYPE_SIM:
-                return new SIMFileHandler(this, mAid, mCi);
+                fh = new SIMFileHandler(this, mAid, mCi);
+                break;
             case APPTYPE_RUIM:
-                return new RuimFileHandler(this, mAid, mCi);
+                fh = new RuimFileHandler(this, mAid, mCi);
+                break;
             case APPTYPE_USIM:
-                return new UsimFileHandler(this, mAid, mCi);
+                fh = new UsimFileHandler(this, mAid, mCi);
+                break;
             case APPTYPE_CSIM:
-                return new CsimFileHandler(this, mAid, mCi);
+                fh = new CsimFileHandler(this, mAid, mCi);
+                break;
             case APPTYPE_ISIM:
-                return new IsimFileHandler(this, mAid, mCi);
+                fh = new IsimFileHandler(this, mAid, mCi);
+                break;
             default:
                 return null;
         }
+        fh.setMaxPendingRecordReads(SystemProperties.getInt(PROPERTY_MAX_PENDING_RECORD_READS,
+                IccFileHandler.DEFAULT_MAX_PENDING_RECORD_READS));
+        return fh;
     }
 
     /** Assumes mLock is held. */
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.telephony.TelephonyManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CarrierMatchingRuleIndex.MccMncRules;
+import com.android.internal.telephony.CarrierResolver.CarrierMatchingRule;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CarrierMatchingRuleIndexTest {
+    private static final String MCCMNC = "310260";
+
+    private static CarrierMatchingRule rule(String mccmnc, String imsi, String iccid, String gid1,
+            String spn, int cid) {
+        return new CarrierMatchingRule(mccmnc, imsi, iccid, gid1, null, null, spn, null, null,
+                cid, null, TelephonyManager.UNKNOWN_CARRIER_ID);
+    }
+
+    private static CarrierMatchingRule subscription(String imsi, String iccid, String gid1,
+            String spn) {
+        return rule(MCCMNC, imsi, iccid, gid1, spn, TelephonyManager.UNKNOWN_CARRIER_ID);
+    }
+
+    @After
+    public void tearDown() {
+        CarrierMatchingRuleIndex.invalidate();
+    }
+
+    @Test
+    @SmallTest
+    public void testScoresMatchUncompiledRules() {
+        List<CarrierMatchingRule> rules = Arrays.asList(
+                rule(MCCMNC, null, null, null, null, 1),
+                rule(MCCMNC, null, null, "DDFF", null, 2),
+                rule(MCCMNC, null, null, "ddff01", null, 3),
+                rule(MCCMNC, null, null, "", null, 4),
+                rule(MCCMNC, null, "8901260", null, null, 5),
+                rule(MCCMNC, null, "89012609", "ddff", null, 6),
+                rule(MCCMNC, "310260xx12", null, null, null, 7),
+                rule(MCCMNC, null, null, null, "tmo", 8),
+                rule("310410", null, null, null, null, 9));
+        MccMncRules compiled = new MccMncRules(MCCMNC, new ArrayList<>(rules));
+
+        List<CarrierMatchingRule> subscriptions = Arrays.asList(
+                subscription(null, null, null, null),
+                subscription("310260551234", "8901260912345", "DDFF01AB", "TMO"),
+                subscription("310260001234", "8901260012345", "ddff", null),
+                subscription("310260991299", "8901", "", "other"),
+                subscription("", "89012609", "dd", "tmo"));
+        for (CarrierMatchingRule subscription : subscriptions) {
+            int[] scores = compiled.score(subscription);
+            assertEquals(rules.size(), scores.length);
+            for (int i = 0; i < rules.size(); i++) {
+                assertEquals(subscription + " against " + rules.get(i),
+                        rules.get(i).score(subscription), scores[i]);
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testMccMncOnlyRule() {
+        MccMncRules compiled = new MccMncRules(MCCMNC, Arrays.asList(
+                rule("310410", null, null, null, null, 1),
+                rule(MCCMNC, null, null, "ddff", null, 2),
+                rule(MCCMNC, null, null, null, null, 3)));
+        assertSame(compiled.getRules().get(2), compiled.getMccMncOnlyRule());
+
+        assertNull(new MccMncRules(MCCMNC, Arrays.asList(
+                rule(MCCMNC, null, null, null, "tmo", 1))).getMccMncOnlyRule());
+    }
+
+    @Test
+    @SmallTest
+    public void testIndexIsPerVersion() {
+        CarrierMatchingRuleIndex index = CarrierMatchingRuleIndex.forVersion(1);
+        MccMncRules compiled = index.put(MCCMNC, new ArrayList<>());
+        assertSame(index, CarrierMatchingRuleIndex.forVersion(1));
+        assertSame(compiled, CarrierMatchingRuleIndex.forVersion(1).get(MCCMNC));
+
+        CarrierMatchingRuleIndex newIndex = CarrierMatchingRuleIndex.forVersion(2);
+        assertNotSame(index, newIndex);
+        assertNull(newIndex.get(MCCMNC));
+
+        CarrierMatchingRuleIndex.invalidate();
+        assertNull(CarrierMatchingRuleIndex.forVersion(2).get(MCCMNC));
+    }
+}
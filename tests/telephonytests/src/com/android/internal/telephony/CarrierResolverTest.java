@@ -90,11 +90,13 @@ public class CarrierResolverTest extends TelephonyTest {
     private static final int PREFER_APN_SET_EVENT = 3;
 
     private CarrierResolver mCarrierResolver;
+    private int mCarrierIdQueryCount;
 
     @Before
     public void setUp() throws Exception {
         logd("CarrierResolverTest +Setup!");
         super.setUp(getClass().getSimpleName());
+        CarrierMatchingRuleIndex.invalidate();
         ((MockContentResolver) mContext.getContentResolver()).addProvider(
                 CarrierId.AUTHORITY, new CarrierIdContentProvider());
         mCarrierResolver = new CarrierResolver(mPhone);
@@ -269,6 +271,31 @@ public class CarrierResolverTest extends TelephonyTest {
                 IccCardConstants.INTENT_VALUE_ICC_LOADED);
     }
 
+    @Test
+    @SmallTest
+    public void testCarrierIdFromMccMncAnsweredFromSharedRules() {
+        CarrierMatchingRuleIndex.invalidate();
+        mCarrierIdQueryCount = 0;
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromMccMnc(mContext, MCCMNC));
+        // One query for the table version, one for the rules of the mccmnc.
+        assertEquals(2, mCarrierIdQueryCount);
+
+        assertEquals(NAME, CarrierResolver.getCarrierNameFromMccMnc(mContext, MCCMNC));
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromMccMnc(mContext, MCCMNC));
+        assertEquals(2, mCarrierIdQueryCount);
+
+        // An mccmnc without an mccmnc-only rule is a single query, and no fallback query.
+        assertEquals(CID_UNKNOWN, CarrierResolver.getCarrierIdFromMccMnc(mContext, "00101"));
+        assertEquals(3, mCarrierIdQueryCount);
+        assertNull(CarrierResolver.getCarrierNameFromMccMnc(mContext, "00101"));
+        assertEquals(3, mCarrierIdQueryCount);
+
+        // A carrier id table change queries the version again.
+        CarrierMatchingRuleIndex.invalidate();
+        assertEquals(CID_VZW, CarrierResolver.getCarrierIdFromMccMnc(mContext, MCCMNC));
+        assertEquals(5, mCarrierIdQueryCount);
+    }
+
     private class CarrierIdContentProvider extends MockContentProvider {
         @Override
         public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
@@ -282,6 +309,7 @@ public class CarrierResolverTest extends TelephonyTest {
 
             if (CarrierId.All.CONTENT_URI.getAuthority().equals(
                     uri.getAuthority())) {
+                mCarrierIdQueryCount++;
                 MatrixCursor mc = new MatrixCursor(
                         new String[]{CarrierId._ID,
                                 CarrierId.All.MCCMNC,
@@ -67,6 +67,9 @@ public class ClientWakelockAccountantTest extends TestCase {
         Assert.assertEquals(600, mClient.mRequestStats.getCompletedRequestsWakelockTime());
         Assert.assertEquals(0, mClient.updatePendingRequestWakelockTime(0));
         Assert.assertEquals(2, mClient.mRequestStats.getRequestHistograms().size());
+        LatencyHistogram.Snapshot snapshot = mClient.mWakelockTimeHistogram.snapshot();
+        Assert.assertEquals(2, snapshot.count);
+        Assert.assertEquals(300, snapshot.mean);
     }
 
     public void testStopAllPendingRequests() throws Exception {
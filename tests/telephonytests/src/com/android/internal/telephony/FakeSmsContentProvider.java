@@ -18,7 +18,10 @@ package com.android.internal.telephony;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -27,6 +30,8 @@ import android.net.Uri;
 import android.telephony.SubscriptionManager;
 import android.test.mock.MockContentProvider;
 
+import java.util.ArrayList;
+
 public class FakeSmsContentProvider extends MockContentProvider {
     private static final String RAW_TABLE_NAME = "raw";
     public SQLiteOpenHelper mDbHelper = new InMemorySmsDbHelper();
@@ -107,6 +112,24 @@ public class FakeSmsContentProvider extends MockContentProvider {
         return count;
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull String authority,
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            results[i] = operations.get(i).apply(this, results, i);
+        }
+        return results;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return applyBatch("sms", operations);
+    }
+
     @Override
     public void shutdown() {
         mDbHelper.close();
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    @SmallTest
+    public void testEmpty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.p50);
+        assertEquals(0, snapshot.max);
+    }
+
+    @Test
+    @SmallTest
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.count);
+        assertEquals(5, snapshot.mean);
+        assertEquals(5, snapshot.p50);
+        assertEquals(10, snapshot.p95);
+        assertEquals(10, snapshot.max);
+    }
+
+    @Test
+    @SmallTest
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertWithinEighth(500, snapshot.p50);
+        assertWithinEighth(950, snapshot.p95);
+        assertWithinEighth(990, snapshot.p99);
+        assertEquals(1000, snapshot.max);
+    }
+
+    @Test
+    @SmallTest
+    public void testLargeAndNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Integer.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count);
+        assertEquals(0, snapshot.p50);
+        assertEquals(Integer.MAX_VALUE, snapshot.p99);
+        assertEquals(Integer.MAX_VALUE, snapshot.max);
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+    }
+
+    private static void assertWithinEighth(int expected, int actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
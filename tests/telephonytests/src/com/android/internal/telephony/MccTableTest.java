@@ -17,6 +17,8 @@
 package com.android.internal.telephony;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import android.content.Context;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -117,4 +119,43 @@ public class MccTableTest {
         // mcc not defined, hence default
         assertEquals(2, MccTable.smallestDigitsMccForMnc(2000));
     }
+
+    @SmallTest
+    @Test
+    public void testCountryCodeForMccString() throws Exception {
+        assertEquals("us", MccTable.countryCodeForMcc("310"));
+        assertEquals("us", MccTable.countryCodeForMcc("+310"));
+        assertEquals("us", MccTable.countryCodeForMcc("0310"));
+        assertEquals("", MccTable.countryCodeForMcc("-310"));
+        assertEquals("", MccTable.countryCodeForMcc("31O"));
+        assertEquals("", MccTable.countryCodeForMcc("3100"));
+        assertEquals("", MccTable.countryCodeForMcc("+"));
+        assertEquals("", MccTable.countryCodeForMcc(""));
+    }
+
+    @SmallTest
+    @Test
+    public void testEntryForMccMatchesTable() throws Exception {
+        for (int mcc = -1; mcc <= 1000; mcc++) {
+            MccTable.MccEntry expected = null;
+            for (MccTable.MccEntry entry : MccTable.sTable) {
+                if (entry.mMcc == mcc) {
+                    expected = entry;
+                    break;
+                }
+            }
+            assertSame("mcc " + mcc, expected, MccTable.entryForMcc(mcc));
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testFromOperatorNumeric() throws Exception {
+        MccMnc mccMnc = MccMnc.fromOperatorNumeric("310260");
+        assertEquals(new MccMnc("310", "260"), mccMnc);
+        assertSame(mccMnc, MccMnc.fromOperatorNumeric("310260"));
+        assertEquals(new MccMnc("310", ""), MccMnc.fromOperatorNumeric("310"));
+        assertNull(MccMnc.fromOperatorNumeric("31"));
+        assertEquals(new MccMnc("310", "260"), MccMnc.fromOperatorNumeric("310260"));
+    }
 }
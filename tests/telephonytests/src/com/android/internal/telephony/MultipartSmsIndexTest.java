@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultipartSmsIndexTest {
+    private static final String ADDRESS = "1234567890";
+    private static final int SUB_ID = 1;
+    private static final int OTHER_SUB_ID = 2;
+
+    private MultipartSmsIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new MultipartSmsIndex();
+    }
+
+    private static InboundSmsTracker segment(int sequence, int count) {
+        return segment(sequence, count, SUB_ID);
+    }
+
+    private static InboundSmsTracker segment(int sequence, int count, int subId) {
+        InboundSmsTracker tracker = mock(InboundSmsTracker.class);
+        doReturn(InboundSmsTracker.SELECT_BY_REFERENCE).when(tracker).getQueryForSegments();
+        doReturn(ADDRESS).when(tracker).getAddress();
+        doReturn(ADDRESS).when(tracker).getDisplayAddress();
+        doReturn(7).when(tracker).getReferenceNumber();
+        doReturn(count).when(tracker).getMessageCount();
+        doReturn(sequence).when(tracker).getSequenceNumber();
+        doReturn(1).when(tracker).getIndexOffset();
+        doReturn(new byte[] {(byte) sequence}).when(tracker).getPdu();
+        doReturn((long) sequence).when(tracker).getTimestamp();
+        doReturn(-1).when(tracker).getDestPort();
+        doReturn(subId).when(tracker).getSubId();
+        return tracker;
+    }
+
+    @Test
+    @SmallTest
+    public void testSegmentsAreOnlyAddedToTrackedMessages() {
+        assertFalse(mIndex.addSegment(segment(1, 2)));
+        assertNull(mIndex.get(segment(1, 2)));
+
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        assertTrue(mIndex.addSegment(segment(1, 2)));
+        assertFalse(mIndex.get(segment(2, 2)).isComplete());
+    }
+
+    @Test
+    @SmallTest
+    public void testReassembly() {
+        mIndex.put(segment(2, 3), new MultipartSmsIndex.PendingMessage(3),
+                mIndex.getGeneration());
+        mIndex.addSegment(segment(3, 3));
+        mIndex.addSegment(segment(1, 3));
+        MultipartSmsIndex.PendingMessage pending = mIndex.get(segment(2, 3));
+        assertFalse(pending.isComplete());
+        assertTrue(pending.isKnownAbsent(1));
+        assertFalse(pending.isKnownAbsent(0));
+
+        mIndex.addSegment(segment(2, 3));
+        assertTrue(pending.isComplete());
+        assertArrayEquals(new byte[] {1}, pending.mPdus[0]);
+        assertArrayEquals(new byte[] {2}, pending.mPdus[1]);
+        assertArrayEquals(new byte[] {3}, pending.mPdus[2]);
+        assertArrayEquals(new long[] {1, 2, 3}, pending.mTimestamps);
+    }
+
+    @Test
+    @SmallTest
+    public void testInvalidSequenceIsNotStored() {
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        assertFalse(mIndex.addSegment(segment(5, 2)));
+        MultipartSmsIndex.PendingMessage pending = mIndex.get(segment(1, 2));
+        assertEquals(0, pending.mReceived);
+        assertFalse(pending.isKnownAbsent(4));
+    }
+
+    @Test
+    @SmallTest
+    public void testDuplicateSegmentReplacesOld() {
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        mIndex.addSegment(segment(1, 2));
+        mIndex.addSegment(segment(1, 2));
+        assertEquals(1, mIndex.get(segment(1, 2)).mReceived);
+    }
+
+    @Test
+    @SmallTest
+    public void testRawTableDeleteByReferenceRemovesMessage() {
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+
+        // A delete of a single segment does not drop the message.
+        mIndex.onRawTableDelete("address=? AND reference_number=? AND count=? AND sequence=?",
+                new String[] {ADDRESS, "7", "2", "1"});
+        assertEquals(1, mIndex.size());
+
+        mIndex.onRawTableDelete(InboundSmsTracker.SELECT_BY_REFERENCE,
+                new String[] {ADDRESS, "7", "2"});
+        assertEquals(0, mIndex.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testSegmentsOfDifferentSubIdsAreReassembled() {
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        mIndex.addSegment(segment(1, 2, SUB_ID));
+        mIndex.addSegment(segment(2, 2, OTHER_SUB_ID));
+        assertTrue(mIndex.get(segment(1, 2)).isComplete());
+    }
+
+    @Test
+    @SmallTest
+    public void testChangesThroughOtherIndexInvalidateMessage() {
+        MultipartSmsIndex otherIndex = new MultipartSmsIndex();
+
+        // A segment inserted by the handler of another phone drops the message.
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        otherIndex.addSegment(segment(2, 2, OTHER_SUB_ID));
+        assertNull(mIndex.get(segment(1, 2)));
+
+        // So does a delete by reference through another index.
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        otherIndex.onRawTableDelete(InboundSmsTracker.SELECT_BY_REFERENCE,
+                new String[] {ADDRESS, "7", "2"});
+        assertNull(mIndex.get(segment(1, 2)));
+
+        // A message loaded across an invalidation is not tracked.
+        int generation = mIndex.getGeneration();
+        otherIndex.addSegment(segment(2, 2, OTHER_SUB_ID));
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2), generation);
+        assertNull(mIndex.get(segment(1, 2)));
+
+        // Changes through this index do not invalidate its own messages.
+        mIndex.put(segment(1, 2), new MultipartSmsIndex.PendingMessage(2),
+                mIndex.getGeneration());
+        assertTrue(mIndex.addSegment(segment(1, 2)));
+        assertEquals(1, mIndex.get(segment(1, 2)).mReceived);
+    }
+}
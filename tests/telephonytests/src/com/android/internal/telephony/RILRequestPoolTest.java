@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.WorkSource;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+public class RILRequestPoolTest {
+
+    private static RILRequest obtain() {
+        return RILRequest.obtain(RILConstants.RIL_REQUEST_GET_CELL_INFO_LIST, null,
+                new WorkSource());
+    }
+
+    @Test
+    public void testEmptyPool_reportsMiss() {
+        RILRequestPool pool = new RILRequestPool(2);
+        assertNull(pool.acquire());
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void testReleaseThenAcquire_reusesRequest() {
+        RILRequestPool pool = new RILRequestPool(2);
+        RILRequest rr = obtain();
+        assertTrue(pool.release(rr));
+        assertSame(rr, pool.acquire());
+        assertEquals(1, pool.getHitCount());
+        assertNull(pool.acquire());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void testFullPool_dropsRelease() {
+        RILRequestPool pool = new RILRequestPool(2);
+        assertTrue(pool.release(obtain()));
+        assertTrue(pool.release(obtain()));
+        assertFalse(pool.release(obtain()));
+        assertEquals(1, pool.getDropCount());
+    }
+
+    @Test
+    public void testCapacityIsClamped() {
+        assertEquals(1, new RILRequestPool(0).getCapacity());
+        assertEquals(RILRequestPool.MAX_CAPACITY,
+                new RILRequestPool(RILRequestPool.MAX_CAPACITY + 1).getCapacity());
+    }
+
+    @Test
+    public void testConcurrentAcquire_handsOutEachRequestOnce() throws Exception {
+        int threads = 4;
+        int perThread = 16;
+        RILRequestPool pool = new RILRequestPool(threads * perThread);
+        for (int i = 0; i < threads * perThread; i++) {
+            assertTrue(pool.release(obtain()));
+        }
+
+        Set<RILRequest> acquired = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    acquired.add(pool.acquire());
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * perThread, acquired.size());
+        assertEquals(threads * perThread, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+}
@@ -1467,6 +1467,39 @@ public class RILTest extends TelephonyTest {
         assertFalse(mRILInstance.getWakeLock(RIL.FOR_WAKELOCK).isHeld());
     }
 
+    @Test
+    public void testWakeLockHoldNotRecordedAfterTimeout() {
+        RILRequest rr = (RILRequest) invokeMethod(
+                mRILInstance,
+                "obtainRequest",
+                new Class<?>[] {Integer.TYPE, Message.class, WorkSource.class},
+                new Object[] {RIL_REQUEST_GET_SIM_STATUS, obtainMessage(), new WorkSource()});
+        moveTimeForward(DEFAULT_WAKE_LOCK_TIMEOUT_MS);
+        processAllMessages();
+        assertFalse(mRILInstance.getWakeLock(RIL.FOR_WAKELOCK).isHeld());
+
+        // The response comes after the timeout released the wakelock, so the response latency
+        // is not a wakelock hold.
+        RadioResponseInfo responseInfo = createFakeRadioResponseInfo(
+                rr.getSerial(), RadioError.NONE, RadioResponseType.SOLICITED);
+        mRILInstance.processResponseDone(
+                mRILInstance.processResponse(responseInfo), responseInfo, null);
+        assertNull(mRILInstance.mWakelockStats.getHoldSnapshot(RIL_REQUEST_GET_SIM_STATUS));
+
+        // A request answered before the timeout is recorded.
+        rr = (RILRequest) invokeMethod(
+                mRILInstance,
+                "obtainRequest",
+                new Class<?>[] {Integer.TYPE, Message.class, WorkSource.class},
+                new Object[] {RIL_REQUEST_GET_SIM_STATUS, obtainMessage(), new WorkSource()});
+        responseInfo = createFakeRadioResponseInfo(
+                rr.getSerial(), RadioError.NONE, RadioResponseType.SOLICITED);
+        mRILInstance.processResponseDone(
+                mRILInstance.processResponse(responseInfo), responseInfo, null);
+        assertEquals(1,
+                mRILInstance.mWakelockStats.getHoldSnapshot(RIL_REQUEST_GET_SIM_STATUS).count);
+    }
+
     @Test
     public void testGetBarringInfo() throws Exception {
         // Not supported on Radio 1.0.
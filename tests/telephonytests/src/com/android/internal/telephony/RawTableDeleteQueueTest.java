@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Telephony;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RawTableDeleteQueueTest extends TelephonyTest {
+    private static final Uri RAW_URI = Uri.withAppendedPath(Telephony.Sms.CONTENT_URI, "raw");
+    private static final int MAX_PENDING = 4;
+
+    private FakeSmsContentProvider mContentProvider;
+    private RawTableDeleteQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mContentProvider = new FakeSmsContentProvider();
+        ((MockContentResolver) mContext.getContentResolver()).addProvider(
+                Telephony.Sms.CONTENT_URI.getAuthority(), mContentProvider);
+        mQueue = new RawTableDeleteQueue(mContext.getContentResolver(), RAW_URI, MAX_PENDING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContentProvider.shutdown();
+        mContentProvider = null;
+        mQueue = null;
+        super.tearDown();
+    }
+
+    private String insertRow() {
+        ContentValues values = new ContentValues();
+        values.put("address", "1234567890");
+        return mContentProvider.insert(RAW_URI, values).getLastPathSegment();
+    }
+
+    private int getDeletedRowCount() {
+        try (Cursor cursor = mContentProvider.query(RAW_URI, null, "deleted=1", null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testAppliedOnFlushAndAtThreshold() {
+        for (int i = 0; i < MAX_PENDING - 1; i++) {
+            mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {insertRow()});
+        }
+        assertEquals(MAX_PENDING - 1, mQueue.size());
+        assertEquals(0, getDeletedRowCount());
+
+        // Reaching the threshold applies the whole queue in one batch.
+        mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {insertRow()});
+        assertEquals(0, mQueue.size());
+        assertEquals(MAX_PENDING, getDeletedRowCount());
+
+        mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {insertRow()});
+        assertEquals(MAX_PENDING, getDeletedRowCount());
+        mQueue.flush();
+        assertEquals(0, mQueue.size());
+        assertEquals(MAX_PENDING + 1, getDeletedRowCount());
+    }
+
+    @Test
+    @SmallTest
+    public void testAnyMatchSeesQueuedSelections() {
+        String id = insertRow();
+        assertFalse(mQueue.anyMatch(selection -> id.equals(selection.second[0])));
+
+        mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {id});
+        assertTrue(mQueue.anyMatch(selection -> id.equals(selection.second[0])));
+
+        mQueue.flush();
+        assertFalse(mQueue.anyMatch(selection -> id.equals(selection.second[0])));
+    }
+
+    @Test
+    @SmallTest
+    public void testDeletesQueuedFromAnotherThreadAreNotLost() throws Exception {
+        int rows = MAX_PENDING * 25;
+        String[] ids = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            ids[i] = insertRow();
+        }
+
+        Thread filterThread = new Thread(() -> {
+            for (int i = 0; i < rows; i += 2) {
+                mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {ids[i]});
+            }
+        });
+        filterThread.start();
+        for (int i = 1; i < rows; i += 2) {
+            mQueue.add(InboundSmsHandler.SELECT_BY_ID, new String[] {ids[i]});
+            mQueue.flush();
+        }
+        filterThread.join();
+        mQueue.flush();
+
+        assertEquals(rows, getDeletedRowCount());
+    }
+}
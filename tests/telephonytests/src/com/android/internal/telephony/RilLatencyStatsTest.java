@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.telephony.TelephonyHistogram;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class RilLatencyStatsTest {
+    private static final int INDEXED_REQUEST = RILConstants.RIL_REQUEST_GET_SIM_STATUS;
+    private static final int OTHER_REQUEST = 5000;
+
+    @Test
+    @SmallTest
+    public void testTimingAndLatencyRecordedTogether() {
+        RilLatencyStats stats = new RilLatencyStats();
+        assertNull(stats.getRequestSnapshot(INDEXED_REQUEST));
+
+        for (int i = 1; i <= 10; i++) {
+            stats.record(RIL.RADIO_SERVICE, INDEXED_REQUEST, i);
+        }
+        stats.record(RIL.RADIO_SERVICE, OTHER_REQUEST, 100);
+
+        LatencyHistogram.Snapshot snapshot = stats.getRequestSnapshot(INDEXED_REQUEST);
+        assertEquals(10, snapshot.count);
+        assertEquals(5, snapshot.p50);
+        assertEquals(1, stats.getRequestSnapshot(OTHER_REQUEST).count);
+
+        SparseArray<LatencyHistogram.Snapshot> snapshots = stats.getRequestSnapshots();
+        assertEquals(2, snapshots.size());
+        assertEquals(10, snapshots.get(INDEXED_REQUEST).count);
+
+        List<TelephonyHistogram> histograms = stats.getTimingHistograms();
+        assertEquals(2, histograms.size());
+        for (TelephonyHistogram histogram : histograms) {
+            assertEquals(TelephonyHistogram.TELEPHONY_CATEGORY_RIL, histogram.getCategory());
+            assertEquals(histogram.getId() == INDEXED_REQUEST ? 10 : 1,
+                    histogram.getSampleCount());
+        }
+    }
+}
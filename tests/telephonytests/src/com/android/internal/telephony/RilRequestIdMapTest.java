@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.SparseArray;
+
+import org.junit.Test;
+
+public class RilRequestIdMapTest {
+
+    @Test
+    @SmallTest
+    public void testValuesCreatedOnceInAndOutsideIndexedRange() {
+        RilRequestIdMap<int[]> map = new RilRequestIdMap<>(request -> new int[] {request});
+        int[] requests = {0, 7, 5000, -1};
+
+        for (int request : requests) {
+            assertNull(map.get(request));
+            int[] value = map.getOrCreate(request);
+            assertEquals(request, value[0]);
+            assertSame(value, map.getOrCreate(request));
+            assertSame(value, map.get(request));
+        }
+
+        SparseArray<int[]> all = map.getAll();
+        assertEquals(requests.length, all.size());
+        for (int request : requests) {
+            assertEquals(request, all.get(request)[0]);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.os.WorkSource;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class RilRequestTableTest {
+    private static final String TAG = "RilRequestTableTest";
+
+    private static final int THREAD_COUNT = 6;
+    private static final int REQUESTS_PER_THREAD = 2000;
+
+    private static RILRequest obtain() {
+        return RILRequest.obtain(RILConstants.RIL_REQUEST_SIGNAL_STRENGTH, null,
+                new WorkSource());
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        RilRequestTable table = new RilRequestTable();
+        RILRequest rr = obtain();
+        table.put(rr);
+
+        assertEquals(1, table.size());
+        assertSame(rr, table.get(rr.mSerial));
+        assertSame(rr, table.remove(rr.mSerial));
+        assertNull(table.get(rr.mSerial));
+        assertNull(table.remove(rr.mSerial));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testSnapshotAndRemoveAll_orderedBySerial() {
+        RilRequestTable table = new RilRequestTable();
+        for (int i = 0; i < 40; i++) {
+            table.put(obtain());
+        }
+
+        SparseArray<RILRequest> snapshot = table.snapshot();
+        assertEquals(40, snapshot.size());
+        assertEquals(40, table.size());
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertEquals(snapshot.keyAt(i - 1) + 1, snapshot.keyAt(i));
+        }
+
+        SparseArray<RILRequest> removed = table.removeAll();
+        assertEquals(40, removed.size());
+        assertEquals(0, table.size());
+        assertEquals(0, table.snapshot().size());
+    }
+
+    @Test
+    public void testConcurrentResponses() throws Exception {
+        RilRequestTable table = new RilRequestTable();
+        RILRequest[] requests = new RILRequest[THREAD_COUNT * REQUESTS_PER_THREAD];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = obtain();
+            table.put(requests[i]);
+        }
+
+        AtomicInteger removed = new AtomicInteger();
+        long elapsedNs = runConcurrently(index -> {
+            if (table.remove(requests[index].mSerial) != null) removed.incrementAndGet();
+        });
+
+        assertEquals(requests.length, removed.get());
+        assertEquals(0, table.size());
+
+        // Same load against a single monitor guarded SparseArray, for comparison.
+        SparseArray<RILRequest> single = new SparseArray<>();
+        for (RILRequest rr : requests) {
+            single.put(rr.mSerial, rr);
+        }
+        long singleElapsedNs = runConcurrently(index -> {
+            synchronized (single) {
+                single.remove(requests[index].mSerial);
+            }
+        });
+        assertEquals(0, single.size());
+
+        Log.d(TAG, "striped=" + TimeUnit.NANOSECONDS.toMicros(elapsedNs) + "us, single="
+                + TimeUnit.NANOSECONDS.toMicros(singleElapsedNs) + "us");
+    }
+
+    private interface IndexConsumer {
+        void accept(int index);
+    }
+
+    private static long runConcurrently(IndexConsumer consumer) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREAD_COUNT);
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int base = t * REQUESTS_PER_THREAD;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        consumer.accept(base + i);
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long startNs = System.nanoTime();
+        start.countDown();
+        done.await(10, TimeUnit.SECONDS);
+        return System.nanoTime() - startNs;
+    }
+}
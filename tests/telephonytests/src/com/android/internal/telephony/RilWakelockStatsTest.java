@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_GET_SIM_STATUS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SETUP_DATA_CALL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class RilWakelockStatsTest {
+    private static final int THRESHOLD = 1000;
+
+    @Test
+    @SmallTest
+    public void testRecordHold() {
+        RilWakelockStats stats = new RilWakelockStats(THRESHOLD);
+        assertNull(stats.getHoldSnapshot(RIL_REQUEST_GET_SIM_STATUS));
+
+        stats.recordHold(RIL_REQUEST_GET_SIM_STATUS, 10);
+        stats.recordHold(RIL_REQUEST_GET_SIM_STATUS, 12);
+        LatencyHistogram.Snapshot snapshot = stats.getHoldSnapshot(RIL_REQUEST_GET_SIM_STATUS);
+        assertEquals(2, snapshot.count);
+        assertEquals(12, snapshot.max);
+        assertNull(stats.getHoldSnapshot(RIL_REQUEST_SETUP_DATA_CALL));
+
+        stats.recordAckHold(200);
+        assertEquals(1, stats.getAckHoldSnapshot().count);
+    }
+
+    @Test
+    @SmallTest
+    public void testLongHolderNeedsEnoughLongHolds() {
+        RilWakelockStats stats = new RilWakelockStats(THRESHOLD);
+        // A single long hold is not routine.
+        stats.recordHold(RIL_REQUEST_SETUP_DATA_CALL, 5000);
+        assertFalse(stats.isLongHolder(RIL_REQUEST_SETUP_DATA_CALL));
+
+        for (int i = 0; i < 9; i++) {
+            stats.recordHold(RIL_REQUEST_SETUP_DATA_CALL, THRESHOLD);
+        }
+        // One long hold out of ten is exactly at the limit.
+        assertFalse(stats.isLongHolder(RIL_REQUEST_SETUP_DATA_CALL));
+
+        stats.recordHold(RIL_REQUEST_SETUP_DATA_CALL, THRESHOLD + 1);
+        assertTrue(stats.isLongHolder(RIL_REQUEST_SETUP_DATA_CALL));
+        assertFalse(stats.isLongHolder(RIL_REQUEST_GET_SIM_STATUS));
+    }
+
+    @Test
+    @SmallTest
+    public void testRequestsOutsideIndexedRange() {
+        RilWakelockStats stats = new RilWakelockStats(THRESHOLD);
+        stats.recordHold(5000, 1);
+        stats.recordHold(-1, 1);
+        assertEquals(1, stats.getHoldSnapshot(5000).count);
+        assertEquals(1, stats.getHoldSnapshot(-1).count);
+    }
+}
@@ -648,6 +648,30 @@ public class ServiceStateTrackerTest extends TelephonyTest {
         assertEquals(sst.getAllCellInfo(), list);
     }
 
+    @Test
+    @MediumTest
+    public void testCellInfoMaxAge() {
+        ArrayList<CellInfo> list = new ArrayList();
+        list.add(getCellInfoGsm());
+        mSimulatedCommands.setCellInfoList(list);
+        sst.setCellInfoMinInterval(0);
+        sst.requestAllCellInfo(null, null);
+        waitForLastHandlerAction(mSSTTestHandler.getThreadHandler());
+        assertEquals(list, sst.getAllCellInfo());
+
+        ArrayList<CellInfo> newList = new ArrayList();
+        mSimulatedCommands.setCellInfoList(newList);
+
+        // A recent enough list is served from the cache without asking the modem.
+        sst.requestAllCellInfo(null, null, 60000);
+        waitForLastHandlerAction(mSSTTestHandler.getThreadHandler());
+        assertEquals(list, sst.getAllCellInfo());
+
+        sst.requestAllCellInfo(null, null, 0);
+        waitForLastHandlerAction(mSSTTestHandler.getThreadHandler());
+        assertEquals(newList, sst.getAllCellInfo());
+    }
+
     private static class CellInfoHandler extends Handler {
         // Need to define this here so that it's accessible
         public List<CellInfo> cellInfoResult;
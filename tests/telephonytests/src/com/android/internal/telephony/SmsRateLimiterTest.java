@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class SmsRateLimiterTest {
+    private static final String APP = "com.example.sender";
+    private static final long WINDOW = 60000;
+
+    @Test
+    @SmallTest
+    public void testLimitWithinWindow() {
+        SmsRateLimiter limiter = new SmsRateLimiter(WINDOW, 5);
+        assertTrue(limiter.tryAcquire(APP, 3, 1000));
+        assertTrue(limiter.tryAcquire(APP, 2, 2000));
+        assertFalse(limiter.tryAcquire(APP, 1, 3000));
+        assertEquals(5, limiter.getSentCount(APP, 3000));
+
+        // The oldest batch leaves the window strictly after it is a full window old.
+        assertFalse(limiter.tryAcquire(APP, 3, 1000 + WINDOW));
+        assertTrue(limiter.tryAcquire(APP, 3, 1001 + WINDOW));
+        assertEquals(5, limiter.getSentCount(APP, 1001 + WINDOW));
+        assertEquals(3, limiter.getSentCount(APP, 2001 + WINDOW));
+    }
+
+    @Test
+    @SmallTest
+    public void testRequestLargerThanLimitIsRejected() {
+        SmsRateLimiter limiter = new SmsRateLimiter(WINDOW, 5);
+        assertFalse(limiter.tryAcquire(APP, 6, 1000));
+        assertEquals(0, limiter.size());
+        assertTrue(limiter.tryAcquire(APP, 0, 1000));
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testAppsAreLimitedIndependently() {
+        SmsRateLimiter limiter = new SmsRateLimiter(WINDOW, 1);
+        assertTrue(limiter.tryAcquire("a", 1, 1000));
+        assertTrue(limiter.tryAcquire("b", 1, 1000));
+        assertFalse(limiter.tryAcquire("a", 1, 1000));
+    }
+
+    @Test
+    @SmallTest
+    public void testIdleAppsAreEvicted() {
+        SmsRateLimiter limiter = new SmsRateLimiter(WINDOW, 5);
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("app" + i, 1, 1000 + i);
+        }
+        assertEquals(100, limiter.size());
+
+        limiter.tryAcquire(APP, 1, 1051 + WINDOW);
+        // Apps 0 to 50 have nothing left in the window.
+        assertEquals(50, limiter.size());
+
+        limiter.tryAcquire(APP, 1, 2000 + WINDOW);
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    @SmallTest
+    public void testBulkSenderWorkIsBounded() {
+        SmsRateLimiter limiter = new SmsRateLimiter(WINDOW, 30);
+        long now = 0;
+        int accepted = 0;
+        for (int i = 0; i < 100000; i++) {
+            now += 100;
+            if (limiter.tryAcquire(APP, 10, now)) accepted++;
+            // Only three batches of ten fit in the window, so however long the app keeps
+            // sending, each check trims at most a few entries.
+            assertTrue(limiter.getBatchCount(APP) <= 3);
+            assertTrue(limiter.getSentCount(APP, now) <= 30);
+        }
+        // Three batches at the start of every window, the next window opening 100ms late.
+        assertEquals(3 * (now / (WINDOW + 100) + 1), accepted);
+    }
+}
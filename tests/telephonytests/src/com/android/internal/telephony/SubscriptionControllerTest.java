@@ -20,6 +20,7 @@ import static android.telephony.TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SE
 import static com.android.internal.telephony.SubscriptionController.REQUIRE_DEVICE_IDENTIFIERS_FOR_GROUP_UUID;
 import static com.android.internal.telephony.uicc.IccCardStatus.CardState.CARDSTATE_PRESENT;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -49,6 +50,7 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -983,6 +985,45 @@ public class SubscriptionControllerTest extends TelephonyTest {
         assertNotSame(1, mSubscriptionControllerUT.getDefaultSubId());
     }
 
+    @Test @SmallTest
+    public void testSlotLookupsFollowSubscriptionChanges() {
+        makeThisDeviceMultiSimCapable();
+        testInsertMultipleRemoteSims();
+
+        int[] subIds = mSubscriptionControllerUT.getActiveSubIdList(/*visibleOnly*/false);
+        assertEquals(4, subIds.length);
+        int[] slotSubIds = mSubscriptionControllerUT.getSubId(
+                SubscriptionManager.SLOT_INDEX_FOR_REMOTE_SIM_SUB);
+        assertArrayEquals(subIds, slotSubIds);
+        for (int subId : subIds) {
+            assertTrue(mSubscriptionControllerUT.isActiveSubId(subId));
+            assertEquals(SubscriptionManager.SLOT_INDEX_FOR_REMOTE_SIM_SUB,
+                    mSubscriptionControllerUT.getSlotIndex(subId));
+            // The remote SIM slot is found even though it has the value of an invalid slot.
+            assertEquals(SubscriptionManager.SLOT_INDEX_FOR_REMOTE_SIM_SUB,
+                    mSubscriptionControllerUT.getPhoneId(subId));
+        }
+        // Changing the returned arrays must not change what later lookups see.
+        slotSubIds[0] = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        subIds[1] = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        assertArrayEquals(mSubscriptionControllerUT.getActiveSubIdList(false),
+                mSubscriptionControllerUT.getSubId(
+                        SubscriptionManager.SLOT_INDEX_FOR_REMOTE_SIM_SUB));
+
+        int removedSubId = mSubscriptionControllerUT.getActiveSubIdList(false)[0];
+        assertTrue(mSubscriptionControllerUT.removeSubInfo(MAC_ADDRESS_PREFIX + 0,
+                SubscriptionManager.SUBSCRIPTION_TYPE_REMOTE_SIM) > 0);
+
+        assertFalse(mSubscriptionControllerUT.isActiveSubId(removedSubId));
+        assertEquals(SubscriptionManager.INVALID_SIM_SLOT_INDEX,
+                mSubscriptionControllerUT.getSlotIndex(removedSubId));
+        assertEquals(3, mSubscriptionControllerUT.getActiveSubIdList(false).length);
+        assertEquals(3, mSubscriptionControllerUT.getSubId(
+                SubscriptionManager.SLOT_INDEX_FOR_REMOTE_SIM_SUB).length);
+        assertEquals(3, mSubscriptionControllerUT.getActiveSubscriptionInfoList(mCallingPackage,
+                mCallingFeature).size());
+    }
+
     private void makeThisDeviceMultiSimCapable() {
         doReturn(10).when(mTelephonyManager).getSimCount();
     }
@@ -1048,6 +1089,45 @@ public class SubscriptionControllerTest extends TelephonyTest {
         assertNotEquals(null, prop);
     }
 
+    @Test
+    @SmallTest
+    public void testGetSubscriptionPropertyMatchesDatabase() throws Exception {
+        testInsertSim();
+        int subId = getFirstSubId();
+        String[] properties = {
+                SubscriptionManager.CB_AMBER_ALERT,
+                SubscriptionManager.ENHANCED_4G_MODE_ENABLED,
+                SubscriptionManager.WFC_IMS_MODE,
+                SubscriptionManager.IS_OPPORTUNISTIC,
+                SubscriptionManager.USAGE_SETTING};
+
+        for (int value = 0; value < 3; value++) {
+            for (String propKey : properties) {
+                // Read first, so that the write has a cached value to replace.
+                mSubscriptionControllerUT.getSubscriptionProperty(subId, propKey);
+                mSubscriptionControllerUT.setSubscriptionProperty(subId, propKey,
+                        String.valueOf(value));
+                assertEquals(String.valueOf(value),
+                        mSubscriptionControllerUT.getSubscriptionProperty(subId, propKey));
+            }
+            for (String propKey : properties) {
+                try (Cursor cursor = mFakeTelephonyProvider.query(SubscriptionManager.CONTENT_URI,
+                        new String[] {propKey}, SubscriptionManager.UNIQUE_KEY_SUBSCRIPTION_ID
+                                + "=" + subId, null, null)) {
+                    assertTrue(cursor.moveToFirst());
+                    assertEquals(cursor.getString(0),
+                            mSubscriptionControllerUT.getSubscriptionProperty(subId, propKey));
+                }
+            }
+        }
+
+        // Unknown subscriptions and columns have no value.
+        assertNull(mSubscriptionControllerUT.getSubscriptionProperty(subId + 100,
+                SubscriptionManager.CB_AMBER_ALERT));
+        assertNull(mSubscriptionControllerUT.getSubscriptionProperty(subId,
+                SubscriptionManager.ICC_ID));
+    }
+
     @Test
     @SmallTest
     public void testCreateSubscriptionGroupWithCarrierPrivilegePermission() throws Exception {
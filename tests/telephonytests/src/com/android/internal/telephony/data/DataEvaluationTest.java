@@ -59,4 +59,45 @@ public class DataEvaluationTest extends TelephonyTest {
                 DataEvaluation.DataDisallowedReason.DATA_DISABLED);
         assertThat(mDataEvaluationUT.getDataDisallowedReasons().size()).isEqualTo(1);
     }
+
+    @Test
+    public void testDisallowedReasonsFitInBitSet() {
+        // Each reason is one bit of a long.
+        assertThat(DataEvaluation.DataDisallowedReason.values().length)
+                .isAtMost(Long.SIZE);
+    }
+
+    @Test
+    public void testDisallowedReasons() {
+        mDataEvaluationUT = new DataEvaluation(DataEvaluation.DataEvaluationReason.DATA_RETRY);
+        assertThat(mDataEvaluationUT.containsDisallowedReasons()).isFalse();
+
+        mDataEvaluationUT.addDataDisallowedReason(
+                DataEvaluation.DataDisallowedReason.SIM_NOT_READY);
+        mDataEvaluationUT.addDataDisallowedReason(
+                DataEvaluation.DataDisallowedReason.DATA_DISABLED);
+        mDataEvaluationUT.addDataDisallowedReason(
+                DataEvaluation.DataDisallowedReason.DATA_DISABLED);
+
+        // Reasons are listed once each, in declaration order.
+        assertThat(mDataEvaluationUT.getDataDisallowedReasons()).containsExactly(
+                DataEvaluation.DataDisallowedReason.DATA_DISABLED,
+                DataEvaluation.DataDisallowedReason.SIM_NOT_READY).inOrder();
+        assertThat(mDataEvaluationUT.containsHardDisallowedReasons()).isTrue();
+        assertThat(mDataEvaluationUT.containsOnly(
+                DataEvaluation.DataDisallowedReason.DATA_DISABLED)).isFalse();
+        assertThat(mDataEvaluationUT.containsAny(
+                DataEvaluation.DataDisallowedReason.ROAMING_DISABLED,
+                DataEvaluation.DataDisallowedReason.SIM_NOT_READY)).isTrue();
+
+        mDataEvaluationUT.removeDataDisallowedReason(
+                DataEvaluation.DataDisallowedReason.SIM_NOT_READY);
+        assertThat(mDataEvaluationUT.containsHardDisallowedReasons()).isFalse();
+        assertThat(mDataEvaluationUT.containsOnly(
+                DataEvaluation.DataDisallowedReason.DATA_DISABLED)).isTrue();
+
+        mDataEvaluationUT.addDataAllowedReason(DataEvaluation.DataAllowedReason.NORMAL);
+        assertThat(mDataEvaluationUT.containsDisallowedReasons()).isFalse();
+        assertThat(mDataEvaluationUT.getDataDisallowedReasons()).isEmpty();
+    }
 }
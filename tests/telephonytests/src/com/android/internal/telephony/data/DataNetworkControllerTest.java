@@ -1238,6 +1238,29 @@ public class DataNetworkControllerTest extends TelephonyTest {
         verifyInternetConnected();
     }
 
+    @Test
+    public void testReevaluationSkippedWhileSimAbsent() throws Exception {
+        testSimRemovalDataTearDown();
+        mDataNetworkControllerUT.obtainMessage(5/*EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS*/,
+                DataEvaluation.DataEvaluationReason.DATA_ENABLED_CHANGED).sendToTarget();
+        processAllMessages();
+        Mockito.clearInvocations(mDataProfileManager);
+
+        // The internet request is still held back by the SIM, so it is not evaluated again.
+        mDataNetworkControllerUT.obtainMessage(5/*EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS*/,
+                DataEvaluation.DataEvaluationReason.DATA_ENABLED_CHANGED).sendToTarget();
+        processAllMessages();
+        verify(mDataProfileManager, never()).getDataProfileForNetworkRequest(
+                any(TelephonyNetworkRequest.class), anyInt(), anyBoolean());
+        verifyNoConnectedNetworkHasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+
+        // Insert the SIM again.
+        mDataNetworkControllerUT.obtainMessage(9/*EVENT_SIM_STATE_CHANGED*/,
+                TelephonyManager.SIM_STATE_LOADED, 0).sendToTarget();
+        processAllMessages();
+        verifyInternetConnected();
+    }
+
     @Test
     public void testDuplicateInterface() throws Exception {
         mDataNetworkControllerUT.addNetworkRequest(
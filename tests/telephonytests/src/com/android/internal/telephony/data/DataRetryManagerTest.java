@@ -763,4 +763,31 @@ public class DataRetryManagerTest extends TelephonyTest {
         assertThat(throttleStatus.getTransportType())
                 .isEqualTo(AccessNetworkConstants.TRANSPORT_TYPE_WWAN);
     }
+
+    @Test
+    public void testScheduledRetryAndThrottlingQueries() {
+        testDataSetupRetryNetworkSuggestedNeverRetry();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isTrue();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN)).isFalse();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile1,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+
+        testDataSetupRetryNetworkSuggestedRetry();
+        assertThat(mDataRetryManagerUT.isAnySetupRetryScheduled(mDataProfile1,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isTrue();
+        assertThat(mDataRetryManagerUT.isAnySetupRetryScheduled(mDataProfile1,
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN)).isFalse();
+        assertThat(mDataRetryManagerUT.isAnySetupRetryScheduled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+
+        ArgumentCaptor<DataSetupRetryEntry> retryEntryCaptor =
+                ArgumentCaptor.forClass(DataSetupRetryEntry.class);
+        verify(mDataRetryManagerCallbackMock).onDataNetworkSetupRetry(retryEntryCaptor.capture());
+        retryEntryCaptor.getValue().setState(
+                DataRetryManager.DataRetryEntry.RETRY_STATE_SUCCEEDED);
+        assertThat(mDataRetryManagerUT.isAnySetupRetryScheduled(mDataProfile1,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+    }
 }
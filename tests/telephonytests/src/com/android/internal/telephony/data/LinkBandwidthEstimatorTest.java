@@ -21,15 +21,19 @@ import static android.net.NetworkCapabilities.TRANSPORT_CELLULAR;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.BW_STATS_COUNT_THRESHOLD;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_RX;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_TX;
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.MAX_BW_STATS_COUNT;
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.MAX_NETWORK_COUNT;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_ACTIVE_PHONE_CHANGED;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_DEFAULT_NETWORK_CHANGED;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_MODEM_ACTIVITY_RETURNED;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_NR_FREQUENCY_CHANGED;
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.PERSIST_NETWORK_BANDWIDTH_DELAY_MS;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_SCREEN_STATE_CHANGED;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_SIGNAL_STRENGTH_CHANGED;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.UNKNOWN_TAC;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -756,4 +760,55 @@ public class LinkBandwidthEstimatorTest extends TelephonyTest {
         verify(callback).onDataActivityChanged(eq(TelephonyManager.DATA_ACTIVITY_IN));
         Mockito.clearInvocations(callback);
     }
+
+    @Test
+    public void testNetworkBandwidthWrittenBackInBatches() throws Exception {
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001001", 1, "LTE");
+        int count = network.getCount(LINK_RX, 1);
+        long value = network.getValue(LINK_RX, 1);
+
+        network.update(1_000, LINK_RX, 1);
+        network.update(2_000, LINK_RX, 1);
+        assertEquals(count + 2, network.getCount(LINK_RX, 1));
+        assertEquals(value + 3_000, network.getValue(LINK_RX, 1));
+        // Not written back yet.
+        assertEquals(count, new LinkBandwidthEstimator(mPhone, mTelephonyFacade)
+                .lookupNetwork("001001", 1, "LTE").getCount(LINK_RX, 1));
+
+        moveTimeForward(PERSIST_NETWORK_BANDWIDTH_DELAY_MS);
+        processAllMessages();
+        network = new LinkBandwidthEstimator(mPhone, mTelephonyFacade)
+                .lookupNetwork("001001", 1, "LTE");
+        assertEquals(count + 2, network.getCount(LINK_RX, 1));
+        assertEquals(value + 3_000, network.getValue(LINK_RX, 1));
+    }
+
+    @Test
+    public void testNetworkBandwidthHistoryHalved() throws Exception {
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001001", 2, "LTE");
+        while (network.getCount(LINK_TX, 2) < MAX_BW_STATS_COUNT) {
+            network.update(1_000, LINK_TX, 2);
+        }
+        long value = network.getValue(LINK_TX, 2);
+
+        network.update(1_000, LINK_TX, 2);
+        assertEquals(MAX_BW_STATS_COUNT / 2 + 1, network.getCount(LINK_TX, 2));
+        assertEquals(value / 2 + 1_000, network.getValue(LINK_TX, 2));
+    }
+
+    @Test
+    public void testLeastRecentNetworkWrittenBackAndEvicted() throws Exception {
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001001", 3, "LTE");
+        int count = network.getCount(LINK_RX, 1);
+        network.update(1_000, LINK_RX, 1);
+
+        for (int tac = 100; tac < 100 + MAX_NETWORK_COUNT; tac++) {
+            mLBE.lookupNetwork("001001", tac, "LTE");
+        }
+
+        // The network is read back from storage with the sample taken before the eviction.
+        LinkBandwidthEstimator.NetworkBandwidth reloaded = mLBE.lookupNetwork("001001", 3, "LTE");
+        assertNotSame(network, reloaded);
+        assertEquals(count + 1, reloaded.getCount(LINK_RX, 1));
+    }
 }
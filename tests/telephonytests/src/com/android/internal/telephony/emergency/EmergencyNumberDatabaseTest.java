@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static org.junit.Assert.assertEquals;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.phone.ecc.nano.ProtobufEccData;
+import com.android.phone.ecc.nano.ProtobufEccData.EccInfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+public class EmergencyNumberDatabaseTest {
+    private static ProtobufEccData.CountryInfo country(String isoCode, String... numbers) {
+        ProtobufEccData.CountryInfo country = new ProtobufEccData.CountryInfo();
+        country.isoCode = isoCode;
+        country.eccs = new EccInfo[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            country.eccs[i] = new EccInfo();
+            country.eccs[i].phoneNumber = numbers[i];
+            country.eccs[i].types = new int[] {EccInfo.Type.POLICE};
+        }
+        return country;
+    }
+
+    private static EmergencyNumberDatabase decode(int revision,
+            ProtobufEccData.CountryInfo... countries) throws IOException {
+        ProtobufEccData.AllInfo allInfo = new ProtobufEccData.AllInfo();
+        allInfo.revision = revision;
+        allInfo.countries = countries;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(ProtobufEccData.AllInfo.toByteArray(allInfo));
+        }
+        return EmergencyNumberDatabase.decode(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Test
+    @SmallTest
+    public void testLookupByCountry() throws Exception {
+        EmergencyNumberDatabase database = decode(7, country("US", "911"),
+                country("GB", "999", "112"));
+        assertEquals(7, database.getRevision());
+        assertEquals(2, database.getCountryCount());
+        assertEquals("911", database.getEccInfo("us")[0].phoneNumber);
+        assertEquals(2, database.getEccInfo("GB").length);
+        assertEquals("112", database.getEccInfo("gb")[1].phoneNumber);
+        assertEquals(0, database.getEccInfo("fr").length);
+        assertEquals(0, database.getEccInfo("").length);
+        assertEquals(0, database.getEccInfo(null).length);
+    }
+
+    @Test
+    @SmallTest
+    public void testCountryListedTwiceKeepsAllEntries() throws Exception {
+        EmergencyNumberDatabase database = decode(1, country("US", "911"),
+                country("CA", "911"), country("US", "112"));
+        EccInfo[] us = database.getEccInfo("us");
+        assertEquals(2, us.length);
+        assertEquals("911", us[0].phoneNumber);
+        assertEquals("112", us[1].phoneNumber);
+    }
+
+    @Test(expected = IOException.class)
+    @SmallTest
+    public void testNotGzippedIsRejected() throws Exception {
+        EmergencyNumberDatabase.decode(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+    }
+}
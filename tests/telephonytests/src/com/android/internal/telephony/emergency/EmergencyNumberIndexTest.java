@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.emergency.EmergencyNumber;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class EmergencyNumberIndexTest {
+    private static EmergencyNumber number(String address, int categories, int sources,
+            int routing) {
+        return new EmergencyNumber(address, "us", "", categories, new ArrayList<String>(),
+                sources, routing);
+    }
+
+    private static final EmergencyNumber DB_911 = number("911",
+            EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_POLICE,
+            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE,
+            EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY);
+    private static final EmergencyNumber SIM_911 = number("911",
+            EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_AMBULANCE,
+            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM,
+            EmergencyNumber.EMERGENCY_CALL_ROUTING_NORMAL);
+    private static final EmergencyNumber NETWORK_112 = number("112",
+            EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_FIRE_BRIGADE,
+            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING,
+            EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+    private static final EmergencyNumber TEST_STAR = number("*99#",
+            EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED,
+            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST,
+            EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+    private static final EmergencyNumber TEST_OTHER = number("1a2",
+            EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED,
+            EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST,
+            EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN);
+
+    private static final List<EmergencyNumber> LIST =
+            Arrays.asList(DB_911, SIM_911, NETWORK_112, TEST_STAR, TEST_OTHER);
+
+    private static final String[] DIALED = {"911", "9110", "91", "112", "1123", "11", "*99#",
+            "*99#1", "*9", "1a2", "1a23", "1a", "", "000"};
+
+    @Test
+    @SmallTest
+    public void testMatchesLinearScan() {
+        EmergencyNumberIndex index = new EmergencyNumberIndex(LIST);
+        for (String dialed : DIALED) {
+            boolean exact = false;
+            boolean prefix = false;
+            EmergencyNumber first = null;
+            int categories = EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED;
+            boolean categoriesFound = false;
+            int routing = EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN;
+            boolean routingFound = false;
+            for (EmergencyNumber num : LIST) {
+                exact |= num.getNumber().equals(dialed);
+                prefix |= dialed.startsWith(num.getNumber());
+                if (!num.getNumber().equals(dialed)) continue;
+                if (first == null) first = num;
+                if (!categoriesFound && (num.isFromSources(
+                        EmergencyNumber.EMERGENCY_NUMBER_SOURCE_NETWORK_SIGNALING)
+                        || num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_SIM))) {
+                    categories = num.getEmergencyServiceCategoryBitmask();
+                    categoriesFound = true;
+                }
+                if (!routingFound
+                        && num.isFromSources(EmergencyNumber.EMERGENCY_NUMBER_SOURCE_DATABASE)) {
+                    routing = num.getEmergencyCallRouting();
+                    routingFound = true;
+                }
+            }
+            assertEquals(dialed, exact, index.containsNumber(dialed));
+            assertEquals(dialed, prefix, index.containsPrefixOf(dialed));
+            assertSame(dialed, first, index.getEmergencyNumber(dialed));
+            assertEquals(dialed, categories, index.getEmergencyServiceCategories(dialed));
+            assertEquals(dialed, routing, index.getEmergencyCallRouting(dialed));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testFirstEntryWins() {
+        EmergencyNumberIndex index = new EmergencyNumberIndex(LIST);
+        assertSame(DB_911, index.getEmergencyNumber("911"));
+        // The database entry is not a trusted source of categories, the SIM entry is.
+        assertEquals(EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_AMBULANCE,
+                index.getEmergencyServiceCategories("911"));
+        assertEquals(EmergencyNumber.EMERGENCY_CALL_ROUTING_EMERGENCY,
+                index.getEmergencyCallRouting("911"));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmpty() {
+        EmergencyNumberIndex index = EmergencyNumberIndex.EMPTY;
+        assertFalse(index.containsNumber("911"));
+        assertFalse(index.containsPrefixOf("911"));
+        assertNull(index.getEmergencyNumber("911"));
+        assertTrue(new EmergencyNumberIndex(Arrays.asList(number("",
+                EmergencyNumber.EMERGENCY_SERVICE_CATEGORY_UNSPECIFIED,
+                EmergencyNumber.EMERGENCY_NUMBER_SOURCE_TEST,
+                EmergencyNumber.EMERGENCY_CALL_ROUTING_UNKNOWN))).containsPrefixOf("1"));
+    }
+
+    @Test
+    @SmallTest
+    public void testIsIndexOf() {
+        List<EmergencyNumber> list = new ArrayList<>(LIST);
+        EmergencyNumberIndex index = new EmergencyNumberIndex(list);
+        assertTrue(index.isIndexOf(new ArrayList<>(LIST)));
+        assertTrue(EmergencyNumberIndex.EMPTY.isIndexOf(new ArrayList<>()));
+
+        // The index keeps its own copy of the list.
+        list.remove(TEST_OTHER);
+        assertTrue(index.isIndexOf(LIST));
+        assertFalse(index.isIndexOf(list));
+        assertFalse(index.isIndexOf(Arrays.asList(SIM_911, DB_911, NETWORK_112, TEST_STAR,
+                TEST_OTHER)));
+    }
+}
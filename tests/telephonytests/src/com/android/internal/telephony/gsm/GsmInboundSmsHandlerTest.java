@@ -683,6 +683,55 @@ public class GsmInboundSmsHandlerTest extends TelephonyTest {
         verifySmsFiltersInvoked(times(1));
     }
 
+    @Test
+    @MediumTest
+    public void testMultiPartSmsWithSegmentsOfDifferentSubIds() {
+        transitionFromStartupToIdle();
+
+        // Part 1 arrives before the subscription is known, e.g. early in boot.
+        prepareMultiPartSms(false);
+        mInboundSmsTrackerPart1 = new InboundSmsTracker(
+                mContext,
+                mSmsPdu, /* pdu */
+                System.currentTimeMillis(), /* timestamp */
+                -1, /* destPort */
+                false, /* is3gpp2 */
+                "1234567890", /* address */
+                "1234567890", /* displayAddress */
+                1, /* referenceNumber */
+                1, /* sequenceNumber */
+                2, /* messageCount */
+                false, /* is3gpp2WapPdu */
+                mMessageBodyPart1, /* messageBody */
+                false, /* isClass0 */
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                InboundSmsHandler.SOURCE_NOT_INJECTED);
+
+        mSmsHeader.concatRef = new SmsHeader.ConcatRef();
+        doReturn(mSmsHeader).when(mGsmSmsMessage).getUserDataHeader();
+
+        doReturn(mInboundSmsTrackerPart1).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                        anyInt(), anyBoolean(),
+                        nullable(String.class), nullable(String.class), anyInt(), anyInt(),
+                        anyInt(), anyBoolean(), nullable(String.class), anyBoolean(), anyInt(),
+                        anyInt());
+        sendNewSms();
+        assertEquals("IdleState", getCurrentState().getName());
+
+        doReturn(mInboundSmsTrackerPart2).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                        anyInt(), anyBoolean(),
+                        nullable(String.class), nullable(String.class), anyInt(), anyInt(),
+                        anyInt(), anyBoolean(), nullable(String.class), anyBoolean(), anyInt(),
+                        anyInt());
+        sendNewSms();
+
+        // The segments are reassembled even though they carry different sub ids.
+        verifySmsIntentBroadcasts(0);
+        assertEquals(0, mContentProvider.query(sRawUri, null, "deleted=0", null, null).getCount());
+    }
+
     @FlakyTest
     @Test
     @MediumTest
@@ -1251,4 +1300,81 @@ public class GsmInboundSmsHandlerTest extends TelephonyTest {
         assertEquals("IdleState", getCurrentState().getName());
 
     }
+
+    private String insertRawRow(InboundSmsTracker tracker) {
+        return mContentProvider.insert(sRawUri, tracker.getContentValues()).getLastPathSegment();
+    }
+
+    private boolean isRawRowDeleted(String id) {
+        try (Cursor cursor = mContentProvider.query(sRawUri, null, "_id=? AND deleted=1",
+                new String[] {id}, null)) {
+            return cursor.getCount() == 1;
+        }
+    }
+
+    @Test
+    @MediumTest
+    public void testRawTableDeletesFlushedOnIdleAndQuit() {
+        transitionFromStartupToIdle();
+        sendNewSms();
+        verifySmsIntentBroadcasts(0);
+
+        // The handled message is marked deleted once back in idle.
+        assertEquals(0, mGsmInboundSmsHandler.mRawTableDeleteQueue.size());
+        assertEquals(0, mContentProvider.query(sRawUri, null, "deleted=0", null, null).getCount());
+
+        prepareMultiPartSms(false);
+        String id = insertRawRow(mInboundSmsTrackerPart1);
+        mGsmInboundSmsHandler.mRawTableDeleteQueue.add(
+                InboundSmsHandler.SELECT_BY_ID, new String[] {id});
+        mGsmInboundSmsHandler.quit();
+        processAllMessages();
+        assertTrue(isRawRowDeleted(id));
+    }
+
+    @Test
+    @MediumTest
+    public void testRawTableDeletesFlushedBeforePermanentDelete() {
+        transitionFromStartupToIdle();
+        // An undeleted copy of the new message, which is replaced by deleting it permanently.
+        insertRawRow(mInboundSmsTracker);
+        prepareMultiPartSms(false);
+        String id = insertRawRow(mInboundSmsTrackerPart1);
+        mGsmInboundSmsHandler.mRawTableDeleteQueue.add(
+                InboundSmsHandler.SELECT_BY_ID, new String[] {id});
+
+        sendNewSms();
+
+        // Still delivering, so the queue was applied before the permanent delete.
+        assertEquals("WaitingState", getCurrentState().getName());
+        assertTrue(isRawRowDeleted(id));
+        verifySmsIntentBroadcasts(0);
+    }
+
+    @Test
+    @MediumTest
+    public void testRawTableDeletesFlushedBeforeRawTableRead() {
+        transitionFromStartupToIdle();
+        prepareMultiPartSms(false);
+        mSmsHeader.concatRef = new SmsHeader.ConcatRef();
+        doReturn(mSmsHeader).when(mGsmSmsMessage).getUserDataHeader();
+
+        // Part 1 was left in the raw table and is about to be marked deleted.
+        String id = insertRawRow(mInboundSmsTrackerPart1);
+        mGsmInboundSmsHandler.mRawTableDeleteQueue.add(
+                InboundSmsHandler.SELECT_BY_ID, new String[] {id});
+
+        doReturn(mInboundSmsTrackerPart2).when(mTelephonyComponentFactory)
+                .makeInboundSmsTracker(any(Context.class), nullable(byte[].class), anyLong(),
+                        anyInt(), anyBoolean(),
+                        nullable(String.class), nullable(String.class), anyInt(), anyInt(),
+                        anyInt(), anyBoolean(), nullable(String.class), anyBoolean(), anyInt(),
+                        anyInt());
+        sendNewSms();
+
+        // Part 2 is not combined with the deleted part 1.
+        verify(mContext, never()).sendBroadcast(any(Intent.class));
+        assertEquals("IdleState", getCurrentState().getName());
+        assertTrue(isRawRowDeleted(id));
+    }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.gsm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CommandException;
+import com.android.internal.telephony.TelephonyTest;
+import com.android.internal.telephony.uicc.AdnRecord;
+import com.android.internal.telephony.uicc.AdnRecordCache;
+import com.android.internal.telephony.uicc.IccConstants;
+import com.android.internal.telephony.uicc.IccFileHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class UsimPhoneBookManagerTest extends TelephonyTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final int TYPE1_TAG = 0xA8;
+    private static final int TYPE2_TAG = 0xA9;
+    private static final int ADN_TAG = 0xC0;
+    private static final int IAP_TAG = 0xC1;
+    private static final int EMAIL_TAG = 0xCA;
+
+    private static final int EF_ADN_1 = 0x4F3A;
+    private static final int EF_ADN_2 = 0x4F3B;
+    private static final int EF_ADN_3 = 0x4F3C;
+    private static final int EF_IAP_1 = 0x4F30;
+    private static final int EF_EMAIL_1 = 0x4F50;
+    private static final int EF_EMAIL_2 = 0x4F51;
+
+    private IccFileHandler mFh;
+    private AdnRecordCache mAdnCache;
+    private HandlerThread mHandlerThread;
+    private UsimPhoneBookManager mUsimPhoneBookManager;
+
+    /** The EF reads requested from the card, as messages with the efid in arg1. */
+    private final LinkedBlockingQueue<Message> mRequests = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mFh = mock(IccFileHandler.class);
+        mAdnCache = mock(AdnRecordCache.class);
+        doReturn(1).when(mFh).getMaxPendingRecordReads();
+        doAnswer(invocation -> {
+            mRequests.add(request(invocation.getArgument(0), invocation.getArgument(1)));
+            return null;
+        }).when(mFh).loadEFLinearFixedAll(anyInt(), any(Message.class));
+        doAnswer(invocation -> {
+            mRequests.add(request(invocation.getArgument(0), invocation.getArgument(2)));
+            return null;
+        }).when(mAdnCache).requestLoadAllAdnLike(anyInt(), anyInt(), any(Message.class));
+
+        mHandlerThread = new HandlerThread(getClass().getSimpleName());
+        mHandlerThread.start();
+        CountDownLatch created = new CountDownLatch(1);
+        new Handler(mHandlerThread.getLooper()).post(() -> {
+            mUsimPhoneBookManager = new UsimPhoneBookManager(mFh, mAdnCache);
+            created.countDown();
+        });
+        created.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHandlerThread.quit();
+        mHandlerThread = null;
+        mUsimPhoneBookManager = null;
+        mRequests.clear();
+        super.tearDown();
+    }
+
+    private static Message request(int efid, Message response) {
+        Message request = Message.obtain();
+        request.arg1 = efid;
+        request.obj = response;
+        return request;
+    }
+
+    private static byte[] concat(byte[]... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] value : values) {
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] tlv(int tag, byte[]... values) {
+        byte[] data = concat(values);
+        return concat(new byte[] {(byte) tag, (byte) data.length}, data);
+    }
+
+    private static byte[] ef(int tag, int efid, int sfi) {
+        return tlv(tag, new byte[] {(byte) (efid >> 8), (byte) efid, (byte) sfi});
+    }
+
+    private static byte[] ef(int tag, int efid) {
+        return tlv(tag, new byte[] {(byte) (efid >> 8), (byte) efid});
+    }
+
+    private static ArrayList<AdnRecord> adns(int efid, int count) {
+        ArrayList<AdnRecord> adns = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            adns.add(new AdnRecord(efid, i, "name" + i, "555000" + i));
+        }
+        return adns;
+    }
+
+    /** A type 1 EF_EMAIL record, linked to an ADN record through the ADN file SFI. */
+    private static byte[] email(String address, int adnSfi, int adnRecordNumber) {
+        byte[] record = Arrays.copyOf(address.getBytes(), address.length() + 2);
+        record[address.length()] = (byte) adnSfi;
+        record[address.length() + 1] = (byte) adnRecordNumber;
+        return record;
+    }
+
+    private Message nextRequest() throws InterruptedException {
+        Message request = mRequests.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (request == null) fail("No request to the card");
+        return request;
+    }
+
+    private static void answer(Message request, Object result) {
+        Message response = (Message) request.obj;
+        AsyncResult.forMessage(response, result, null);
+        response.sendToTarget();
+    }
+
+    private static void answerWithError(Message request) {
+        Message response = (Message) request.obj;
+        AsyncResult.forMessage(response, null,
+                new CommandException(CommandException.Error.GENERIC_FAILURE));
+        response.sendToTarget();
+    }
+
+    private FutureTask<ArrayList<AdnRecord>> startLoading(byte[]... pbrRecords)
+            throws InterruptedException {
+        FutureTask<ArrayList<AdnRecord>> load =
+                new FutureTask<>(mUsimPhoneBookManager::loadEfFilesFromUsim);
+        new Thread(load).start();
+        Message pbr = nextRequest();
+        assertEquals(IccConstants.EF_PBR, pbr.arg1);
+        answer(pbr, new ArrayList<>(Arrays.asList(pbrRecords)));
+        return load;
+    }
+
+    private static String[] emailsOf(List<AdnRecord> adns, int efid, int recordNumber) {
+        for (AdnRecord adn : adns) {
+            if (adn.getEfid() == efid && adn.getRecId() == recordNumber) return adn.getEmails();
+        }
+        fail("No ADN record " + recordNumber + " of EF " + efid);
+        return null;
+    }
+
+    @Test
+    @SmallTest
+    public void testAdnFilesMergedInPbrOrder() throws Exception {
+        FutureTask<ArrayList<AdnRecord>> load = startLoading(
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_1, 1)),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_2, 2)),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_3, 3)));
+
+        // All the EF_ADNs are read at the same time, and answered out of order.
+        Message adn1 = nextRequest();
+        Message adn2 = nextRequest();
+        Message adn3 = nextRequest();
+        assertEquals(EF_ADN_1, adn1.arg1);
+        assertEquals(EF_ADN_2, adn2.arg1);
+        assertEquals(EF_ADN_3, adn3.arg1);
+        answer(adn3, adns(EF_ADN_3, 1));
+        answer(adn1, adns(EF_ADN_1, 2));
+        answer(adn2, adns(EF_ADN_2, 3));
+
+        List<AdnRecord> adns = load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        int[] expectedEfids = {EF_ADN_1, EF_ADN_1, EF_ADN_2, EF_ADN_2, EF_ADN_2, EF_ADN_3};
+        int[] expectedRecords = {1, 2, 1, 2, 3, 1};
+        assertEquals(expectedEfids.length, adns.size());
+        for (int i = 0; i < adns.size(); i++) {
+            assertEquals(expectedEfids[i], adns.get(i).getEfid());
+            assertEquals(expectedRecords[i], adns.get(i).getRecId());
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testFilesInFlightShareTheSimIoBudget() throws Exception {
+        // Each EF read keeps 2 record reads in flight, so only 2 EFs are read at a time.
+        doReturn(2).when(mFh).getMaxPendingRecordReads();
+        FutureTask<ArrayList<AdnRecord>> load = startLoading(
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_1, 1)),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_2, 2)),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_3, 3)));
+
+        Message adn1 = nextRequest();
+        Message adn2 = nextRequest();
+        assertNull(mRequests.poll(100, TimeUnit.MILLISECONDS));
+        answer(adn2, adns(EF_ADN_2, 1));
+        Message adn3 = nextRequest();
+        assertEquals(EF_ADN_3, adn3.arg1);
+        answer(adn3, adns(EF_ADN_3, 1));
+        answer(adn1, adns(EF_ADN_1, 1));
+
+        assertEquals(3, load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).size());
+    }
+
+    @Test
+    @SmallTest
+    public void testSharedEmailFileReadOnce() throws Exception {
+        FutureTask<ArrayList<AdnRecord>> load = startLoading(
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_1, 1), ef(EMAIL_TAG, EF_EMAIL_1)),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_2, 2), ef(EMAIL_TAG, EF_EMAIL_1)));
+
+        Message adn1 = nextRequest();
+        Message adn2 = nextRequest();
+        answer(adn1, adns(EF_ADN_1, 2));
+        answer(adn2, adns(EF_ADN_2, 2));
+
+        Message email = nextRequest();
+        assertEquals(EF_EMAIL_1, email.arg1);
+        answer(email, new ArrayList<>(Arrays.asList(
+                email("alice", 1, 1), email("bob", 2, 2))));
+
+        List<AdnRecord> adns = load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        verify(mFh, times(1)).loadEFLinearFixedAll(eq(EF_EMAIL_1), any(Message.class));
+        assertArrayEquals(new String[] {"alice"}, emailsOf(adns, EF_ADN_1, 1));
+        assertNull(emailsOf(adns, EF_ADN_1, 2));
+        assertNull(emailsOf(adns, EF_ADN_2, 1));
+        assertArrayEquals(new String[] {"bob"}, emailsOf(adns, EF_ADN_2, 2));
+    }
+
+    @Test
+    @SmallTest
+    public void testFailedIapReadSkipped() throws Exception {
+        FutureTask<ArrayList<AdnRecord>> load = startLoading(
+                concat(tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_1, 1), ef(IAP_TAG, EF_IAP_1)),
+                        tlv(TYPE2_TAG, ef(EMAIL_TAG, EF_EMAIL_1))),
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_2, 2), ef(EMAIL_TAG, EF_EMAIL_2)));
+
+        Message adn1 = nextRequest();
+        Message adn2 = nextRequest();
+        answer(adn2, adns(EF_ADN_2, 1));
+        answer(adn1, adns(EF_ADN_1, 1));
+
+        Message iap = nextRequest();
+        Message email1 = nextRequest();
+        Message email2 = nextRequest();
+        assertEquals(EF_IAP_1, iap.arg1);
+        assertEquals(EF_EMAIL_1, email1.arg1);
+        assertEquals(EF_EMAIL_2, email2.arg1);
+        answer(email2, new ArrayList<>(Arrays.asList(email("carol", 2, 1))));
+        answer(email1, new ArrayList<>(Arrays.asList(email("alice", 1, 1))));
+        answerWithError(iap);
+
+        List<AdnRecord> adns = load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNull(emailsOf(adns, EF_ADN_1, 1));
+        assertArrayEquals(new String[] {"carol"}, emailsOf(adns, EF_ADN_2, 1));
+    }
+
+    @Test
+    @SmallTest
+    public void testStaleAnswersIgnored() throws Exception {
+        FutureTask<ArrayList<AdnRecord>> load =
+                new FutureTask<>(mUsimPhoneBookManager::loadEfFilesFromUsim);
+        Thread loader = new Thread(load);
+        loader.start();
+        answer(nextRequest(), new ArrayList<>(Arrays.asList(
+                tlv(TYPE1_TAG, ef(ADN_TAG, EF_ADN_1, 1), ef(EMAIL_TAG, EF_EMAIL_1)))));
+
+        // Give up on the EF_ADN read, so the EF_EMAIL is read before the EF_ADN is answered.
+        Message adn = nextRequest();
+        loader.interrupt();
+        Message email = nextRequest();
+        assertEquals(EF_EMAIL_1, email.arg1);
+
+        // The late EF_ADN answer does not complete the EF_EMAIL read.
+        answer(adn, adns(EF_ADN_1, 1));
+        try {
+            load.get(100, TimeUnit.MILLISECONDS);
+            fail("Loading completed before EF_EMAIL was read");
+        } catch (TimeoutException expected) {
+        }
+
+        answer(email, new ArrayList<>(Arrays.asList(email("alice", 1, 1))));
+        assertEquals(0, load.get(TIMEOUT_MS, TimeUnit.MILLISECONDS).size());
+    }
+}
@@ -40,13 +40,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import android.annotation.Nullable;
 import android.content.Context;
@@ -96,9 +102,11 @@ import org.mockito.InOrder;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 public class PersistAtomsStorageTest extends TelephonyTest {
@@ -3409,6 +3417,53 @@ public class PersistAtomsStorageTest extends TelephonyTest {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    @SmallTest
+    public void saveAtomsToFile_updatesWithinDelaySavedOnce() throws Exception {
+        createEmptyTestFile();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext);
+        mPersistAtomsStorage.mSaveImmediately = false;
+
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+        mPersistAtomsStorage.addUceEventStats(mUceEventStats1);
+        verify(mTestFileOutputStream, never()).write(any(byte[].class));
+
+        // The pull moves the pending save to its shorter delay, which covers all the updates.
+        mPersistAtomsStorage.incTimeMillis(100L);
+        mPersistAtomsStorage.getVoiceCallSessions(0L);
+        verify(mTestFileOutputStream, timeout(5000L)).close();
+        verify(mTestFileOutputStream, after(1000L).times(1)).write(any(byte[].class));
+        PersistAtoms savedAtoms = getAtomsWritten(null);
+        assertEquals(START_TIME_MILLIS + 100L, savedAtoms.voiceCallSessionPullTimestampMillis);
+        assertEquals(1, savedAtoms.uceEventStats.length);
+    }
+
+    @Test
+    @SmallTest
+    public void flushAtoms_savesImmediatelyWithoutLock() throws Exception {
+        createEmptyTestFile();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext);
+        mPersistAtomsStorage.mSaveImmediately = false;
+        List<Boolean> lockHeldOnWrite = new ArrayList<>();
+        doAnswer(invocation -> {
+            lockHeldOnWrite.add(Thread.holdsLock(mPersistAtomsStorage));
+            return null;
+        }).when(mTestFileOutputStream).write(any(byte[].class));
+
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+        verify(mTestFileOutputStream, never()).write(any(byte[].class));
+
+        mPersistAtomsStorage.flushAtoms();
+        PersistAtoms savedAtoms = getAtomsWritten(null);
+        assertEquals(2, savedAtoms.voiceCallSession.length);
+        assertEquals(Arrays.asList(false), lockHeldOnWrite);
+
+        // The flush replaced the delayed save.
+        verify(mTestFileOutputStream, after(1000L).times(1)).write(any(byte[].class));
+    }
+
     @Test
     @SmallTest
     public void clearAtoms() throws Exception {
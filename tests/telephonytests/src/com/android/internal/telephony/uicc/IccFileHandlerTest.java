@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Message;
+import android.os.test.TestLooper;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.CommandException;
+import com.android.internal.telephony.CommandsInterface;
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class IccFileHandlerTest extends TelephonyTest {
+    private static final int RECORD_SIZE = 2;
+    private static final int RECORD_COUNT = 10;
+    private static final int MAX_PENDING_RECORD_READS = 4;
+
+    private CommandsInterface mCiMock;
+    private TestLooper mTestLooper;
+    private Handler mTestHandler;
+    private IccFileHandler mFileHandler;
+
+    /** The requests sent to the card, in order, and the record number of each. */
+    private final List<Message> mRequests = new ArrayList<>();
+    private final List<Integer> mRequestedRecords = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mCiMock = mock(CommandsInterface.class);
+        doAnswer(invocation -> {
+            mRequestedRecords.add(invocation.getArgument(3));
+            mRequests.add(invocation.getArgument(9));
+            return null;
+        }).when(mCiMock).iccIOForApp(anyInt(), anyInt(), any(), anyInt(), anyInt(), anyInt(),
+                any(), any(), any(), any(Message.class));
+        mTestLooper = new TestLooper();
+        mTestHandler = new Handler(mTestLooper.getLooper());
+        mTestHandler.post(() -> mFileHandler =
+                new SIMFileHandler(mUiccCardApplication3gpp, "aid", mCiMock));
+        mTestLooper.dispatchAll();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTestHandler.removeCallbacksAndMessages(null);
+        mFileHandler = null;
+        super.tearDown();
+    }
+
+    private void answer(int request, byte[] payload) {
+        Message response = mRequests.get(request);
+        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00, payload), null);
+        response.sendToTarget();
+        mTestLooper.dispatchAll();
+    }
+
+    private void answerGetResponse() {
+        byte[] data = new byte[IccFileHandler.GET_RESPONSE_EF_SIZE_BYTES];
+        int size = RECORD_SIZE * RECORD_COUNT;
+        data[IccFileHandler.RESPONSE_DATA_FILE_SIZE_1] = (byte) (size >> 8);
+        data[IccFileHandler.RESPONSE_DATA_FILE_SIZE_2] = (byte) size;
+        data[IccFileHandler.RESPONSE_DATA_FILE_TYPE] = IccFileHandler.TYPE_EF;
+        data[IccFileHandler.RESPONSE_DATA_STRUCTURE] = IccFileHandler.EF_TYPE_LINEAR_FIXED;
+        data[IccFileHandler.RESPONSE_DATA_RECORD_LENGTH] = RECORD_SIZE;
+        answer(0, data);
+    }
+
+    private static byte[] record(int recordNum) {
+        return new byte[] {(byte) recordNum, 0};
+    }
+
+    @Test
+    @SmallTest
+    public void testLoadAllKeepsRequestsInFlightAndOrdersResults() {
+        mFileHandler.setMaxPendingRecordReads(MAX_PENDING_RECORD_READS);
+        Message onLoaded = mTestHandler.obtainMessage();
+        mFileHandler.loadEFLinearFixedAll(IccConstants.EF_ADN, onLoaded);
+        answerGetResponse();
+
+        // The first records are all requested before any of them is answered.
+        assertEquals(1 + MAX_PENDING_RECORD_READS, mRequests.size());
+
+        // Answer the newest request first, so the answers come back out of order. Each
+        // answer requests the next record.
+        Set<Integer> answered = new HashSet<>();
+        while (answered.size() < RECORD_COUNT) {
+            assertTrue(mRequests.size() - 1 - answered.size()
+                    <= MAX_PENDING_RECORD_READS);
+            int newest = mRequests.size() - 1;
+            while (answered.contains(newest)) newest--;
+            answer(newest, record(mRequestedRecords.get(newest)));
+            answered.add(newest);
+        }
+
+        assertEquals(1 + RECORD_COUNT, mRequests.size());
+        AsyncResult ar = (AsyncResult) onLoaded.obj;
+        assertNotNull(ar);
+        assertNull(ar.exception);
+        List<byte[]> results = (List<byte[]>) ar.result;
+        assertEquals(RECORD_COUNT, results.size());
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            assertArrayEquals(record(i + 1), results.get(i));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testLoadAllOneAtATimeByDefault() {
+        assertEquals(1, mFileHandler.getMaxPendingRecordReads());
+        Message onLoaded = mTestHandler.obtainMessage();
+        mFileHandler.loadEFLinearFixedAll(IccConstants.EF_ADN, onLoaded);
+        answerGetResponse();
+
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            assertEquals(1 + i, mRequests.size());
+            assertEquals(i, (int) mRequestedRecords.get(i));
+            answer(i, record(i));
+        }
+        assertEquals(RECORD_COUNT, ((List<byte[]>) ((AsyncResult) onLoaded.obj).result).size());
+    }
+
+    @Test
+    @SmallTest
+    public void testLoadAllReportsFirstFailureOnce() {
+        List<Message> results = new ArrayList<>();
+        Handler resultHandler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                results.add(Message.obtain(msg));
+            }
+        };
+        mFileHandler.setMaxPendingRecordReads(MAX_PENDING_RECORD_READS);
+        mFileHandler.loadEFLinearFixedAll(IccConstants.EF_ADN, resultHandler.obtainMessage());
+        answerGetResponse();
+
+        Message failed = mRequests.get(2);
+        AsyncResult.forMessage(failed, null,
+                new CommandException(CommandException.Error.GENERIC_FAILURE));
+        failed.sendToTarget();
+        mTestLooper.dispatchAll();
+        answer(1, record(1));
+        answer(3, record(3));
+
+        assertEquals(1, results.size());
+        assertNotNull(((AsyncResult) results.get(0).obj).exception);
+        // No more records are requested once one failed.
+        assertEquals(1 + MAX_PENDING_RECORD_READS, mRequests.size());
+    }
+}
@@ -24,6 +24,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -46,6 +47,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -390,6 +392,36 @@ public class SIMRecordsTest extends TelephonyTest {
         assertEquals(targetOpl, parsedOpl);
     }
 
+    @Test
+    public void testCachedEfServedBeforeCardAnswers() {
+        String iccId = "89014103211118510720";
+        UiccPort port = mock(UiccPort.class);
+        doReturn(iccId).when(port).getIccId();
+        doReturn(port).when(mUiccController).getUiccPortForPhone(anyInt());
+        SimRecordCache.load(mContext, iccId).put(SIMRecords.EF_GID1, new byte[] {0x12, 0x34});
+
+        try {
+            mSIMRecordsUT.fetchSimRecords();
+            mTestLooper.dispatchAll();
+            // Served from the cache, the card has not answered yet.
+            assertEquals("1234", mSIMRecordsUT.getGid1());
+
+            // The card then answers with different contents.
+            ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+            verify(mFhMock).loadEFTransparent(eq(SIMRecords.EF_GID1), captor.capture());
+            Message response = captor.getValue();
+            AsyncResult.forMessage(response, new byte[] {0x56}, null);
+            response.sendToTarget();
+            mTestLooper.dispatchAll();
+
+            assertEquals("56", mSIMRecordsUT.getGid1());
+            assertTrue(SimRecordCache.load(mContext, iccId)
+                    .matches(SIMRecords.EF_GID1, new byte[] {0x56}));
+        } finally {
+            SimRecordCache.load(mContext, iccId).clear();
+        }
+    }
+
     private byte[] encodeOpl(String plmn, int lacTacStart, int lacTacEnd, int pnnIndex) {
         byte[] data = new byte[8];
 
@@ -19,6 +19,7 @@ package com.android.internal.telephony.uicc;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import android.os.AsyncResult;
@@ -162,4 +163,35 @@ public class SimPhonebookRecordCacheTest extends TelephonyTest {
             assertEquals(adnRecords.size(), 0);
         }
     }
+
+    @Test
+    public void testUpdateBySearchChangesOnlyFirstMatchingRecord() {
+        mSimulatedCommands.notifySimPhonebookChanged();
+        waitForLastHandlerAction(mSimPhonebookRecordCacheUt);
+
+        List<SimPhonebookRecord> records = new ArrayList<SimPhonebookRecord>();
+        records.add(new SimPhonebookRecord(1, "A", "1", null, null));
+        records.add(new SimPhonebookRecord(2, "B", "2", null, null));
+        records.add(new SimPhonebookRecord(3, "B", "2", null, null));
+        AsyncResult ar = new AsyncResult(null, new ReceivedPhonebookRecords(4, records), null);
+        mSimPhonebookRecordCacheUt.handleMessage(Message.obtain(mSimPhonebookRecordCacheUt,
+                EVENT_PHONEBOOK_RECORDS_RECEIVED, ar));
+
+        // Readers share the records until they change.
+        List<AdnRecord> adnRecords = mSimPhonebookRecordCacheUt.getAdnRecords();
+        assertSame(adnRecords, mSimPhonebookRecordCacheUt.getAdnRecords());
+
+        AdnRecord oldAdn = new AdnRecord(IccConstants.EF_ADN, 0, "B", "2", null, null);
+        AdnRecord newAdn = new AdnRecord(IccConstants.EF_ADN, 0, "C", "3", null, null);
+        mSimPhonebookRecordCacheUt.updateSimPbAdnBySearch(oldAdn, newAdn, null);
+        waitForLastHandlerAction(mSimPhonebookRecordCacheUt);
+
+        adnRecords = mSimPhonebookRecordCacheUt.getAdnRecords();
+        assertEquals(3, adnRecords.size());
+        assertEquals("A", adnRecords.get(0).getAlphaTag());
+        assertEquals(2, adnRecords.get(1).getRecId());
+        assertEquals("C", adnRecords.get(1).getAlphaTag());
+        assertEquals("3", adnRecords.get(1).getNumber());
+        assertEquals("B", adnRecords.get(2).getAlphaTag());
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.preference.PreferenceManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.InstrumentationRegistry;
+
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SimRecordCacheTest extends TelephonyTest {
+    private static final String ICCID = "89014103211118510720";
+    private static final int EF_TRANSPARENT = IccConstants.EF_GID1;
+    private static final int EF_LINEAR_FIXED = IccConstants.EF_PNN;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        clearSharedPreferences();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clearSharedPreferences();
+        super.tearDown();
+    }
+
+    private void clearSharedPreferences() {
+        // The test context hands out the default shared preferences for any name.
+        PreferenceManager.getDefaultSharedPreferences(InstrumentationRegistry.getContext())
+                .edit().clear().commit();
+    }
+
+    @Test
+    @SmallTest
+    public void testContentsSurviveReload() {
+        SimRecordCache cache = SimRecordCache.load(mContext, ICCID);
+        assertNull(cache.get(EF_TRANSPARENT));
+
+        byte[] gid1 = new byte[] {0x12, 0x34};
+        List<byte[]> pnn = Arrays.asList(new byte[] {0x43, 0x01}, new byte[] {(byte) 0xff});
+        cache.put(EF_TRANSPARENT, gid1);
+        cache.put(EF_LINEAR_FIXED, new ArrayList<>(pnn));
+
+        SimRecordCache reloaded = SimRecordCache.load(mContext, ICCID);
+        assertArrayEquals(gid1, (byte[]) reloaded.get(EF_TRANSPARENT));
+        assertTrue(reloaded.matches(EF_LINEAR_FIXED, pnn));
+        assertFalse(reloaded.matches(EF_LINEAR_FIXED, pnn.subList(0, 1)));
+        assertFalse(reloaded.matches(EF_TRANSPARENT, new byte[] {0x12}));
+    }
+
+    @Test
+    @SmallTest
+    public void testReturnedContentsAreCopies() {
+        SimRecordCache cache = SimRecordCache.load(mContext, ICCID);
+        byte[] gid1 = new byte[] {0x12, 0x34};
+        cache.put(EF_TRANSPARENT, gid1);
+        gid1[0] = 0;
+        ((byte[]) cache.get(EF_TRANSPARENT))[1] = 0;
+
+        assertTrue(cache.matches(EF_TRANSPARENT, new byte[] {0x12, 0x34}));
+    }
+
+    @Test
+    @SmallTest
+    public void testRemoveAndClear() {
+        SimRecordCache cache = SimRecordCache.load(mContext, ICCID);
+        cache.put(EF_TRANSPARENT, new byte[] {0x12});
+        cache.put(EF_LINEAR_FIXED, new ArrayList<>(Arrays.asList(new byte[] {0x01})));
+
+        cache.remove(EF_TRANSPARENT);
+        SimRecordCache reloaded = SimRecordCache.load(mContext, ICCID);
+        assertNull(reloaded.get(EF_TRANSPARENT));
+        assertNotNull(reloaded.get(EF_LINEAR_FIXED));
+
+        reloaded.clear();
+        assertNull(SimRecordCache.load(mContext, ICCID).get(EF_LINEAR_FIXED));
+    }
+
+    @Test
+    @SmallTest
+    public void testCardsAreKeptSeparatelyAndLeastRecentEvicted() {
+        for (int i = 0; i < 5; i++) {
+            SimRecordCache.load(mContext, ICCID + i).put(EF_TRANSPARENT, new byte[] {(byte) i});
+        }
+
+        // Only the four most recent cards are kept.
+        assertNull(SimRecordCache.load(mContext, ICCID + 0).get(EF_TRANSPARENT));
+        for (int i = 2; i < 5; i++) {
+            assertArrayEquals(new byte[] {(byte) i},
+                    (byte[]) SimRecordCache.load(mContext, ICCID + i).get(EF_TRANSPARENT));
+        }
+        assertEquals(ICCID + 4, SimRecordCache.load(mContext, ICCID + 4).getIccId());
+    }
+}